@@ -30,12 +30,37 @@
 package co.louiscap.lib.lexical;
 
 import co.louiscap.lib.compat.output.MultiplexedStringPrinter;
+import co.louiscap.lib.lexical.engine.BatchLexer;
+import co.louiscap.lib.lexical.engine.CompiledLexerCache;
+import co.louiscap.lib.lexical.engine.DfaMatcher;
+import co.louiscap.lib.lexical.engine.LazyDfaMatcher;
+import co.louiscap.lib.lexical.engine.LexicalException;
+import co.louiscap.lib.lexical.engine.Lexer;
+import co.louiscap.lib.lexical.engine.LexerGenerator;
+import co.louiscap.lib.lexical.engine.MappedLexer;
+import co.louiscap.lib.lexical.engine.PriorityRuleMatcher;
+import co.louiscap.lib.lexical.engine.RuleMatcher;
+import co.louiscap.lib.lexical.engine.RuleSet;
+import co.louiscap.lib.lexical.engine.StreamingLexer;
+import co.louiscap.lib.lexical.io.LexicalFile;
 import co.louiscap.lib.lexical.io.LexicalFileDiscovery;
+import co.louiscap.lib.lexical.io.LexicalFileReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -44,13 +69,19 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 /**
- * Lexes the given file based upon the 
+ * Lexes the given files based upon the lexical definitions found in the {@code lexf} directory
  * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
  */
 public class CliLexer {
 
     public static final MultiplexedStringPrinter PRINTER = new MultiplexedStringPrinter();
     public static CommandLine PROGOPTS;
+
+    /**
+     * The default size, in bytes, above which input files are memory mapped instead of read
+     */
+    public static final long MAP_THRESHOLD = 64L << 20;
+
     /**
      * @param args the command line arguments
      * @throws java.io.FileNotFoundException If the user tries to write the token data to a file, but it is
@@ -66,6 +97,7 @@ public class CliLexer {
             PROGOPTS = cliparse.parse(opts, args);
         } catch (ParseException ex) {
             PRINTER.println(ex.getMessage(), "err");
+            System.exit(1);
         }
         
         if(PROGOPTS.hasOption("h")) {
@@ -82,20 +114,251 @@ public class CliLexer {
             Path p = Paths.get(PROGOPTS.getOptionValue("o", "./out.tok"));
             File f = p.toFile();
             PrintStream ps = new PrintStream(f);
-            PRINTER.addChannel("out", null);
+            PRINTER.addChannel("out", ps);
         }
         
         LexicalFileDiscovery lfd = new LexicalFileDiscovery();
         lfd.addExtension("lex");
-        lfd.getPathsFromDir(".", "lexf").forEach(System.out::println);
+        ArrayList<LexicalFile> lexFiles = new ArrayList<>();
+        try {
+            for (Path lexPath : lfd.getPathsFromDir(".", "lexf")) {
+                lexFiles.add(new LexicalFileReader(lexPath).parse());
+            }
+        } catch (IOException ex) {
+            PRINTER.println("Failed to read lexical definitions: " + ex.getMessage(), "err");
+            System.exit(1);
+        }
+        
+        RuleSet rules = RuleSet.fromFiles(lexFiles);
+        if(PROGOPTS.hasOption("emit-types")) {
+            String className = PROGOPTS.getOptionValue("emit-types");
+            int dot = className.lastIndexOf('.');
+            PRINTER.print(rules.getTokenTypes().generateConstants(
+                    dot < 0 ? "" : className.substring(0, dot), className.substring(dot + 1)), "out");
+            PRINTER.flush();
+            return;
+        }
+        if(PROGOPTS.hasOption("generate")) {
+            generateLexer(rules, PROGOPTS.getOptionValue("generate"));
+            return;
+        }
+        Supplier<RuleMatcher> matchers;
+        try {
+            CompiledLexerCache cache = PROGOPTS.hasOption("cache")
+                    ? new CompiledLexerCache(Paths.get(PROGOPTS.getOptionValue("cache"))) : null;
+            matchers = createMatchers(rules, PROGOPTS.getOptionValue("m", "dfa"),
+                                      PROGOPTS.hasOption("specialise"), cache);
+            if(cache != null) {
+                cache.getStatistics().forEach((name, value) -> PRINTER.println(name + ": " + value,
+                                                                               "debug"));
+            }
+        } catch (IllegalArgumentException ex) {
+            PRINTER.println("Failed to compile lexical definitions: " + ex.getMessage(), "err");
+            System.exit(1);
+            return;
+        }
+        PRINTER.println("Compiled " + rules.size() + " rules", "debug");
+        
+        Charset encoding;
+        try {
+            encoding = Charset.forName(PROGOPTS.getOptionValue("e", "UTF-8"));
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+            PRINTER.println("Invalid encoding: " + ex.getMessage(), "err");
+            System.exit(1);
+            return;
+        }
+        long mapThreshold;
+        int threads, openFiles;
+        try {
+            mapThreshold = Long.parseLong(PROGOPTS.getOptionValue("map-threshold",
+                                                                  String.valueOf(MAP_THRESHOLD)));
+            threads = Integer.parseInt(PROGOPTS.getOptionValue("t", "0"));
+            openFiles = Integer.parseInt(PROGOPTS.getOptionValue("open-files", "0"));
+        } catch (NumberFormatException ex) {
+            PRINTER.println("Invalid number: " + ex.getMessage(), "err");
+            System.exit(1);
+            return;
+        }
+        List<Path> inputs = findInputs(PROGOPTS.getArgs(), PROGOPTS.getOptionValues("x"));
+        if(openFiles > 0 && threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if(threads > 0) {
+            lexBatch(rules, matchers, encoding, mapThreshold, threads, openFiles, inputs);
+            PRINTER.flush();
+            return;
+        }
+        
+        Lexer lexer = new Lexer(rules, matchers.get());
+        StreamingLexer streamer = new StreamingLexer(lexer);
+        MappedLexer mapper = new MappedLexer(lexer);
+        boolean utf8 = encoding.equals(StandardCharsets.UTF_8) && !inputs.isEmpty()
+                && mapper.canLexUtf8();
+        for (Path input : inputs) {
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+                boolean map = channel.size() >= mapThreshold;
+                if(map) {
+                    PRINTER.println("Memory mapping " + input, "debug");
+                }
+                if(utf8 && map) {
+                    mapper.lexUtf8(channel, token -> PRINTER.print(token.serialise(), "out"));
+                } else if(utf8) {
+                    mapper.lexUtf8(MappedLexer.readFully(channel),
+                                   token -> PRINTER.print(token.serialise(), "out"));
+                } else if(map) {
+                    mapper.lex(channel, encoding, token -> PRINTER.print(token.serialise(), "out"));
+                } else {
+                    streamer.lex(channel, encoding, token -> PRINTER.print(token.serialise(), "out"));
+                }
+            } catch (IOException | LexicalException ex) {
+                PRINTER.println("Failed to lex " + input + ": " + ex.getMessage(), "err");
+            }
+        }
+        lexer.getStatistics().forEach((name, value) -> PRINTER.println(name + ": " + value, "debug"));
+        PRINTER.flush();
+    }
+    
+    /**
+     * Prints the source of a lexer class generated from the rules, exiting with an error if the
+     * rules can't be compiled into a DFA
+     */
+    private static void generateLexer(RuleSet rules, String className) {
+        String source;
+        try {
+            int dot = className.lastIndexOf('.');
+            source = new LexerGenerator(rules).generate(dot < 0 ? "" : className.substring(0, dot),
+                                                        className.substring(dot + 1));
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            PRINTER.println("Failed to generate a lexer: " + ex.getMessage(), "err");
+            System.exit(1);
+            return;
+        }
+        PRINTER.print(source, "out");
+        PRINTER.flush();
+    }
+    
+    /**
+     * Lexes the input files on a pool of threads, printing the output for each file in one piece
+     * and in the order the files were found
+     */
+    private static void lexBatch(RuleSet rules, Supplier<RuleMatcher> matchers, Charset encoding,
+            long mapThreshold, int threads, int openFiles, List<Path> inputs) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        BatchLexer batch = new BatchLexer(rules, matchers, encoding, mapThreshold, pool, openFiles);
+        try {
+            batch.lex(inputs, new BatchLexer.Output() {
+                @Override
+                public void lexed(Path file, String tokens) {
+                    PRINTER.print(tokens, "out");
+                }
+
+                @Override
+                public void failed(Path file, Exception ex) {
+                    PRINTER.println("Failed to lex " + file + ": " + ex.getMessage(), "err");
+                }
+            });
+        } catch (InterruptedException ex) {
+            PRINTER.println("Interrupted while lexing", "err");
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        batch.getStatistics().forEach((name, value) -> PRINTER.println(name + ": " + value, "debug"));
+    }
+    
+    /**
+     * Lists the files to lex. Files are taken as they are, and directories are searched, along
+     * with their subdirectories, for files with one of the given extensions.
+     */
+    private static List<Path> findInputs(String[] args, String[] extensions) {
+        ArrayList<Path> inputs = new ArrayList<>();
+        LexicalFileDiscovery discovery = new LexicalFileDiscovery();
+        if(extensions != null) {
+            for (String ext : extensions) {
+                discovery.addExtension(ext.split(","));
+            }
+        }
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            if(!path.toFile().isDirectory()) {
+                inputs.add(path);
+            } else if(extensions == null) {
+                PRINTER.println("Skipping directory " + arg + ", no extensions given with -x", "err");
+            } else {
+                inputs.addAll(discovery.getDeepPathsFromDir(path));
+            }
+        }
+        return inputs;
+    }
+    
+    /**
+     * Compiles the rules for the requested matching mode. A full DFA that would be too large is
+     * replaced with a lazy one, and rule sets that can't be compiled into an automaton at all are
+     * matched rule by rule. A compiled DFA is shared by every caller of the supplier; the other
+     * matchers aren't thread safe, so a new one is created for each call. A compiled DFA can be
+     * specialised into a class of its own, keeping the table driven matcher if that fails, and
+     * is loaded from the cache when one is given.
+     */
+    private static Supplier<RuleMatcher> createMatchers(RuleSet rules, String mode,
+                                                        boolean specialise, CompiledLexerCache cache) {
+        if(!rules.isLinear() && !mode.equals("rules")) {
+            PRINTER.println("Warning: some rules need backtracking, matching rule by rule instead;"
+                            + " those rules take the first match a backtracking matcher finds,"
+                            + " which may be shorter than their longest match", "err");
+            mode = "rules";
+        }
+        switch(mode) {
+            case "dfa":
+                try {
+                    DfaMatcher dfa = cache == null ? DfaMatcher.compile(rules)
+                            : cache.getDfaMatcher(rules);
+                    PRINTER.println("DFA transition table: " + dfa.getDfa().getTableLayout(),
+                                    "debug");
+                    if(!specialise) {
+                        return () -> dfa;
+                    }
+                    RuleMatcher specialised = dfa.specialise(rules);
+                    if(specialised == dfa) {
+                        PRINTER.println("Failed to specialise the DFA (" + dfa.getSpecialiseFailure()
+                                        + "), using its tables instead", "debug");
+                    }
+                    return () -> specialised;
+                } catch (IllegalStateException ex) {
+                    PRINTER.println(ex.getMessage() + ", using a lazy DFA instead", "debug");
+                    return () -> LazyDfaMatcher.compile(rules);
+                }
+            case "lazy":
+                return () -> LazyDfaMatcher.compile(rules);
+            case "rules":
+                return () -> new PriorityRuleMatcher(rules);
+            default:
+                throw new IllegalArgumentException("Unknown matching mode " + mode);
+        }
     }
     
     private static Options setupCommandLine() {
         Options options = new Options();
         options.addOption("v", false, "Verbose; Print debug info to stdout");
-        options.addOption("o", "out", true, "Outfile; output lexical info to file"
+        options.addOption("o", "out", true, "Outfile; output lexical info to file "
                 + "instead of stdout");
         options.addOption("e", true, "File encoding. Defaults to UTF-8");
+        options.addOption("m", "mode", true, "Matching mode; dfa (default), lazy or rules");
+        options.addOption(null, "specialise", false, "In dfa mode, compile the DFA into a class "
+                + "of its own at runtime, which needs a JDK");
+        options.addOption(null, "cache", true, "In dfa mode, keep the compiled DFA in this "
+                + "directory and reuse it while the definitions are unchanged");
+        options.addOption(null, "map-threshold", true, "Memory map input files of at least this "
+                + "many bytes. Defaults to " + MAP_THRESHOLD);
+        options.addOption("t", "threads", true, "Lex the input files in parallel on this many "
+                + "threads, printing the output of each file in one piece");
+        options.addOption(null, "open-files", true, "Read up to this many input files at once "
+                + "ahead of lexing them, on virtual threads where the JVM supports them");
+        options.addOption("x", "ext", true, "Lex files with these comma separated extensions "
+                + "when a directory is given as input");
+        options.addOption(null, "emit-types", true, "Print the source of a Java class with this "
+                + "fully qualified name holding an int constant for each token type, then exit");
+        options.addOption(null, "generate", true, "Print the source of a Java lexer class with "
+                + "this fully qualified name, with the compiled rules built in, then exit");
         options.addOption("h", "help", false, "Print out help text");
         return options;
     }
@@ -0,0 +1,187 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton, which finds every occurrence of a set of strings in a single pass
+ * over the input. The automaton is a trie of the strings whose states are extended with failure
+ * links, so that after each character the current state is the longest suffix of the input read
+ * so far that is also a prefix of one of the strings.
+ * <p>
+ * Instances are immutable; the scanning state is the int returned by {@link #step(int, char)}, so
+ * one automaton can be shared between any number of scans.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class AhoCorasick {
+
+    /**
+     * The state of the automaton before any input has been read
+     */
+    public static final int ROOT = 0;
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final String[] words;
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    private final int[][] outputs;
+    private final int[] rootEdges;
+    private final int maxLength;
+
+    /**
+     * Builds an automaton that finds the given strings
+     * @param words The strings to search for, each of which is identified by its index
+     */
+    public AhoCorasick(List<String> words) {
+        this.words = words.toArray(new String[words.size()]);
+        ArrayList<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        ArrayList<IntList> found = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        found.add(new IntList());
+        int longest = 0;
+        for (int w = 0; w < this.words.length; w++) {
+            String word = this.words[w];
+            longest = Math.max(longest, word.length());
+            int state = ROOT;
+            for (int i = 0; i < word.length(); i++) {
+                Integer next = edges.get(state).get(word.charAt(i));
+                if(next == null) {
+                    next = edges.size();
+                    edges.get(state).put(word.charAt(i), next);
+                    edges.add(new TreeMap<>());
+                    found.add(new IntList());
+                }
+                state = next;
+            }
+            found.get(state).add(w);
+        }
+        this.maxLength = longest;
+
+        // Each state's edges are kept sorted by character, to be found by binary search
+        int count = edges.size();
+        this.labels = new char[count][];
+        this.targets = new int[count][];
+        for (int s = 0; s < count; s++) {
+            TreeMap<Character, Integer> children = edges.get(s);
+            labels[s] = new char[children.size()];
+            targets[s] = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                labels[s][i] = child.getKey();
+                targets[s][i++] = child.getValue();
+            }
+        }
+        this.fail = new int[count];
+        this.outputs = new int[count][];
+        this.rootEdges = new int[128];
+        Arrays.fill(rootEdges, ROOT);
+
+        // Breadth first, so each state's failure link points to a state that is already complete
+        int[] queue = new int[count];
+        int head = 0, tail = 0;
+        queue[tail++] = ROOT;
+        outputs[ROOT] = found.get(ROOT).toArray();
+        while (head < tail) {
+            int parent = queue[head++];
+            for (int i = 0; i < labels[parent].length; i++) {
+                char c = labels[parent][i];
+                int target = targets[parent][i];
+                fail[target] = parent == ROOT ? ROOT : step(fail[parent], c);
+                int[] own = found.get(target).toArray();
+                int[] inherited = outputs[fail[target]];
+                int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+                System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+                outputs[target] = merged.length == 0 ? NO_OUTPUTS : merged;
+                if(parent == ROOT && c < rootEdges.length) {
+                    rootEdges[c] = target;
+                }
+                queue[tail++] = target;
+            }
+        }
+    }
+
+    /**
+     * Consumes a character
+     * @param state The current state, initially {@link #ROOT}
+     * @param c The next input character
+     * @return The next state
+     */
+    public int step(int state, char c) {
+        while (true) {
+            if(state == ROOT && c < rootEdges.length) {
+                return rootEdges[c];
+            }
+            int index = Arrays.binarySearch(labels[state], c);
+            if(index >= 0) {
+                return targets[state][index];
+            }
+            if(state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * Gets the strings that end at the last character consumed to reach a state
+     * @param state A state returned by {@link #step(int, char)}
+     * @return The indices of the strings found, which must not be modified
+     */
+    public int[] getOutputs(int state) {
+        return outputs[state];
+    }
+
+    public String getWord(int index) {
+        return words[index];
+    }
+
+    public int getWordCount() {
+        return words.length;
+    }
+
+    /**
+     * Gets the length of the longest string searched for
+     * @return The maximum string length
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public int getStateCount() {
+        return fail.length;
+    }
+}
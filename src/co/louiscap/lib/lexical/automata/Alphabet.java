@@ -0,0 +1,293 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import co.louiscap.lib.lexical.regex.CharSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Splits the UTF-16 code units into equivalence classes, such that no rule distinguishes between
+ * two characters of the same class. Transition tables are indexed by class instead of by
+ * character, which keeps them small even for rules that use large Unicode classes.
+ * <p>
+ * A class need not be contiguous: with rules for {@code [a-z]+} and {@code 0x[0-9a-f]+}, the
+ * letters {@code g} to {@code w}, {@code y} and {@code z} are a single class. The characters are
+ * also described as intervals, the longest runs of characters that share a class. Classes are
+ * looked up in two levels, through 256 blocks of 256 characters in which identical blocks are
+ * only stored once, so a lookup is two array reads however the characters are split.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class Alphabet {
+
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final int size;
+    private final int[] starts;
+    private final int[] classes;
+    /**
+     * The offset in {@link #blocks} of the block for each high byte
+     */
+    private final int[] index;
+    private final char[] blocks;
+
+    /**
+     * Creates an alphabet from its intervals
+     * @param starts The first character of each interval, in ascending order from 0
+     * @param classes The class of each interval, below {@code size}
+     * @param size The number of classes
+     */
+    Alphabet(int[] starts, int[] classes, int size) {
+        this.size = size;
+        this.starts = starts;
+        this.classes = classes;
+        this.index = new int[BLOCK_SIZE];
+        HashMap<String, Integer> offsets = new HashMap<>();
+        char[] block = new char[BLOCK_SIZE];
+        char[] packed = new char[BLOCK_SIZE * 4];
+        int used = 0, interval = 0;
+        for (int b = 0; b < BLOCK_SIZE; b++) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int c = b << BLOCK_BITS | i;
+                while(interval + 1 < starts.length && starts[interval + 1] <= c) {
+                    interval++;
+                }
+                block[i] = (char) classes[interval];
+            }
+            String key = new String(block);
+            Integer offset = offsets.get(key);
+            if(offset == null) {
+                if(used + BLOCK_SIZE > packed.length) {
+                    packed = Arrays.copyOf(packed, packed.length * 2);
+                }
+                System.arraycopy(block, 0, packed, used, BLOCK_SIZE);
+                offset = used;
+                offsets.put(key, offset);
+                used += BLOCK_SIZE;
+            }
+            index[b] = offset;
+        }
+        this.blocks = Arrays.copyOf(packed, used);
+    }
+
+    /**
+     * Computes the alphabet needed to represent every transition of an NFA. The characters are cut
+     * into intervals at the bounds of every character set, and the intervals are then grouped by
+     * splitting the groups against each distinct set in turn, so two intervals end up in the same
+     * class exactly when every set holds both or neither of them.
+     * @param nfa The NFA to partition the characters for
+     * @return A new alphabet
+     */
+    public static Alphabet of(Nfa nfa) {
+        LinkedHashSet<CharSet> sets = new LinkedHashSet<>();
+        for (int s = 0; s < nfa.getStateCount(); s++) {
+            CharSet set = nfa.getChars(s);
+            if(set != null) {
+                sets.add(set);
+            }
+        }
+        int[] bounds = new int[16];
+        int count = 0;
+        bounds[count++] = 0;
+        for (CharSet set : sets) {
+            for (int r = 0; r < set.getRangeCount(); r++) {
+                if(count + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[count++] = set.getLow(r);
+                bounds[count++] = set.getHigh(r) + 1;
+            }
+        }
+        Arrays.sort(bounds, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if(bounds[i] <= CharSet.MAX_CHAR && (unique == 0 || bounds[i] != bounds[unique - 1])) {
+                bounds[unique++] = bounds[i];
+            }
+        }
+        int[] starts = Arrays.copyOf(bounds, unique);
+
+        int[] group = new int[unique];
+        int[] groupSizes = new int[unique];
+        int[] hits = new int[unique];
+        // The group that takes the intervals a set holds out of a group it only partly covers
+        int[] splits = new int[unique];
+        int[] touched = new int[unique];
+        int[] split = new int[unique];
+        groupSizes[0] = unique;
+        int groups = 1;
+        for (CharSet set : sets) {
+            // No interval straddles a bound, so each one is either wholly in the set or out of it
+            int marked = 0;
+            for (int r = 0; r < set.getRangeCount(); r++) {
+                int last = intervalOf(starts, set.getHigh(r));
+                for (int i = intervalOf(starts, set.getLow(r)); i <= last; i++) {
+                    touched[marked++] = i;
+                    hits[group[i]]++;
+                }
+            }
+            int splitCount = 0;
+            for (int m = 0; m < marked; m++) {
+                int old = group[touched[m]];
+                if(hits[old] == groupSizes[old]) {
+                    continue;
+                }
+                if(splits[old] == 0) {
+                    splits[old] = groups;
+                    groupSizes[groups++] = hits[old];
+                    split[splitCount++] = old;
+                }
+                group[touched[m]] = splits[old];
+            }
+            for (int m = 0; m < marked; m++) {
+                hits[group[touched[m]]] = 0;
+            }
+            for (int g = 0; g < splitCount; g++) {
+                int old = split[g];
+                groupSizes[old] -= hits[old];
+                hits[old] = 0;
+                splits[old] = 0;
+            }
+        }
+
+        // Number the classes in order of their first character and merge neighbouring intervals
+        int[] ids = new int[groups];
+        Arrays.fill(ids, -1);
+        int size = 0, intervals = 0;
+        int[] classes = new int[unique];
+        for (int i = 0; i < unique; i++) {
+            if(ids[group[i]] < 0) {
+                ids[group[i]] = size++;
+            }
+            if(intervals == 0 || classes[intervals - 1] != ids[group[i]]) {
+                starts[intervals] = starts[i];
+                classes[intervals++] = ids[group[i]];
+            }
+        }
+        return new Alphabet(Arrays.copyOf(starts, intervals), Arrays.copyOf(classes, intervals),
+                            size);
+    }
+
+    private static int intervalOf(int[] starts, int c) {
+        int index = Arrays.binarySearch(starts, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Gets the number of classes in this alphabet
+     * @return The number of classes, which is the width of a transition table row
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the class of a character
+     * @param c The character to look up
+     * @return The index of its class
+     */
+    public int classOf(char c) {
+        return blocks[index[c >>> BLOCK_BITS] + (c & BLOCK_MASK)];
+    }
+
+    /**
+     * Finds the classes of the characters in a set
+     * @param set A set whose bounds are all bounds of intervals of this alphabet, such as the
+     * characters of a state of the NFA the alphabet was computed for
+     * @return The distinct classes, in ascending order
+     */
+    int[] classesOf(CharSet set) {
+        BitSet found = new BitSet(size);
+        for (int r = 0; r < set.getRangeCount(); r++) {
+            int last = intervalOf(starts, set.getHigh(r));
+            for (int i = intervalOf(starts, set.getLow(r)); i <= last; i++) {
+                found.set(classes[i]);
+            }
+        }
+        return found.stream().toArray();
+    }
+
+    /**
+     * Gets the number of intervals in this alphabet
+     * @return The number of runs of characters that share a class, which is at least the number
+     * of classes
+     */
+    public int getIntervalCount() {
+        return starts.length;
+    }
+
+    /**
+     * Finds the interval holding a character
+     * @param c The character to look up
+     * @return The index of its interval
+     */
+    public int intervalOf(char c) {
+        return intervalOf(starts, c);
+    }
+
+    /**
+     * Gets the first character of an interval
+     * @param interval The index of the interval
+     * @return The lowest character in the interval
+     */
+    public int getIntervalStart(int interval) {
+        return starts[interval];
+    }
+
+    /**
+     * Gets the last character of an interval
+     * @param interval The index of the interval
+     * @return The highest character in the interval
+     */
+    public int getIntervalEnd(int interval) {
+        return interval + 1 < starts.length ? starts[interval + 1] - 1 : CharSet.MAX_CHAR;
+    }
+
+    /**
+     * Gets the class of the characters in an interval
+     * @param interval The index of the interval
+     * @return The index of its class
+     */
+    public int getIntervalClass(int interval) {
+        return classes[interval];
+    }
+
+    /**
+     * Gets the memory taken by the class lookup table
+     * @return The size of the table, in bytes
+     */
+    public long getTableSize() {
+        return (long) index.length * Integer.BYTES + (long) blocks.length * Character.BYTES;
+    }
+}
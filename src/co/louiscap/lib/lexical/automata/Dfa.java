@@ -0,0 +1,262 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A deterministic automaton recognising every rule of a rule set. State {@link #DEAD} is the
+ * sink state that every failed transition leads to. Each state records the highest priority rule
+ * that accepts the input consumed to reach it, so a single pass over the input finds the longest
+ * match and the rule that wins it. Instances are immutable and can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class Dfa {
+
+    /**
+     * The state that can never reach an accepting state
+     */
+    public static final int DEAD = 0;
+
+    private final Alphabet alphabet;
+    private final int width;
+    private final TransitionTable transitions;
+    private final int[] accepting;
+    private final int start;
+
+    Dfa(Alphabet alphabet, int[] transitions, int[] accepting, int start) {
+        this(alphabet, TransitionTable.select(transitions, alphabet.size()), accepting, start);
+    }
+
+    private Dfa(Alphabet alphabet, TransitionTable transitions, int[] accepting, int start) {
+        this.alphabet = alphabet;
+        this.width = alphabet.size();
+        this.transitions = transitions;
+        this.accepting = accepting;
+        this.start = start;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    public int getStartState() {
+        return start;
+    }
+
+    /**
+     * Gets the rule accepted in a state
+     * @param state The state to check
+     * @return The index of the highest priority rule accepted in the state, or -1
+     */
+    public int getAcceptingRule(int state) {
+        return accepting[state];
+    }
+
+    /**
+     * Follows the transition for a character
+     * @param state The current state
+     * @param c The next input character
+     * @return The next state, which is {@link #DEAD} if no rule can match
+     */
+    public int step(int state, char c) {
+        return transitions.next(state, alphabet.classOf(c));
+    }
+
+    /**
+     * Gets the memory taken by the transition table
+     * @return The size of the table, in bytes
+     */
+    public long getTableSize() {
+        return transitions.getSizeInBytes();
+    }
+
+    /**
+     * Describes how the transition table is stored
+     * @return "dense", "comb" (row displacement) or "sparse" (exception lists) for an array, or
+     * "mapped16" or "mapped32" for a buffer of 16 or 32 bit entries
+     */
+    public String getTableLayout() {
+        return transitions.getLayout();
+    }
+
+    /**
+     * Gets the memory the transition table would take if it were stored dense
+     * @return The size of the uncompressed table, in bytes
+     */
+    public long getDenseTableSize() {
+        return (long) accepting.length * width * Integer.BYTES;
+    }
+
+    /**
+     * Estimates the cost of following a transition
+     * @return The mean number of array reads needed to find a target in the table, not counting
+     * the lookup of the input's class
+     */
+    public double getReadsPerLookup() {
+        return transitions.getReadsPerLookup();
+    }
+
+    /**
+     * Writes this automaton in a compact binary form, which stays 4 byte aligned if it starts so,
+     * and can be used in place with {@link #map(java.nio.ByteBuffer)}
+     * @param out The stream to write to
+     * @throws IOException If the stream can't be written to
+     * @see #read(java.io.DataInput)
+     */
+    public void write(DataOutput out) throws IOException {
+        int intervals = alphabet.getIntervalCount();
+        out.writeInt(width);
+        out.writeInt(intervals);
+        for (int i = 0; i < intervals; i++) {
+            out.writeInt(alphabet.getIntervalStart(i));
+        }
+        for (int i = 0; i < intervals; i++) {
+            out.writeInt(alphabet.getIntervalClass(i));
+        }
+        out.writeInt(accepting.length);
+        out.writeInt(start);
+        for (int rule : accepting) {
+            out.writeInt(rule);
+        }
+        transitions.write(out, accepting.length, width);
+    }
+
+    /**
+     * Reads an automaton written by {@link #write(java.io.DataOutput)} onto the heap
+     * @param in The stream to read from
+     * @return The automaton
+     * @throws IOException If the stream can't be read, or doesn't hold a valid automaton
+     */
+    public static Dfa read(DataInput in) throws IOException {
+        int width = checkWidth(in.readInt());
+        int intervals = checkIntervals(in.readInt(), width);
+        int[] starts = new int[intervals], classes = new int[intervals];
+        for (int i = 0; i < intervals; i++) {
+            starts[i] = in.readInt();
+        }
+        for (int i = 0; i < intervals; i++) {
+            classes[i] = in.readInt();
+        }
+        int states = in.readInt();
+        int start = in.readInt();
+        checkStates(states, start, width);
+        int[] accepting = new int[states];
+        for (int s = 0; s < states; s++) {
+            accepting[s] = in.readInt();
+        }
+        return new Dfa(checkAlphabet(starts, classes, width), TransitionTable.read(in, states, width),
+                       accepting, start);
+    }
+
+    /**
+     * Uses an automaton written by {@link #write(java.io.DataOutput)} in place. The alphabet and
+     * accepting rules are copied, but the transition table, which is nearly all of the automaton,
+     * is read straight from the buffer, so a memory mapped file is shared by every process that
+     * maps it.
+     * @param buffer The buffer holding the automaton from its position, which is moved past it.
+     * It must not change while the automaton is in use.
+     * @return The automaton
+     * @throws IOException If the buffer doesn't hold a valid automaton
+     */
+    public static Dfa map(ByteBuffer buffer) throws IOException {
+        try {
+            int width = checkWidth(buffer.getInt());
+            int intervals = checkIntervals(buffer.getInt(), width);
+            int[] starts = new int[intervals], classes = new int[intervals];
+            buffer.asIntBuffer().get(starts);
+            buffer.position(buffer.position() + intervals * Integer.BYTES);
+            buffer.asIntBuffer().get(classes);
+            buffer.position(buffer.position() + intervals * Integer.BYTES);
+            int states = buffer.getInt();
+            int start = buffer.getInt();
+            checkStates(states, start, width);
+            int[] accepting = new int[states];
+            buffer.asIntBuffer().get(accepting);
+            buffer.position(buffer.position() + states * Integer.BYTES);
+            return new Dfa(checkAlphabet(starts, classes, width),
+                           TransitionTable.map(buffer, states, width), accepting, start);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("The automaton is truncated", ex);
+        }
+    }
+
+    private static int checkWidth(int width) throws IOException {
+        if(width <= 0 || width > 0x10000) {
+            throw new IOException("Invalid alphabet size " + width);
+        }
+        return width;
+    }
+
+    private static int checkIntervals(int intervals, int width) throws IOException {
+        if(intervals < width || intervals > 0x10000) {
+            throw new IOException("Invalid interval count " + intervals);
+        }
+        return intervals;
+    }
+
+    private static Alphabet checkAlphabet(int[] starts, int[] classes, int width)
+            throws IOException {
+        for (int i = 0; i < starts.length; i++) {
+            if(i == 0 ? starts[i] != 0 : starts[i] <= starts[i - 1] || starts[i] > 0xFFFF) {
+                throw new IOException("Invalid alphabet");
+            }
+            if(classes[i] < 0 || classes[i] >= width) {
+                throw new IOException("Invalid character class " + classes[i]);
+            }
+        }
+        return new Alphabet(starts, classes, width);
+    }
+
+    private static void checkStates(int states, int start, int width) throws IOException {
+        if(states <= DEAD || (long) states * width > Integer.MAX_VALUE || start < 0
+           || start >= states) {
+            throw new IOException("Invalid state count " + states);
+        }
+    }
+
+    /**
+     * Follows the transition for a class of the alphabet
+     * @param state The current state
+     * @param inputClass The index of the class from {@link Alphabet#classOf(char)}
+     * @return The next state
+     */
+    public int stepClass(int state, int inputClass) {
+        return transitions.next(state, inputClass);
+    }
+}
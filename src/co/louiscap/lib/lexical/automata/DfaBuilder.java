@@ -0,0 +1,208 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import co.louiscap.lib.lexical.regex.CharSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Converts an {@link Nfa} into a {@link Dfa} using the subset construction. Each DFA state is the
+ * epsilon closure of a set of NFA states, and transitions are computed once per class of the
+ * {@link Alphabet} rather than once per character.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class DfaBuilder {
+
+    /**
+     * The default maximum number of states a DFA may have before construction is abandoned
+     */
+    public static final int DEFAULT_STATE_LIMIT = 20000;
+
+    private final Nfa nfa;
+    private final Alphabet alphabet;
+    private final EpsilonClosure closure;
+    /**
+     * For each CHAR state of the NFA, the alphabet classes it consumes in ascending order
+     */
+    private final int[][] classes;
+
+    public DfaBuilder(Nfa nfa) {
+        this.nfa = nfa;
+        this.alphabet = Alphabet.of(nfa);
+        this.closure = new EpsilonClosure(nfa);
+        this.classes = new int[nfa.getStateCount()][];
+        // Rules share sets such as letters and digits between many states
+        HashMap<CharSet, int[]> known = new HashMap<>();
+        for (int s = 0; s < nfa.getStateCount(); s++) {
+            CharSet set = nfa.getChars(s);
+            if(set != null) {
+                classes[s] = known.computeIfAbsent(set, alphabet::classesOf);
+            }
+        }
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    /**
+     * Builds the DFA with the {@link #DEFAULT_STATE_LIMIT}
+     * @return A new DFA
+     * @throws IllegalStateException If the DFA would need more states than the limit
+     */
+    public Dfa build() {
+        return build(DEFAULT_STATE_LIMIT);
+    }
+
+    /**
+     * Builds the DFA
+     * @param stateLimit The maximum number of states to create
+     * @return A new DFA
+     * @throws IllegalStateException If the DFA would need more states than the limit
+     */
+    public Dfa build(int stateLimit) {
+        int width = alphabet.size();
+        ArrayList<int[]> sets = new ArrayList<>();
+        HashMap<StateSet, Integer> ids = new HashMap<>();
+        IntList accepting = new IntList();
+        int[] transitions = new int[width * 16];
+
+        sets.add(new int[0]);
+        ids.put(new StateSet(new int[0]), Dfa.DEAD);
+        accepting.add(-1);
+        int[] startSet = startSet();
+        sets.add(startSet);
+        ids.put(new StateSet(startSet), 1);
+        accepting.add(acceptingRule(startSet));
+
+        IntList[] buckets = new IntList[width];
+        for (int i = 0; i < width; i++) {
+            buckets[i] = new IntList(4);
+        }
+        HashMap<StateSet, Integer> moves = new HashMap<>();
+
+        for (int d = 1; d < sets.size(); d++) {
+            if((d + 1) * width > transitions.length) {
+                transitions = Arrays.copyOf(transitions, Math.max(transitions.length * 2,
+                                                                  (d + 1) * width));
+            }
+            for (IntList bucket : buckets) {
+                bucket.clear();
+            }
+            for (int s : sets.get(d)) {
+                int[] consumed = classes[s];
+                if(consumed == null) {
+                    continue;
+                }
+                for (int c : consumed) {
+                    buckets[c].add(nfa.getOut(s));
+                }
+            }
+            moves.clear();
+            for (int c = 0; c < width; c++) {
+                int target = Dfa.DEAD;
+                if(buckets[c].size > 0) {
+                    StateSet moveKey = new StateSet(buckets[c].toArray());
+                    Integer cached = moves.get(moveKey);
+                    if(cached != null) {
+                        target = cached;
+                    } else {
+                        int[] next = closure.of(moveKey.states, moveKey.states.length);
+                        StateSet key = new StateSet(next);
+                        Integer existing = ids.get(key);
+                        if(existing == null) {
+                            if(sets.size() >= stateLimit) {
+                                throw new IllegalStateException("DFA needs more than " + stateLimit
+                                                                + " states");
+                            }
+                            existing = sets.size();
+                            sets.add(next);
+                            ids.put(key, existing);
+                            accepting.add(acceptingRule(next));
+                        }
+                        moves.put(moveKey, existing);
+                        target = existing;
+                    }
+                }
+                transitions[d * width + c] = target;
+            }
+        }
+        return new Dfa(alphabet, Arrays.copyOf(transitions, sets.size() * width),
+                       accepting.toArray(), 1);
+    }
+
+    /**
+     * Gets the set of NFA states the automaton starts in
+     * @return The closure of the NFA start state
+     */
+    int[] startSet() {
+        return closure.of(nfa.getStart());
+    }
+
+    /**
+     * Computes the set reached from another set by consuming one class of the alphabet
+     * @param set A closed set of NFA states
+     * @param inputClass The index of the class consumed
+     * @param scratch Space for the states moved to, with room for one entry per NFA state
+     * @return The closure of the states moved to, which is empty if no rule can continue
+     */
+    int[] move(int[] set, int inputClass, int[] scratch) {
+        int count = 0;
+        for (int s : set) {
+            int[] consumed = classes[s];
+            if(consumed != null && Arrays.binarySearch(consumed, inputClass) >= 0) {
+                scratch[count++] = nfa.getOut(s);
+            }
+        }
+        return closure.of(scratch, count);
+    }
+
+    Nfa getNfa() {
+        return nfa;
+    }
+
+    /**
+     * Gets the highest priority rule accepted by any state in a set
+     * @param set A closed set of NFA states
+     * @return The lowest rule index accepted, or -1
+     */
+    int acceptingRule(int[] set) {
+        int best = -1;
+        for (int s : set) {
+            int rule = nfa.getRule(s);
+            if(rule >= 0 && (best < 0 || rule < best)) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+}
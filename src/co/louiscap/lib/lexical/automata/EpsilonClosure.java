@@ -0,0 +1,103 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.util.Arrays;
+
+/**
+ * Computes epsilon closures of sets of NFA states. Only states that consume input or accept a rule
+ * are kept in the result, as split states don't affect how a set behaves. Holds scratch space, so
+ * an instance must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+final class EpsilonClosure {
+
+    private final Nfa nfa;
+    private final int[] marks;
+    private final int[] stack;
+    private final int[] result;
+    private int generation;
+
+    EpsilonClosure(Nfa nfa) {
+        this.nfa = nfa;
+        this.marks = new int[nfa.getStateCount()];
+        this.stack = new int[nfa.getStateCount()];
+        this.result = new int[nfa.getStateCount()];
+        this.generation = 0;
+    }
+
+    /**
+     * Computes the closure of a single state
+     * @param state The state to start from
+     * @return The sorted closure
+     */
+    int[] of(int state) {
+        return of(new int[] { state }, 1);
+    }
+
+    /**
+     * Computes the closure of a set of states
+     * @param seeds The states to start from
+     * @param count The number of valid entries in {@code seeds}
+     * @return The sorted closure
+     */
+    int[] of(int[] seeds, int count) {
+        if(++generation == 0) {
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+        int top = 0, size = 0;
+        for (int i = 0; i < count; i++) {
+            if(seeds[i] != Nfa.NONE && marks[seeds[i]] != generation) {
+                marks[seeds[i]] = generation;
+                stack[top++] = seeds[i];
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            if(nfa.getType(s) == Nfa.SPLIT) {
+                int a = nfa.getOut(s), b = nfa.getOut1(s);
+                if(a != Nfa.NONE && marks[a] != generation) {
+                    marks[a] = generation;
+                    stack[top++] = a;
+                }
+                if(b != Nfa.NONE && marks[b] != generation) {
+                    marks[b] = generation;
+                    stack[top++] = b;
+                }
+            } else {
+                result[size++] = s;
+            }
+        }
+        int[] closure = Arrays.copyOf(result, size);
+        Arrays.sort(closure);
+        return closure;
+    }
+}
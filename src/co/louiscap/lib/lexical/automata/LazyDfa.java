@@ -0,0 +1,238 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A DFA whose states are built on demand while scanning, and kept in a cache of fixed size. When
+ * the cache is full every state except the dead and start states is discarded and the cache is
+ * rebuilt from the states that are visited afterwards, so memory use is bounded no matter how
+ * large the full DFA would be.
+ * <p>
+ * If the cache has to be flushed before it has done a reasonable amount of work, the automaton
+ * reports itself as thrashing so that callers can switch to simulating the NFA directly, which
+ * is slower per character but doesn't waste time building states that are immediately discarded.
+ * <p>
+ * Instances hold mutable state and must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class LazyDfa {
+
+    /**
+     * The state that can never reach an accepting state
+     */
+    public static final int DEAD = 0;
+
+    /**
+     * The default maximum number of cached states
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The number of characters each cached state should be used for, on average, for the cache to
+     * be considered effective. Flushing the cache sooner than this counts as thrashing.
+     */
+    public static final int MIN_STEPS_PER_STATE = 10;
+
+    private static final int START = 1;
+    private static final int UNKNOWN = -1;
+
+    private final DfaBuilder builder;
+    private final Alphabet alphabet;
+    private final int width;
+    private final int capacity;
+    private final int[][] sets;
+    private final int[] accepting;
+    private final int[] transitions;
+    private final HashMap<StateSet, Integer> ids;
+    private final int[] scratch;
+    private int size;
+
+    private long hits, misses, flushes, stepsSinceFlush;
+    private boolean thrashing;
+
+    public LazyDfa(Nfa nfa) {
+        this(nfa, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a lazy DFA for an NFA
+     * @param nfa The NFA to determinise
+     * @param capacity The maximum number of states to cache, which must be at least 3
+     */
+    public LazyDfa(Nfa nfa, int capacity) {
+        if(capacity < 3) {
+            throw new IllegalArgumentException("A lazy DFA needs room for at least 3 states");
+        }
+        this.builder = new DfaBuilder(nfa);
+        this.alphabet = builder.getAlphabet();
+        this.width = alphabet.size();
+        this.capacity = capacity;
+        this.sets = new int[capacity][];
+        this.accepting = new int[capacity];
+        this.transitions = new int[capacity * width];
+        this.ids = new HashMap<>(capacity * 2);
+        this.scratch = new int[nfa.getStateCount()];
+        flush();
+        this.flushes = 0;
+    }
+
+    private void flush() {
+        ids.clear();
+        Arrays.fill(transitions, UNKNOWN);
+        Arrays.fill(transitions, DEAD * width, DEAD * width + width, DEAD);
+        size = 0;
+        add(new int[0]);
+        add(builder.startSet());
+        flushes++;
+        stepsSinceFlush = 0;
+    }
+
+    private int add(int[] set) {
+        int id = size++;
+        sets[id] = set;
+        accepting[id] = builder.acceptingRule(set);
+        ids.put(new StateSet(set), id);
+        return id;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    public int getStartState() {
+        return START;
+    }
+
+    /**
+     * Gets the rule accepted in a state
+     * @param state A state returned by {@link #step(int, char)} since the last flush
+     * @return The index of the highest priority rule accepted in the state, or -1
+     */
+    public int getAcceptingRule(int state) {
+        return accepting[state];
+    }
+
+    /**
+     * Follows the transition for a character, building the target state if it isn't cached. This
+     * may flush the cache, which invalidates every state number previously returned other than
+     * {@link #DEAD} and {@link #getStartState()}.
+     * @param state The current state
+     * @param c The next input character
+     * @return The next state, which is {@link #DEAD} if no rule can match
+     */
+    public int step(int state, char c) {
+        int inputClass = alphabet.classOf(c);
+        int cell = state * width + inputClass;
+        stepsSinceFlush++;
+        int next = transitions[cell];
+        if(next != UNKNOWN) {
+            hits++;
+            return next;
+        }
+        misses++;
+        int[] target = builder.move(sets[state], inputClass, scratch);
+        StateSet key = new StateSet(target);
+        Integer existing = ids.get(key);
+        if(existing != null) {
+            transitions[cell] = existing;
+            return existing;
+        }
+        if(size == capacity) {
+            thrashing = thrashing || stepsSinceFlush < (long) capacity * MIN_STEPS_PER_STATE;
+            flush();
+            existing = ids.get(key);
+            return existing != null ? existing : add(target);
+        }
+        next = add(target);
+        transitions[cell] = next;
+        return next;
+    }
+
+    /**
+     * Checks whether the cache has been flushed too soon after being filled since the last call
+     * to {@link #clearThrashing()}
+     * @return True if the cache isn't working well for the current input
+     */
+    public boolean isThrashing() {
+        return thrashing;
+    }
+
+    public void clearThrashing() {
+        thrashing = false;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of states currently cached
+     * @return The number of states, including the dead and start states
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of transitions that were found in the cache
+     * @return The number of cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of transitions that had to be computed from the NFA
+     * @return The number of cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of times the cache was full and had to be cleared
+     * @return The number of flushes
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Gets the proportion of transitions that were found in the cache
+     * @return The hit rate, between 0 and 1
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import co.louiscap.lib.lexical.regex.CharSet;
+import co.louiscap.lib.lexical.regex.RegexNode;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Thompson NFA recognising every rule of a rule set at once. Each state either consumes one
+ * character from a {@link CharSet}, splits into two epsilon transitions, or accepts a rule. The
+ * rules share a single start state, and the accepting state of each rule records that rule's index
+ * so that the lowest index (highest priority) can win when several rules accept the same input.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class Nfa {
+
+    public static final byte CHAR = 0;
+    public static final byte SPLIT = 1;
+    public static final byte ACCEPT = 2;
+
+    /**
+     * Used as a target for a split state with only one outgoing transition
+     */
+    public static final int NONE = -1;
+
+    private final byte[] types;
+    private final CharSet[] sets;
+    private final int[] out;
+    private final int[] out1;
+    private final int[] rules;
+    private final int[] ruleStarts;
+    private final int start;
+
+    private Nfa(Builder b, int[] ruleStarts, int start) {
+        this.types = Arrays.copyOf(b.types, b.size);
+        this.sets = Arrays.copyOf(b.sets, b.size);
+        this.out = Arrays.copyOf(b.out, b.size);
+        this.out1 = Arrays.copyOf(b.out1, b.size);
+        this.rules = Arrays.copyOf(b.rules, b.size);
+        this.ruleStarts = ruleStarts;
+        this.start = start;
+    }
+
+    /**
+     * Builds an NFA that recognises any of the given rules
+     * @param ruleSyntax The parsed rules, in priority order. The index of a rule in this list is the
+     * value reported when it accepts.
+     * @return A new NFA
+     */
+    public static Nfa build(List<RegexNode> ruleSyntax) {
+        Builder b = new Builder();
+        int[] ruleStarts = new int[ruleSyntax.size()];
+        for (int i = 0; i < ruleSyntax.size(); i++) {
+            int accept = b.add(ACCEPT, null, NONE, NONE, i);
+            ruleStarts[i] = b.compile(ruleSyntax.get(i), accept);
+        }
+        int start = NONE;
+        for (int i = ruleStarts.length - 1; i >= 0; i--) {
+            start = start == NONE ? ruleStarts[i] : b.add(SPLIT, null, ruleStarts[i], start, -1);
+        }
+        if(start == NONE) {
+            start = b.add(SPLIT, null, NONE, NONE, -1);
+        }
+        return new Nfa(b, ruleStarts, start);
+    }
+
+    public int getStateCount() {
+        return types.length;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the state that a single rule starts from, so that it can be simulated in isolation
+     * @param rule The index of the rule
+     * @return The start state of the rule
+     */
+    public int getRuleStart(int rule) {
+        return ruleStarts[rule];
+    }
+
+    public int getRuleCount() {
+        return ruleStarts.length;
+    }
+
+    public byte getType(int state) {
+        return types[state];
+    }
+
+    /**
+     * Gets the characters consumed by a {@link #CHAR} state
+     * @param state The state to check
+     * @return The set of characters, or null if the state doesn't consume input
+     */
+    public CharSet getChars(int state) {
+        return sets[state];
+    }
+
+    /**
+     * Gets the state reached by consuming a character, or the first target of a split
+     * @param state The state to check
+     * @return The next state, or {@link #NONE}
+     */
+    public int getOut(int state) {
+        return out[state];
+    }
+
+    /**
+     * Gets the second target of a split
+     * @param state The state to check
+     * @return The next state, or {@link #NONE}
+     */
+    public int getOut1(int state) {
+        return out1[state];
+    }
+
+    /**
+     * Gets the rule accepted by an {@link #ACCEPT} state
+     * @param state The state to check
+     * @return The index of the rule, or -1 if the state doesn't accept
+     */
+    public int getRule(int state) {
+        return rules[state];
+    }
+
+    /**
+     * Computes the characters that can be consumed first when starting from a state
+     * @param state The state to start from, such as {@link #getRuleStart(int)}
+     * @return The union of the character sets of every CHAR state in the closure of the state
+     */
+    public CharSet firstChars(int state) {
+        CharSet result = CharSet.EMPTY;
+        for (int s : new EpsilonClosure(this).of(state)) {
+            if(types[s] == CHAR) {
+                result = result.union(sets[s]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Incrementally builds the state arrays. Expressions are compiled back to front so that every
+     * fragment already knows the state it continues to, which avoids having to patch dangling
+     * transitions afterwards.
+     */
+    private static class Builder {
+        byte[] types = new byte[64];
+        CharSet[] sets = new CharSet[64];
+        int[] out = new int[64];
+        int[] out1 = new int[64];
+        int[] rules = new int[64];
+        int size = 0;
+
+        int add(byte type, CharSet set, int next, int next1, int rule) {
+            if(size == types.length) {
+                int cap = size * 2;
+                types = Arrays.copyOf(types, cap);
+                sets = Arrays.copyOf(sets, cap);
+                out = Arrays.copyOf(out, cap);
+                out1 = Arrays.copyOf(out1, cap);
+                rules = Arrays.copyOf(rules, cap);
+            }
+            types[size] = type;
+            sets[size] = set;
+            out[size] = next;
+            out1[size] = next1;
+            rules[size] = rule;
+            return size++;
+        }
+
+        /**
+         * Compiles a node so that it continues on to the given state
+         * @return The entry state of the compiled node
+         */
+        int compile(RegexNode node, int next) {
+            List<RegexNode> children = node.getChildren();
+            switch(node.getType()) {
+                case EMPTY:
+                    return next;
+                case CHARS:
+                    return add(CHAR, node.getChars(), next, NONE, -1);
+                case CONCAT:
+                    for (int i = children.size() - 1; i >= 0; i--) {
+                        next = compile(children.get(i), next);
+                    }
+                    return next;
+                case ALTERNATE:
+                    int entry = compile(children.get(children.size() - 1), next);
+                    for (int i = children.size() - 2; i >= 0; i--) {
+                        entry = add(SPLIT, null, compile(children.get(i), next), entry, -1);
+                    }
+                    return entry;
+                case REPEAT:
+                default:
+                    return compileRepeat(children.get(0), node.getMin(), node.getMax(), next);
+            }
+        }
+
+        private int compileRepeat(RegexNode child, int min, int max, int next) {
+            int tail;
+            if(max == RegexNode.UNBOUNDED) {
+                int loop = add(SPLIT, null, NONE, next, -1);
+                // Compiling the body may grow the arrays, so it has to happen before the store
+                int body = compile(child, loop);
+                out[loop] = body;
+                tail = loop;
+            } else {
+                tail = next;
+                for (int i = min; i < max; i++) {
+                    tail = add(SPLIT, null, compile(child, tail), next, -1);
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                tail = compile(child, tail);
+            }
+            return tail;
+        }
+    }
+}
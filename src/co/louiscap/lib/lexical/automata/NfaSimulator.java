@@ -0,0 +1,149 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.util.Arrays;
+
+/**
+ * Simulates an {@link Nfa} directly by tracking the set of states it could be in. Each step costs
+ * time proportional to the number of NFA states, but needs no memory beyond two state lists, so it
+ * is used where building DFA states would cost more than it saves. Instances hold scratch space
+ * and must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class NfaSimulator {
+
+    private final Nfa nfa;
+    private int[] current;
+    private int[] next;
+    private final int[] marks;
+    private final int[] stack;
+    private int currentSize;
+    private int generation;
+    private int acceptingRule;
+
+    public NfaSimulator(Nfa nfa) {
+        this.nfa = nfa;
+        this.current = new int[nfa.getStateCount()];
+        this.next = new int[nfa.getStateCount()];
+        this.marks = new int[nfa.getStateCount()];
+        this.stack = new int[nfa.getStateCount()];
+    }
+
+    /**
+     * Resets the simulation to the start state of the NFA
+     */
+    public void start() {
+        start(nfa.getStart());
+    }
+
+    /**
+     * Resets the simulation to an arbitrary state, such as the start of a single rule
+     * @param state The state to start from
+     */
+    public void start(int state) {
+        nextGeneration();
+        currentSize = addClosure(state, current, 0);
+        updateAccepting();
+    }
+
+    /**
+     * Consumes a character
+     * @param c The next input character
+     * @return False if no rule can match any more, in which case further steps are pointless
+     */
+    public boolean step(char c) {
+        nextGeneration();
+        int size = 0;
+        for (int i = 0; i < currentSize; i++) {
+            int s = current[i];
+            if(nfa.getType(s) == Nfa.CHAR && nfa.getChars(s).contains(c)) {
+                size = addClosure(nfa.getOut(s), next, size);
+            }
+        }
+        int[] swap = current;
+        current = next;
+        next = swap;
+        currentSize = size;
+        updateAccepting();
+        return size > 0;
+    }
+
+    /**
+     * Gets the rule accepted after the characters consumed so far
+     * @return The index of the highest priority rule accepted, or -1
+     */
+    public int getAcceptingRule() {
+        return acceptingRule;
+    }
+
+    private void nextGeneration() {
+        if(++generation == 0) {
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+    }
+
+    private int addClosure(int state, int[] list, int size) {
+        int top = 0;
+        if(state == Nfa.NONE || marks[state] == generation) {
+            return size;
+        }
+        marks[state] = generation;
+        stack[top++] = state;
+        while (top > 0) {
+            int s = stack[--top];
+            if(nfa.getType(s) == Nfa.SPLIT) {
+                int a = nfa.getOut(s), b = nfa.getOut1(s);
+                if(b != Nfa.NONE && marks[b] != generation) {
+                    marks[b] = generation;
+                    stack[top++] = b;
+                }
+                if(a != Nfa.NONE && marks[a] != generation) {
+                    marks[a] = generation;
+                    stack[top++] = a;
+                }
+            } else {
+                list[size++] = s;
+            }
+        }
+        return size;
+    }
+
+    private void updateAccepting() {
+        acceptingRule = -1;
+        for (int i = 0; i < currentSize; i++) {
+            int rule = nfa.getRule(current[i]);
+            if(rule >= 0 && (acceptingRule < 0 || rule < acceptingRule)) {
+                acceptingRule = rule;
+            }
+        }
+    }
+}
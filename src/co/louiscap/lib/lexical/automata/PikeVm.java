@@ -0,0 +1,157 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.util.Arrays;
+
+/**
+ * Runs a single rule's {@link Nfa} as a Pike VM: every possible path through the automaton is
+ * followed at once, as a list of threads. The VM finds the longest input the rule can match, which
+ * is what a DFA built from the same rule would find, rather than the match a backtracking matcher
+ * such as {@link java.util.regex.Matcher#lookingAt()} would pick by trying alternatives in order;
+ * {@code if|ifx} matches all of {@code "ifx"}. Unlike a backtracking matcher, each character is
+ * visited once per NFA state, so matching takes O(n&middot;m) time for n characters and m states
+ * whatever the rule or input.
+ * <p>
+ * Instances hold scratch space and must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class PikeVm {
+
+    private int[] current;
+    private int[] next;
+    private int[] marks;
+    private int[] stack;
+    private int generation;
+    private boolean hitEnd;
+
+    public PikeVm() {
+        this(16);
+    }
+
+    /**
+     * Creates a VM with room for programs of the given size. Larger programs are still accepted,
+     * but cause the scratch space to be reallocated.
+     * @param stateCount The expected number of NFA states
+     */
+    public PikeVm(int stateCount) {
+        allocate(stateCount);
+    }
+
+    private void allocate(int stateCount) {
+        current = new int[stateCount];
+        next = new int[stateCount];
+        marks = new int[stateCount];
+        stack = new int[stateCount * 2 + 1];
+        generation = 0;
+    }
+
+    /**
+     * Finds the longest match anchored at the start position
+     * @param program The NFA of a single rule
+     * @param startState The state to start from, usually {@link Nfa#getRuleStart(int)}
+     * @param input The text to match against
+     * @param start The index to start matching at
+     * @param end The index after the last character that may be consumed
+     * @return The index after the end of the match, which may equal {@code start} for an empty
+     * match, or -1 if the rule doesn't match
+     */
+    public int match(Nfa program, int startState, CharSequence input, int start, int end) {
+        if(program.getStateCount() > marks.length) {
+            allocate(program.getStateCount());
+        }
+        int matchEnd = -1;
+        hitEnd = false;
+        nextGeneration();
+        int currentSize = addThread(program, startState, current, 0);
+        for (int i = start; currentSize > 0; i++) {
+            boolean hasChar = i < end;
+            char c = hasChar ? input.charAt(i) : 0;
+            nextGeneration();
+            int nextSize = 0;
+            for (int t = 0; t < currentSize; t++) {
+                int s = current[t];
+                if(program.getType(s) == Nfa.ACCEPT) {
+                    // Later characters can only lengthen the match, so keep running other threads
+                    matchEnd = i;
+                } else if(!hasChar) {
+                    // A thread that could have lengthened the match needed another char
+                    hitEnd = true;
+                } else if(program.getChars(s).contains(c)) {
+                    nextSize = addThread(program, program.getOut(s), next, nextSize);
+                }
+            }
+            int[] swap = current;
+            current = next;
+            next = swap;
+            currentSize = hasChar ? nextSize : 0;
+        }
+        return matchEnd;
+    }
+
+    /**
+     * Checks whether the last match ran out of input while a thread that could have changed the
+     * result was still running, as {@link java.util.regex.Matcher#hitEnd()} does
+     * @return True if more input after the end could have given a different match
+     */
+    public boolean hitEnd() {
+        return hitEnd;
+    }
+
+    private void nextGeneration() {
+        if(++generation == 0) {
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Adds the closure of a state to a thread list. Each state is added at most once per step,
+     * which is what bounds the work done for each character.
+     */
+    private int addThread(Nfa program, int state, int[] list, int size) {
+        int top = 0;
+        stack[top++] = state;
+        while (top > 0) {
+            int s = stack[--top];
+            if(s == Nfa.NONE || marks[s] == generation) {
+                continue;
+            }
+            marks[s] = generation;
+            if(program.getType(s) == Nfa.SPLIT) {
+                stack[top++] = program.getOut1(s);
+                stack[top++] = program.getOut(s);
+            } else {
+                list[size++] = s;
+            }
+        }
+        return size;
+    }
+}
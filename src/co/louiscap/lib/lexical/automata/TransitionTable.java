@@ -0,0 +1,525 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * The transitions of an automaton, as a row of targets for each state with one column for each
+ * input class. Tables are either held in an array or read in place from a buffer, such as a
+ * memory mapped file, so that a large automaton can be shared between processes through the page
+ * cache instead of being copied onto each one's heap.
+ * <p>
+ * Tables held in arrays are stored in whichever of three layouts suits them, as chosen by
+ * {@link #select(int[], int)}: dense, with every entry of every row; row displacement (a comb
+ * vector), where each row keeps a default target and its other entries are overlaid on those of
+ * other rows, tagged with their row; or exception lists, where each row keeps a default target and
+ * a sorted list of the inputs that lead elsewhere. Most rows of a large automaton lead to a few
+ * states at most, so the compressed layouts are usually many times smaller than the dense one.
+ * <p>
+ * The serialised form is an int holding the size of an entry (2 bytes when every target fits in an
+ * unsigned short, 4 otherwise) followed by the entries row by row, padded to a multiple of 4
+ * bytes so that whatever follows stays aligned.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+abstract class TransitionTable {
+
+    /**
+     * Gets the target of a transition
+     * @param state The state the transition leaves
+     * @param input The input class, which must be less than the table's width
+     * @return The state the transition leads to
+     */
+    abstract int next(int state, int input);
+
+    /**
+     * Gets the memory taken by the table's entries
+     * @return The size of the entries, in bytes
+     */
+    abstract long getSizeInBytes();
+
+    /**
+     * Describes how the entries are stored, for statistics
+     * @return A short name for the layout
+     */
+    abstract String getLayout();
+
+    /**
+     * Estimates the cost of a lookup, averaged over every transition of the table
+     * @return The mean number of array or buffer reads needed to find a target
+     */
+    abstract double getReadsPerLookup();
+
+    /**
+     * The largest table that is kept dense however much compression would save, as lookups in a
+     * table that fits in a core's L2 cache are as cheap as they get
+     */
+    static final long DENSE_LIMIT = 256 << 10;
+
+    /**
+     * The most reads per lookup that an exception list layout may take, however much smaller it is
+     */
+    static final double MAX_SPARSE_READS = 8;
+
+    /**
+     * How many times smaller than the dense layout a row displacement table must be to be worth
+     * its three reads per lookup
+     */
+    static final int COMB_COMPRESSION = 2;
+
+    /**
+     * How many times smaller than the dense layout an exception list table must be to be worth
+     * its binary searches
+     */
+    static final int SPARSE_COMPRESSION = 4;
+
+    /**
+     * Chooses the layout for a table, trading the size of each layout against the reads its
+     * lookups take. Tables that fit in {@link #DENSE_LIMIT} stay dense. Larger ones use row
+     * displacement if that makes them at least {@link #COMB_COMPRESSION} times smaller, or failing
+     * that exception lists if those make them {@link #SPARSE_COMPRESSION} times smaller without
+     * too long a search, and stay dense otherwise.
+     * @param targets The target of every transition, indexed by {@code state * width + input}
+     * @param width The number of input classes
+     * @return A table in the chosen layout
+     */
+    static TransitionTable select(int[] targets, int width) {
+        long dense = (long) targets.length * Integer.BYTES;
+        if(dense <= DENSE_LIMIT) {
+            return new Dense(targets, width);
+        }
+        int states = targets.length / width;
+        int[] defaults = new int[states];
+        int[] exceptions = new int[states];
+        for (int s = 0; s < states; s++) {
+            defaults[s] = mostFrequent(targets, s * width, width);
+            for (int i = s * width; i < (s + 1) * width; i++) {
+                if(targets[i] != defaults[s]) {
+                    exceptions[s]++;
+                }
+            }
+        }
+        TransitionTable comb = Comb.build(targets, width, defaults, exceptions);
+        if(comb.getSizeInBytes() * COMB_COMPRESSION <= dense) {
+            return comb;
+        }
+        TransitionTable sparse = Sparse.build(targets, width, defaults, exceptions);
+        if(sparse.getSizeInBytes() * SPARSE_COMPRESSION <= dense
+           && sparse.getReadsPerLookup() <= MAX_SPARSE_READS) {
+            return sparse;
+        }
+        return new Dense(targets, width);
+    }
+
+    private static int mostFrequent(int[] targets, int from, int width) {
+        int[] row = Arrays.copyOfRange(targets, from, from + width);
+        Arrays.sort(row);
+        int best = row[0], bestCount = 0;
+        for (int i = 0, run = 1; i < width; i++, run++) {
+            if(i + 1 == width || row[i + 1] != row[i]) {
+                if(run > bestCount) {
+                    best = row[i];
+                    bestCount = run;
+                }
+                run = 0;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the entries of a table
+     * @param out The stream to write to
+     * @param states The number of rows
+     * @param width The number of columns
+     * @throws IOException If the stream can't be written to
+     */
+    void write(DataOutput out, int states, int width) throws IOException {
+        boolean narrow = states <= 0x10000;
+        out.writeInt(narrow ? Short.BYTES : Integer.BYTES);
+        for (int s = 0; s < states; s++) {
+            for (int i = 0; i < width; i++) {
+                if(narrow) {
+                    out.writeShort(next(s, i));
+                } else {
+                    out.writeInt(next(s, i));
+                }
+            }
+        }
+        if(narrow && ((long) states * width) % 2 != 0) {
+            out.writeShort(0);
+        }
+    }
+
+    /**
+     * Reads the entries written by {@link #write(java.io.DataOutput, int, int)} into an array
+     * @param in The stream to read from
+     * @param states The number of rows
+     * @param width The number of columns
+     * @return A new table
+     * @throws IOException If the stream can't be read, or holds an invalid target
+     */
+    static TransitionTable read(DataInput in, int states, int width) throws IOException {
+        boolean narrow = readEntrySize(in.readInt());
+        int[] targets = new int[states * width];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = narrow ? in.readUnsignedShort() : in.readInt();
+            if(targets[i] < 0 || targets[i] >= states) {
+                throw new IOException("Invalid transition to state " + targets[i]);
+            }
+        }
+        if(narrow && targets.length % 2 != 0) {
+            in.readShort();
+        }
+        return select(targets, width);
+    }
+
+    /**
+     * Uses the entries written by {@link #write(java.io.DataOutput, int, int)} in place. Targets
+     * aren't checked, as that would read every page of a table that may never be used in full.
+     * @param buffer The buffer holding the table from its position, which is moved past it
+     * @param states The number of rows
+     * @param width The number of columns
+     * @return A new table reading from the buffer
+     * @throws IOException If the buffer doesn't hold a table of this size
+     */
+    static TransitionTable map(ByteBuffer buffer, int states, int width) throws IOException {
+        boolean narrow = readEntrySize(buffer.getInt());
+        long entries = (long) states * width;
+        long bytes = narrow ? (entries + entries % 2) * Short.BYTES : entries * Integer.BYTES;
+        if(bytes > buffer.remaining()) {
+            throw new IOException("The table is truncated");
+        }
+        ByteBuffer slice = buffer.slice().order(buffer.order());
+        slice.limit((int) bytes);
+        buffer.position(buffer.position() + (int) bytes);
+        return narrow ? new Narrow(slice.asShortBuffer(), width) : new Wide(slice.asIntBuffer(), width);
+    }
+
+    private static boolean readEntrySize(int size) throws IOException {
+        if(size != Short.BYTES && size != Integer.BYTES) {
+            throw new IOException("Invalid table entry size " + size);
+        }
+        return size == Short.BYTES;
+    }
+
+    static final class Dense extends TransitionTable {
+
+        private final int[] targets;
+        private final int width;
+
+        Dense(int[] targets, int width) {
+            this.targets = targets;
+            this.width = width;
+        }
+
+        @Override
+        int next(int state, int input) {
+            return targets[state * width + input];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return (long) targets.length * Integer.BYTES;
+        }
+
+        @Override
+        String getLayout() {
+            return "dense";
+        }
+
+        @Override
+        double getReadsPerLookup() {
+            return 1;
+        }
+    }
+
+    private static final class Narrow extends TransitionTable {
+
+        private final ShortBuffer targets;
+        private final int width;
+
+        Narrow(ShortBuffer targets, int width) {
+            this.targets = targets;
+            this.width = width;
+        }
+
+        @Override
+        int next(int state, int input) {
+            return targets.get(state * width + input) & 0xFFFF;
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return (long) targets.capacity() * Short.BYTES;
+        }
+
+        @Override
+        String getLayout() {
+            return "mapped16";
+        }
+
+        @Override
+        double getReadsPerLookup() {
+            return 1;
+        }
+    }
+
+    private static final class Wide extends TransitionTable {
+
+        private final IntBuffer targets;
+        private final int width;
+
+        Wide(IntBuffer targets, int width) {
+            this.targets = targets;
+            this.width = width;
+        }
+
+        @Override
+        int next(int state, int input) {
+            return targets.get(state * width + input);
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return (long) targets.capacity() * Integer.BYTES;
+        }
+
+        @Override
+        String getLayout() {
+            return "mapped32";
+        }
+
+        @Override
+        double getReadsPerLookup() {
+            return 1;
+        }
+    }
+
+    /**
+     * Row displacement: the entries of every row that differ from its default are placed in one
+     * shared vector at an offset chosen so that they don't collide with any other row's, and a
+     * parallel vector records which row owns each slot
+     */
+    static final class Comb extends TransitionTable {
+
+        /**
+         * The number of offsets tried for a row before it is placed at the end of the vector
+         */
+        private static final int MAX_PROBES = 64;
+
+        private final int[] defaults;
+        private final int[] bases;
+        private final int[] next;
+        private final int[] check;
+
+        private Comb(int[] defaults, int[] bases, int[] next, int[] check) {
+            this.defaults = defaults;
+            this.bases = bases;
+            this.next = next;
+            this.check = check;
+        }
+
+        static Comb build(int[] targets, int width, int[] defaults, int[] exceptions) {
+            int states = defaults.length;
+            // Placing the fullest rows first leaves the gaps for the sparse ones
+            Integer[] order = new Integer[states];
+            for (int s = 0; s < states; s++) {
+                order[s] = s;
+            }
+            Arrays.sort(order, (a, b) -> exceptions[b] - exceptions[a]);
+            int[] bases = new int[states];
+            int[] next = new int[Math.max(width * 2, 64)];
+            int[] check = new int[next.length];
+            Arrays.fill(check, -1);
+            int[] columns = new int[width];
+            int firstFree = 0, end = 0, used = 0;
+            for (int s : order) {
+                int count = 0;
+                for (int c = 0; c < width; c++) {
+                    if(targets[s * width + c] != defaults[s]) {
+                        columns[count++] = c;
+                    }
+                }
+                if(count == 0) {
+                    continue;
+                }
+                while (firstFree < check.length && check[firstFree] >= 0) {
+                    firstFree++;
+                }
+                // Rows that don't fit in the first few gaps go after everything placed so far,
+                // which keeps building linear at the price of a few unused slots
+                int base = Math.max(0, firstFree - columns[0]);
+                for (int probe = 0; !fits(check, columns, count, base); probe++) {
+                    base = probe < MAX_PROBES ? base + 1 : Math.max(0, end - columns[0]);
+                }
+                if(base + width > check.length) {
+                    int grown = Math.max(check.length * 2, base + width);
+                    next = Arrays.copyOf(next, grown);
+                    int old = check.length;
+                    check = Arrays.copyOf(check, grown);
+                    Arrays.fill(check, old, grown, -1);
+                }
+                for (int i = 0; i < count; i++) {
+                    next[base + columns[i]] = targets[s * width + columns[i]];
+                    check[base + columns[i]] = s;
+                }
+                bases[s] = base;
+                end = Math.max(end, base + columns[count - 1] + 1);
+                used = Math.max(used, base + width);
+            }
+            used = Math.max(used, width);
+            if(check.length < used) {
+                // Only rows without exceptions, so every slot must still be checkable
+                next = Arrays.copyOf(next, used);
+                int old = check.length;
+                check = Arrays.copyOf(check, used);
+                Arrays.fill(check, old, used, -1);
+            }
+            return new Comb(defaults, bases, Arrays.copyOf(next, used), Arrays.copyOf(check, used));
+        }
+
+        private static boolean fits(int[] check, int[] columns, int count, int base) {
+            for (int i = 0; i < count; i++) {
+                int slot = base + columns[i];
+                if(slot < check.length && check[slot] >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int next(int state, int input) {
+            int slot = bases[state] + input;
+            return check[slot] == state ? next[slot] : defaults[state];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return ((long) defaults.length * 2 + next.length * 2L) * Integer.BYTES;
+        }
+
+        @Override
+        String getLayout() {
+            return "comb";
+        }
+
+        @Override
+        double getReadsPerLookup() {
+            // The base and check, then either the next or the default
+            return 3;
+        }
+    }
+
+    /**
+     * Exception lists: each row is its default target and the sorted inputs that lead elsewhere,
+     * found by binary search
+     */
+    static final class Sparse extends TransitionTable {
+
+        private final int[] defaults;
+        private final int[] offsets;
+        private final char[] inputs;
+        private final int[] outputs;
+        private final double reads;
+
+        private Sparse(int[] defaults, int[] offsets, char[] inputs, int[] outputs, double reads) {
+            this.defaults = defaults;
+            this.offsets = offsets;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.reads = reads;
+        }
+
+        static Sparse build(int[] targets, int width, int[] defaults, int[] exceptions) {
+            int states = defaults.length;
+            int[] offsets = new int[states + 1];
+            for (int s = 0; s < states; s++) {
+                offsets[s + 1] = offsets[s] + exceptions[s];
+            }
+            char[] inputs = new char[offsets[states]];
+            int[] outputs = new int[offsets[states]];
+            long searches = 0;
+            for (int s = 0, at = 0; s < states; s++) {
+                for (int c = 0; c < width; c++) {
+                    int target = targets[s * width + c];
+                    if(target != defaults[s]) {
+                        inputs[at] = (char) c;
+                        outputs[at++] = target;
+                    }
+                }
+                searches += 32 - Integer.numberOfLeadingZeros(exceptions[s]);
+            }
+            // Two offsets and the default or output, then one probe per step of the search
+            double reads = 3 + (double) searches / Math.max(1, states);
+            return new Sparse(defaults, offsets, inputs, outputs, reads);
+        }
+
+        @Override
+        int next(int state, int input) {
+            int low = offsets[state], high = offsets[state + 1] - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int found = inputs[middle];
+                if(found < input) {
+                    low = middle + 1;
+                } else if(found > input) {
+                    high = middle - 1;
+                } else {
+                    return outputs[middle];
+                }
+            }
+            return defaults[state];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return ((long) defaults.length * 2 + 1 + outputs.length) * Integer.BYTES
+                   + (long) inputs.length * Character.BYTES;
+        }
+
+        @Override
+        String getLayout() {
+            return "sparse";
+        }
+
+        @Override
+        double getReadsPerLookup() {
+            return reads;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A {@link Dfa} translated to run on UTF-8 bytes instead of UTF-16 chars, so that input can be
+ * matched without being decoded first. Every state of the char automaton keeps its number and
+ * accepting rule; the multi-byte sequence for each code point is expanded into a chain of
+ * intermediate states that consume its continuation bytes and end in the state the char
+ * automaton reaches on that code point (or on its surrogate pair, for supplementary characters).
+ * Intermediate states with identical transitions are shared, so uniform ranges such as "any
+ * letter" add only a handful of states.
+ * <p>
+ * Only well formed UTF-8 is accepted: overlong encodings, encoded surrogates, code points above
+ * U+10FFFF and stray continuation bytes all lead to {@link #DEAD}. A supplementary character is
+ * a single unit here, so an automaton that can end a match between the two halves of a surrogate
+ * pair is refused rather than translated into one that finds different tokens; see
+ * {@link #canTranslate(Dfa)}. Instances are immutable and can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class Utf8Dfa {
+
+    /**
+     * The state that can never reach an accepting state
+     */
+    public static final int DEAD = Dfa.DEAD;
+
+    private static final int CONTINUATIONS = 64;
+    /**
+     * The number of blocks of 64 low surrogates
+     */
+    private static final int LOW_BLOCKS = 16;
+
+    private final TransitionTable transitions;
+    private final int[] accepting;
+    private final int start;
+
+    private Utf8Dfa(TransitionTable transitions, int[] accepting, int start) {
+        this.transitions = transitions;
+        this.accepting = accepting;
+        this.start = start;
+    }
+
+    /**
+     * Translates a char automaton into a byte automaton
+     * @param dfa The automaton to translate
+     * @return A new automaton that accepts the UTF-8 encoding of exactly the strings the original
+     * accepts, with the same rules
+     * @throws IllegalArgumentException If the automaton can't be translated
+     */
+    public static Utf8Dfa of(Dfa dfa) {
+        if(!canTranslate(dfa)) {
+            throw new IllegalArgumentException("A match can end inside a surrogate pair");
+        }
+        return new Builder(dfa).build();
+    }
+
+    /**
+     * Checks whether lexing UTF-8 with a translation of an automaton gives the same tokens as
+     * lexing the decoded chars with it. That is the case unless some state accepts right after a
+     * high surrogate, which only happens when a rule matches surrogates on their own, such as
+     * {@code [\uD800-\uDBFF]} or {@code \p{Cs}}.
+     * @param dfa The automaton to check
+     * @return True if no match can end between the two halves of a surrogate pair
+     */
+    public static boolean canTranslate(Dfa dfa) {
+        Alphabet alphabet = dfa.getAlphabet();
+        for (int c = Character.MIN_HIGH_SURROGATE; c <= Character.MAX_HIGH_SURROGATE; ) {
+            int interval = alphabet.intervalOf((char) c);
+            for (int s = 0; s < dfa.getStateCount(); s++) {
+                int next = dfa.step(s, (char) c);
+                if(next != DEAD && dfa.getAcceptingRule(next) >= 0) {
+                    return false;
+                }
+            }
+            // Every char of an interval leads to the same states
+            c = alphabet.getIntervalEnd(interval) + 1;
+        }
+        return true;
+    }
+
+    public int getStartState() {
+        return start;
+    }
+
+    /**
+     * Gets the number of states, including the intermediate states inside multi-byte sequences
+     * @return The number of states
+     */
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    /**
+     * Gets the rule accepted in a state
+     * @param state The state to check
+     * @return The index of the highest priority rule accepted in the state, or -1 (which is
+     * always the case part way through a multi-byte sequence)
+     */
+    public int getAcceptingRule(int state) {
+        return accepting[state];
+    }
+
+    /**
+     * Follows the transition for a byte
+     * @param state The current state
+     * @param b The next input byte
+     * @return The next state, which is {@link #DEAD} if no rule can match
+     */
+    public int step(int state, byte b) {
+        return transitions.next(state, b & 0xFF);
+    }
+
+    /**
+     * Gets the memory taken by the transition table
+     * @return The size of the table, in bytes
+     */
+    public long getTableSize() {
+        return transitions.getSizeInBytes();
+    }
+
+    /**
+     * Describes how the transition table is stored
+     * @return A short name for the layout, as for {@link Dfa#getTableLayout()}
+     */
+    public String getTableLayout() {
+        return transitions.getLayout();
+    }
+
+    /**
+     * Gets the memory the transition table would take if it were stored dense
+     * @return The size of the uncompressed table, in bytes
+     */
+    public long getDenseTableSize() {
+        return (long) accepting.length * 256 * Integer.BYTES;
+    }
+
+    /**
+     * Estimates the cost of following a transition
+     * @return The mean number of array reads needed to find a target in the table
+     */
+    public double getReadsPerLookup() {
+        return transitions.getReadsPerLookup();
+    }
+
+    /**
+     * Writes this automaton in a compact binary form, which stays 4 byte aligned if it starts so,
+     * and can be used in place with {@link #map(java.nio.ByteBuffer)}
+     * @param out The stream to write to
+     * @throws IOException If the stream can't be written to
+     * @see #read(java.io.DataInput)
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(accepting.length);
+        out.writeInt(start);
+        for (int rule : accepting) {
+            out.writeInt(rule);
+        }
+        transitions.write(out, accepting.length, 256);
+    }
+
+    /**
+     * Reads an automaton written by {@link #write(java.io.DataOutput)} onto the heap
+     * @param in The stream to read from
+     * @return The automaton
+     * @throws IOException If the stream can't be read, or doesn't hold a valid automaton
+     */
+    public static Utf8Dfa read(DataInput in) throws IOException {
+        int states = in.readInt();
+        int start = in.readInt();
+        checkStates(states, start);
+        int[] accepting = new int[states];
+        for (int s = 0; s < states; s++) {
+            accepting[s] = in.readInt();
+        }
+        return new Utf8Dfa(TransitionTable.read(in, states, 256), accepting, start);
+    }
+
+    /**
+     * Uses an automaton written by {@link #write(java.io.DataOutput)} in place, reading its
+     * transition table straight from the buffer as {@link Dfa#map(java.nio.ByteBuffer)} does
+     * @param buffer The buffer holding the automaton from its position, which is moved past it.
+     * It must not change while the automaton is in use.
+     * @return The automaton
+     * @throws IOException If the buffer doesn't hold a valid automaton
+     */
+    public static Utf8Dfa map(ByteBuffer buffer) throws IOException {
+        try {
+            int states = buffer.getInt();
+            int start = buffer.getInt();
+            checkStates(states, start);
+            int[] accepting = new int[states];
+            buffer.asIntBuffer().get(accepting);
+            buffer.position(buffer.position() + states * Integer.BYTES);
+            return new Utf8Dfa(TransitionTable.map(buffer, states, 256), accepting, start);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("The automaton is truncated", ex);
+        }
+    }
+
+    private static void checkStates(int states, int start) throws IOException {
+        if(states <= DEAD || states > (Integer.MAX_VALUE >> 8) || start < 0 || start >= states) {
+            throw new IOException("Invalid state count " + states);
+        }
+    }
+
+    /**
+     * Builds the byte level transition table. Intermediate states are described by the targets
+     * of their 64 continuation bytes, and interned on that description.
+     */
+    private static final class Builder {
+
+        private final Dfa dfa;
+        private final Alphabet alphabet;
+        private final HashMap<StateSet, Integer> interned = new HashMap<>();
+        /**
+         * The state whose continuations all lead to a char state, by that char state
+         */
+        private final int[] uniform;
+        /**
+         * The last state of a supplementary character, by the char state after its high
+         * surrogate and the block of 64 its low surrogate is in. Every high surrogate that leads
+         * to the same state shares them, so each is only built once.
+         */
+        private final int[] lowLeaves;
+        private final int[] leafTable = new int[CONTINUATIONS];
+        private final IntList rows = new IntList(1024);
+        private int stateCount;
+
+        Builder(Dfa dfa) {
+            this.dfa = dfa;
+            this.alphabet = dfa.getAlphabet();
+            this.stateCount = dfa.getStateCount();
+            this.uniform = new int[stateCount];
+            this.lowLeaves = new int[stateCount * LOW_BLOCKS];
+            Arrays.fill(uniform, -1);
+            Arrays.fill(lowLeaves, -1);
+        }
+
+        Utf8Dfa build() {
+            int charStates = dfa.getStateCount();
+            int[][] leads = new int[charStates][];
+            for (int s = 0; s < charStates; s++) {
+                leads[s] = s == DEAD ? new int[256] : leadRow(s);
+            }
+            int[] transitions = new int[stateCount << 8];
+            for (int s = 0; s < charStates; s++) {
+                System.arraycopy(leads[s], 0, transitions, s << 8, 256);
+            }
+            int[] accepting = new int[stateCount];
+            Arrays.fill(accepting, -1);
+            for (int s = 0; s < charStates; s++) {
+                accepting[s] = dfa.getAcceptingRule(s);
+            }
+            for (int n = charStates; n < stateCount; n++) {
+                for (int b = 0; b < CONTINUATIONS; b++) {
+                    transitions[(n << 8) | (0x80 + b)] = rows.get((n - charStates) * CONTINUATIONS + b);
+                }
+            }
+            return new Utf8Dfa(TransitionTable.select(transitions, 256), accepting,
+                               dfa.getStartState());
+        }
+
+        private int[] leadRow(int s) {
+            int[] row = new int[256];
+            for (int b = 0; b < 0x80; b++) {
+                row[b] = dfa.step(s, (char) b);
+            }
+            for (int b = 0xC2; b <= 0xDF; b++) {
+                row[b] = leaf(s, (b & 0x1F) << 6);
+            }
+            int[] table = new int[CONTINUATIONS];
+            for (int b = 0xE0; b <= 0xEF; b++) {
+                int base = (b & 0x0F) << 12;
+                int low = b == 0xE0 ? 0xA0 : 0x80, high = b == 0xED ? 0x9F : 0xBF;
+                for (int c = 0x80; c <= 0xBF; c++) {
+                    table[c - 0x80] = c < low || c > high ? DEAD : leaf(s, base | (c & 0x3F) << 6);
+                }
+                row[b] = intern(table);
+            }
+            int[] inner = new int[CONTINUATIONS];
+            for (int b = 0xF0; b <= 0xF4; b++) {
+                int base = (b & 0x07) << 18;
+                int low = b == 0xF0 ? 0x90 : 0x80, high = b == 0xF4 ? 0x8F : 0xBF;
+                for (int c = 0x80; c <= 0xBF; c++) {
+                    if(c < low || c > high) {
+                        table[c - 0x80] = DEAD;
+                        continue;
+                    }
+                    for (int d = 0x80; d <= 0xBF; d++) {
+                        inner[d - 0x80] = leaf(s, base | (c & 0x3F) << 12 | (d & 0x3F) << 6);
+                    }
+                    table[c - 0x80] = intern(inner);
+                }
+                row[b] = intern(table);
+            }
+            return row;
+        }
+
+        /**
+         * Gets the state that consumes the last byte of a sequence
+         * @param s The char state the sequence starts in
+         * @param base The first of the 64 code points that share every byte but the last
+         */
+        private int leaf(int s, int base) {
+            if(base < 0x10000) {
+                if(isUniform(base)) {
+                    return uniform(dfa.step(s, (char) base));
+                }
+                for (int i = 0; i < CONTINUATIONS; i++) {
+                    leafTable[i] = dfa.step(s, (char) (base + i));
+                }
+                return intern(leafTable);
+            }
+            int offset = base - 0x10000;
+            int afterHigh = dfa.step(s, (char) (0xD800 + (offset >> 10)));
+            if(afterHigh == DEAD) {
+                return DEAD;
+            }
+            int block = afterHigh * LOW_BLOCKS + ((offset & 0x3FF) >> 6);
+            if(lowLeaves[block] < 0) {
+                lowLeaves[block] = leaf(afterHigh, 0xDC00 + (offset & 0x3FF));
+            }
+            return lowLeaves[block];
+        }
+
+        /**
+         * Checks whether the 64 characters from a base are all in one class, which is when they
+         * are all in one interval of the alphabet
+         */
+        private boolean isUniform(int base) {
+            int interval = alphabet.intervalOf((char) base);
+            return alphabet.getIntervalEnd(interval) >= base + CONTINUATIONS - 1;
+        }
+
+        private int uniform(int target) {
+            if(target == DEAD) {
+                return DEAD;
+            }
+            if(uniform[target] < 0) {
+                int[] table = new int[CONTINUATIONS];
+                Arrays.fill(table, target);
+                uniform[target] = intern(table);
+            }
+            return uniform[target];
+        }
+
+        private int intern(int[] table) {
+            boolean dead = true;
+            for (int target : table) {
+                dead &= target == DEAD;
+            }
+            if(dead) {
+                return DEAD;
+            }
+            // The table is only copied for a new state, as the callers reuse theirs
+            Integer id = interned.get(new StateSet(table));
+            if(id == null) {
+                id = stateCount++;
+                interned.put(new StateSet(table.clone()), id);
+                for (int target : table) {
+                    rows.add(target);
+                }
+            }
+            return id;
+        }
+    }
+}
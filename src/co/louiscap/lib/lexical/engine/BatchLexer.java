@@ -0,0 +1,405 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lexes many files at once on a work stealing pool. The output for each file is collected
+ * separately and handed on whole, in the order the files were given, so output from different
+ * files is never interleaved. Only a bounded number of files are in flight at a time, which bounds
+ * the memory held by output waiting for an earlier, slower file to finish.
+ * <p>
+ * Each thread of the pool gets its own matcher from the supplier, so matchers that aren't thread
+ * safe can be used. Files of at least the map threshold are memory mapped with a
+ * {@link MappedLexer}, and smaller ones are read with a {@link StreamingLexer}. UTF-8 files of any
+ * size are lexed at the byte level when the matcher's DFA can be translated to UTF-8.
+ * <p>
+ * For batches of many small files, where the time goes on opening and reading files rather than
+ * lexing them, files can instead be read ahead on separate threads and only handed to the pool to
+ * be lexed once they are in memory. On Java 21 and later each file is read on its own virtual
+ * thread; on earlier runtimes a fixed pool of platform threads is used instead. Either way, the
+ * number of files open at once is bounded so that file descriptor limits are respected.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class BatchLexer {
+
+    /**
+     * The number of files in flight for each thread of the pool
+     */
+    public static final int FILES_PER_THREAD = 4;
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()}, which only exists from Java 21 onwards,
+     * or null
+     */
+    private static final Method VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    /**
+     * Receives the results of a batch, one file at a time and in order, on the thread that
+     * started the batch
+     */
+    public interface Output {
+
+        /**
+         * Called with the output for a file
+         * @param file The file
+         * @param tokens The serialised tokens of the file, which only go as far as the error if
+         * lexing the file failed
+         */
+        void lexed(Path file, String tokens);
+
+        /**
+         * Called for a file that couldn't be read or lexed, after its partial output
+         * @param file The file
+         * @param ex The {@link IOException} or {@link LexicalException} that stopped it
+         */
+        void failed(Path file, Exception ex);
+    }
+
+    private final RuleSet rules;
+    private final Charset encoding;
+    private final long mapThreshold;
+    private final ForkJoinPool pool;
+    private final int openFiles;
+    private final ThreadLocal<StreamingLexer> streamers;
+    private final ThreadLocal<MappedLexer> mappers;
+    private Utf8Lexer utf8;
+    private boolean utf8Resolved;
+    private final AtomicLong fileCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /**
+     * Creates a batch lexer
+     * @param rules The rules to lex with
+     * @param matchers Creates a matcher for the rules; called once for each thread that lexes
+     * @param encoding The character encoding of the files
+     * @param mapThreshold The size in bytes from which files are memory mapped
+     * @param pool The pool to lex files on
+     */
+    public BatchLexer(RuleSet rules, Supplier<RuleMatcher> matchers, Charset encoding,
+            long mapThreshold, ForkJoinPool pool) {
+        this(rules, matchers, encoding, mapThreshold, pool, 0);
+    }
+
+    /**
+     * Creates a batch lexer that reads files ahead of lexing them
+     * @param rules The rules to lex with
+     * @param matchers Creates a matcher for the rules; called once for each thread that lexes
+     * @param encoding The character encoding of the files
+     * @param mapThreshold The size in bytes from which files are memory mapped, rather than read
+     * ahead
+     * @param pool The pool to lex files on
+     * @param openFiles The largest number of files to read at once, or 0 to read each file on the
+     * pool as it is lexed
+     */
+    public BatchLexer(RuleSet rules, Supplier<RuleMatcher> matchers, Charset encoding,
+            long mapThreshold, ForkJoinPool pool, int openFiles) {
+        if(openFiles < 0) {
+            throw new IllegalArgumentException("The number of open files can't be negative");
+        }
+        this.encoding = encoding;
+        this.mapThreshold = mapThreshold;
+        this.pool = pool;
+        this.openFiles = openFiles;
+        this.rules = rules;
+        ThreadLocal<RuleMatcher> local = ThreadLocal.withInitial(matchers);
+        this.streamers = ThreadLocal.withInitial(() -> new StreamingLexer(
+                rules, local.get(), StreamingLexer.DEFAULT_BUFFER_SIZE));
+        this.mappers = ThreadLocal.withInitial(() -> {
+            RuleMatcher matcher = local.get();
+            Utf8Lexer utf8 = encoding.equals(StandardCharsets.UTF_8) ? getUtf8Lexer(matcher) : null;
+            return new MappedLexer(rules, matcher, utf8, MappedLexer.DEFAULT_WINDOW_SIZE);
+        });
+    }
+
+    /**
+     * Gets the byte level lexer shared by every thread, which is immutable and so is built once,
+     * when the first file is mapped, rather than once per thread
+     * @param matcher The matcher of the thread that maps the first file
+     */
+    private synchronized Utf8Lexer getUtf8Lexer(RuleMatcher matcher) {
+        if(!utf8Resolved) {
+            utf8 = MappedLexer.utf8Lexer(rules, matcher);
+            utf8Resolved = true;
+        }
+        return utf8;
+    }
+
+    /**
+     * Gets this thread's mapped lexer if UTF-8 files are lexed at the byte level, which is done
+     * whatever their size
+     * @return The lexer, or null if files are decoded to chars
+     */
+    private MappedLexer utf8Mapper() {
+        if(!encoding.equals(StandardCharsets.UTF_8)) {
+            return null;
+        }
+        MappedLexer mapper = mappers.get();
+        return mapper.canLexUtf8() ? mapper : null;
+    }
+
+    /**
+     * Lexes every file, blocking until all of them are done
+     * @param files The files to lex
+     * @param output Receives the result for each file in the same order as the files
+     * @throws InterruptedException If the calling thread is interrupted while waiting for a file
+     */
+    public void lex(List<Path> files, Output output) throws InterruptedException {
+        int window = Math.max(1, pool.getParallelism() * FILES_PER_THREAD);
+        ExecutorService readers = null;
+        Semaphore open = null;
+        if(openFiles > 0) {
+            // Keep enough files in flight that every reader stays busy
+            window = Math.max(window, openFiles * 2);
+            readers = createReaders(openFiles);
+            open = new Semaphore(openFiles);
+        }
+        ArrayDeque<Future<FileResult>> inFlight = new ArrayDeque<>(window);
+        try {
+            int next = 0, done = 0;
+            while (done < files.size()) {
+                if(next < files.size() && inFlight.size() < window) {
+                    Path file = files.get(next++);
+                    inFlight.add(readers == null ? pool.submit(() -> lexFile(file))
+                                                 : readAhead(file, readers, open));
+                    continue;
+                }
+                Path file = files.get(done++);
+                FileResult result;
+                try {
+                    result = inFlight.remove().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if(cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (RuntimeException) cause;
+                } catch (InterruptedException ex) {
+                    inFlight.forEach(task -> task.cancel(true));
+                    throw ex;
+                }
+                output.lexed(file, result.tokens);
+                if(result.error != null) {
+                    output.failed(file, result.error);
+                }
+            }
+        } finally {
+            if(readers != null) {
+                readers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reads a file on one of the readers, then lexes it on the pool
+     */
+    private Future<FileResult> readAhead(Path file, ExecutorService readers, Semaphore open) {
+        return CompletableFuture.supplyAsync(() -> read(file, open), readers)
+                .handleAsync((contents, ex) -> {
+                    if(ex != null) {
+                        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                        if(!(cause instanceof UncheckedIOException)) {
+                            throw new CompletionException(cause);
+                        }
+                        failureCount.incrementAndGet();
+                        return new FileResult("", ((UncheckedIOException) cause).getCause());
+                    }
+                    return contents == null ? lexFile(file) : lexContents(contents);
+                }, pool);
+    }
+
+    /**
+     * Reads the whole of a file once there are few enough files open
+     * @return The contents of the file, or null if the file is large enough to be mapped instead
+     */
+    private byte[] read(Path file, Semaphore open) {
+        try {
+            open.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to open " + file);
+        }
+        try {
+            return readFile(file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            open.release();
+        }
+    }
+
+    /**
+     * Opens and reads a file ahead of lexing it, on one of the readers
+     * @param file The file to read
+     * @return The contents of the file, or null if the file is large enough to be mapped instead
+     * @throws IOException If the file can't be read
+     */
+    byte[] readFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size >= Math.min(mapThreshold, Integer.MAX_VALUE)) {
+                return null;
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+                // Keep reading until the buffer is full or the file turns out to be shorter
+            }
+            return contents.hasRemaining()
+                    ? Arrays.copyOf(contents.array(), contents.position()) : contents.array();
+        }
+    }
+
+    private FileResult lexContents(byte[] contents) {
+        StringBuilder tokens = new StringBuilder();
+        try {
+            MappedLexer mapper = utf8Mapper();
+            if(mapper != null) {
+                mapper.lexUtf8(ByteBuffer.wrap(contents), token -> tokens.append(token.serialise()));
+            } else {
+                streamers.get().lex(Channels.newChannel(new ByteArrayInputStream(contents)),
+                                    encoding, token -> tokens.append(token.serialise()));
+            }
+            byteCount.addAndGet(contents.length);
+        } catch (IOException | LexicalException ex) {
+            failureCount.incrementAndGet();
+            return new FileResult(tokens.toString(), ex);
+        }
+        fileCount.incrementAndGet();
+        return new FileResult(tokens.toString(), null);
+    }
+
+    private FileResult lexFile(Path file) {
+        StringBuilder tokens = new StringBuilder();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedLexer mapper = utf8Mapper();
+            if(mapper != null && size >= mapThreshold) {
+                mapper.lexUtf8(channel, token -> tokens.append(token.serialise()));
+            } else if(mapper != null) {
+                mapper.lexUtf8(MappedLexer.readFully(channel),
+                               token -> tokens.append(token.serialise()));
+            } else if(size >= mapThreshold) {
+                mappers.get().lex(channel, encoding, token -> tokens.append(token.serialise()));
+            } else {
+                streamers.get().lex(channel, encoding, token -> tokens.append(token.serialise()));
+            }
+            byteCount.addAndGet(size);
+        } catch (IOException | LexicalException ex) {
+            failureCount.incrementAndGet();
+            return new FileResult(tokens.toString(), ex);
+        }
+        fileCount.incrementAndGet();
+        return new FileResult(tokens.toString(), null);
+    }
+
+    /**
+     * Reports how much has been lexed over all batches so far. Files that couldn't be read or
+     * lexed to the end count as failures, and their bytes aren't counted whether or not they were
+     * read ahead.
+     * @return A map of statistic names to values
+     */
+    public Map<String, Number> getStatistics() {
+        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+        stats.put("batch.threads", pool.getParallelism());
+        stats.put("batch.openFiles", openFiles);
+        stats.put("batch.virtualThreads", openFiles > 0 && VIRTUAL_EXECUTOR != null ? 1 : 0);
+        stats.put("batch.files", fileCount.get());
+        stats.put("batch.failures", failureCount.get());
+        stats.put("batch.bytes", byteCount.get());
+        return stats;
+    }
+
+    /**
+     * Creates the executor that files are read ahead on
+     * @param openFiles The largest number of files that will be read at once
+     * @return An executor that starts a virtual thread for each file if the runtime supports them,
+     * or otherwise a fixed pool of one platform thread for each file that can be open
+     */
+    private static ExecutorService createReaders(int openFiles) {
+        if(VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                // Fall back to platform threads below
+            }
+        }
+        return Executors.newFixedThreadPool(openFiles);
+    }
+
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The output of one file, and what stopped it if it wasn't lexed completely
+     */
+    private static final class FileResult {
+
+        final String tokens;
+        final Exception error;
+
+        FileResult(String tokens, Exception error) {
+            this.tokens = tokens;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.Dfa;
+import co.louiscap.lib.lexical.automata.DfaBuilder;
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.automata.Utf8Dfa;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps compiled rule sets on disk, so that a program that lexes with the same rules every time it
+ * starts only pays for building their automata once. An entry holds a rule set's DFA, and its
+ * translation to UTF-8 bytes once that has been needed: the translation takes longer still to
+ * build for large rule sets, so it is only built when a matcher from the cache first lexes UTF-8
+ * bytes, and the entry is rewritten with it then. Entries are keyed by a hash of the rules'
+ * contents (priority, namespace, pattern and token names, in priority order) together with the
+ * library's version and the cache's format version, so changing a definition or upgrading the
+ * library never loads a stale automaton.
+ * <p>
+ * Only the automata of the full DFA mode are cached. Lazy DFAs are built as they are used, and the
+ * first character dispatch tables and keyword trie of rule by rule matching are quick to build,
+ * so those modes always start from the rules. Token types are numbered from the rules themselves
+ * and need no entry either.
+ * <p>
+ * Each entry is laid out so that its tables are 4 byte aligned and can be used in place from a
+ * memory mapped file, as the tables of {@link Dfa#map(java.nio.ByteBuffer)} and
+ * {@link Utf8Dfa#map(java.nio.ByteBuffer)}, instead of being copied onto the heap. Worker
+ * processes on one host that load the same rules then share a single physical copy of them.
+ * <p>
+ * Entries are written to a temporary file and moved into place, so several processes can share a
+ * cache directory. An entry that can't be read is rebuilt and replaced; a cache that can't be
+ * written to is simply bypassed. Instances are thread safe.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class CompiledLexerCache {
+
+    /**
+     * The version of the entry format, which is part of every key
+     */
+    public static final int FORMAT_VERSION = 3;
+
+    private static final int MAGIC = 0x4C4C4446;
+    /**
+     * The bytes before the key in an entry: the magic number, the format version and the length
+     * of the key
+     */
+    private static final int HEADER_SIZE = 10;
+    private static final String EXTENSION = ".dfa";
+
+    /**
+     * The resource, next to this class, that the build writes a stamp into whenever it compiles
+     * the library
+     */
+    static final String BUILD_RESOURCE = "library.properties";
+
+    private static volatile String libraryVersion;
+
+    private final Path directory;
+    private final boolean mapTables;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Creates a cache whose entries are used in place by memory mapping them
+     * @param directory The directory holding the entries, which is created when the first entry
+     * is written
+     */
+    public CompiledLexerCache(Path directory) {
+        this(directory, true);
+    }
+
+    /**
+     * Creates a cache
+     * @param directory The directory holding the entries, which is created when the first entry
+     * is written
+     * @param mapTables True to read the transition tables of entries straight from the mapped
+     * file, so processes that load the same entry share one copy of it in the page cache; false
+     * to copy them onto the heap, where lookups are faster
+     */
+    public CompiledLexerCache(Path directory, boolean mapTables) {
+        this.directory = directory;
+        this.mapTables = mapTables;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets a DFA matcher for a rule set, loading it from the cache if it has been compiled before
+     * and compiling and storing it otherwise
+     * @param rules The rules to match
+     * @return A matcher for the rules
+     * @throws co.louiscap.lib.lexical.regex.UnsupportedRegexException If a rule can't be expressed
+     * as a finite automaton
+     * @throws IllegalStateException If the DFA would exceed
+     * {@link co.louiscap.lib.lexical.automata.DfaBuilder#DEFAULT_STATE_LIMIT}
+     */
+    public DfaMatcher getDfaMatcher(RuleSet rules) {
+        String key = keyOf(rules);
+        Path entry = directory.resolve(key + EXTENSION);
+        try {
+            DfaMatcher matcher = mapTables ? map(entry, key, rules) : read(entry, key, rules);
+            if(matcher.getBuiltUtf8Dfa() == null) {
+                // Complete the entry if this process is the first to lex UTF-8 bytes with it
+                matcher = new DfaMatcher(matcher.getDfa(), null,
+                                         translated -> update(entry, key, translated));
+            }
+            hits.incrementAndGet();
+            return matcher;
+        } catch (NoSuchFileException ex) {
+            // Never compiled before
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        DfaMatcher matcher = new DfaMatcher(new DfaBuilder(Nfa.build(rules.parseAll())).build(),
+                                            null, translated -> update(entry, key, translated));
+        update(entry, key, matcher);
+        return matcher;
+    }
+
+    /**
+     * Stores a matcher, counting a failure rather than throwing if it can't be
+     */
+    private void update(Path entry, String key, DfaMatcher matcher) {
+        try {
+            store(entry, key, matcher);
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+        }
+    }
+
+    private static DfaMatcher read(Path entry, String key, RuleSet rules) throws IOException {
+        try (InputStream stream = Files.newInputStream(entry)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) {
+                throw new IOException("Not a cache entry for these rules");
+            }
+            in.skipBytes(padding(HEADER_SIZE + key.length()));
+            Dfa dfa = Dfa.read(in);
+            return check(dfa, in.readInt() != 0 ? Utf8Dfa.read(in) : null, rules);
+        }
+    }
+
+    private static DfaMatcher map(Path entry, String key, RuleSet rules) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The entry is too large to map");
+            }
+            // The mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            byte[] stored = new byte[key.length()];
+            if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+               || buffer.getShort() != stored.length) {
+                throw new IOException("Not a cache entry for these rules");
+            }
+            buffer.get(stored);
+            if(!key.equals(new String(stored, StandardCharsets.US_ASCII))) {
+                throw new IOException("Not a cache entry for these rules");
+            }
+            buffer.position(buffer.position() + padding(HEADER_SIZE + stored.length));
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("The entry is truncated", ex);
+        }
+        try {
+            Dfa dfa = Dfa.map(buffer);
+            return check(dfa, buffer.getInt() != 0 ? Utf8Dfa.map(buffer) : null, rules);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("The entry is truncated", ex);
+        }
+    }
+
+    private static DfaMatcher check(Dfa dfa, Utf8Dfa utf8, RuleSet rules) throws IOException {
+        for (int s = 0; s < dfa.getStateCount(); s++) {
+            if(dfa.getAcceptingRule(s) >= rules.size()) {
+                throw new IOException("Invalid rule " + dfa.getAcceptingRule(s));
+            }
+        }
+        if(utf8 != null && utf8.getStateCount() < dfa.getStateCount()) {
+            throw new IOException("The UTF-8 automaton doesn't match the char automaton");
+        }
+        return new DfaMatcher(dfa, utf8);
+    }
+
+    /**
+     * Gets the number of bytes needed after the header to align the tables on 4 bytes
+     */
+    private static int padding(int headerBytes) {
+        return -headerBytes & 3;
+    }
+
+    private void store(Path entry, String key, DfaMatcher matcher) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.write(new byte[padding(out.size())]);
+                matcher.getDfa().write(out);
+                // A whole int rather than a boolean, to keep the table after it aligned
+                Utf8Dfa utf8 = matcher.getBuiltUtf8Dfa();
+                out.writeInt(utf8 == null ? 0 : 1);
+                if(utf8 != null) {
+                    utf8.write(out);
+                }
+                out.flush();
+            }
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Computes the key of a rule set's entries
+     * @param rules The rules to identify
+     * @return A hex string that changes whenever the rules, the library version or the entry
+     * format do
+     */
+    public static String keyOf(RuleSet rules) {
+        return keyOf(rules, libraryVersion());
+    }
+
+    /**
+     * Computes the key of a rule set's entries for a given build of the library
+     */
+    static String keyOf(RuleSet rules, String libraryVersion) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+        StringBuilder content = new StringBuilder();
+        content.append(FORMAT_VERSION).append('\0').append(libraryVersion).append('\0');
+        for (LexicalRule rule : rules) {
+            content.append(rule.getPriority()).append('\0')
+                   .append(rule.getNamespace()).append('\0')
+                   .append(rule.getRuleSource()).append('\0');
+            for (String name : rule.getCaptureSet()) {
+                content.append(name).append('\0');
+            }
+            content.append('\n');
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest(content.toString().getBytes(StandardCharsets.UTF_8))) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Identifies the build of the library. Classes run from a directory, as during development,
+     * are identified by the newest of their class files, as recompiling any one of them may change
+     * the automata built. A jar is identified by the build stamp the build writes into
+     * {@link #BUILD_RESOURCE}, or failing that by its manifest version or its own modification
+     * time.
+     */
+    static String libraryVersion() {
+        String version = libraryVersion;
+        if(version == null) {
+            version = findLibraryVersion();
+            libraryVersion = version;
+        }
+        return version;
+    }
+
+    private static String findLibraryVersion() {
+        File location = null;
+        CodeSource library = CompiledLexerCache.class.getProtectionDomain().getCodeSource();
+        try {
+            location = library == null ? null : new File(library.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            // Identified by whatever the jar holds below
+        }
+        if(location != null && location.isDirectory()) {
+            try (Stream<Path> files = Files.walk(location.toPath())) {
+                return "classes-" + files.filter(file -> file.toString().endsWith(".class"))
+                                         .mapToLong(file -> file.toFile().lastModified())
+                                         .max().orElse(0);
+            } catch (IOException | UncheckedIOException ex) {
+                return "unknown";
+            }
+        }
+        try (InputStream in = CompiledLexerCache.class.getResourceAsStream(BUILD_RESOURCE)) {
+            if(in != null) {
+                Properties build = new Properties();
+                build.load(in);
+                String stamp = build.getProperty("build");
+                if(stamp != null) {
+                    return "build-" + stamp;
+                }
+            }
+        } catch (IOException ex) {
+            // Fall back to the manifest
+        }
+        String version = CompiledLexerCache.class.getPackage().getImplementationVersion();
+        if(version != null) {
+            return version;
+        }
+        return location == null ? "unknown" : String.valueOf(location.lastModified());
+    }
+
+    /**
+     * Reports how often compiled rule sets were found in the cache
+     * @return The number of entries loaded ("cache.hits"), compiled ("cache.misses") and that
+     * couldn't be read or written ("cache.failures")
+     */
+    public Map<String, Number> getStatistics() {
+        HashMap<String, Number> stats = new HashMap<>();
+        stats.put("cache.hits", hits.get());
+        stats.put("cache.misses", misses.get());
+        stats.put("cache.failures", failures.get());
+        return stats;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.Dfa;
+import co.louiscap.lib.lexical.automata.DfaBuilder;
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.automata.Utf8Dfa;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Matches every rule of a {@link RuleSet} at once with a single deterministic automaton, so each
+ * input character is examined exactly once per token regardless of how many rules there are.
+ * Instances are immutable and can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class DfaMatcher implements RuleMatcher {
+
+    private final Dfa dfa;
+    private final Consumer<DfaMatcher> onTranslated;
+    private volatile Utf8Dfa utf8;
+    private volatile boolean untranslatable;
+    private volatile String specialiseFailure;
+
+    public DfaMatcher(Dfa dfa) {
+        this(dfa, null);
+    }
+
+    /**
+     * Creates a matcher whose byte level automaton has already been built
+     * @param dfa The automaton to match with
+     * @param utf8 The translation of the automaton to UTF-8, or null to build it when it is needed
+     */
+    public DfaMatcher(Dfa dfa, Utf8Dfa utf8) {
+        this(dfa, utf8, null);
+    }
+
+    /**
+     * Creates a matcher that reports when it builds its byte level automaton
+     * @param onTranslated Called with this matcher each time it builds its UTF-8 automaton, or
+     * null
+     */
+    DfaMatcher(Dfa dfa, Utf8Dfa utf8, Consumer<DfaMatcher> onTranslated) {
+        this.dfa = dfa;
+        this.utf8 = utf8;
+        this.onTranslated = onTranslated;
+    }
+
+    /**
+     * Compiles a rule set into a DFA
+     * @param rules The rules to compile
+     * @return A new matcher
+     * @throws co.louiscap.lib.lexical.regex.UnsupportedRegexException If a rule can't be expressed
+     * as a finite automaton
+     * @throws IllegalStateException If the DFA would exceed {@link DfaBuilder#DEFAULT_STATE_LIMIT}
+     */
+    public static DfaMatcher compile(RuleSet rules) {
+        return new DfaMatcher(new DfaBuilder(Nfa.build(rules.parseAll())).build());
+    }
+
+    public Dfa getDfa() {
+        return dfa;
+    }
+
+    /**
+     * Gets the automaton translated to run on UTF-8 bytes, building it the first time it is asked
+     * for. Every lexer sharing this matcher shares the one translation.
+     * @return The byte level automaton, or null if a match can end inside a surrogate pair, in
+     * which case UTF-8 input has to be decoded to be lexed the same way
+     */
+    public Utf8Dfa getUtf8Dfa() {
+        Utf8Dfa translated = utf8;
+        if(translated == null && !untranslatable) {
+            if(!Utf8Dfa.canTranslate(dfa)) {
+                untranslatable = true;
+                return null;
+            }
+            // Building it twice in a race is harmless, as both results are the same
+            translated = Utf8Dfa.of(dfa);
+            utf8 = translated;
+            if(onTranslated != null) {
+                onTranslated.accept(this);
+            }
+        }
+        return translated;
+    }
+
+    /**
+     * Gets the automaton translated to run on UTF-8 bytes if it has been built
+     * @return The byte level automaton, or null if it hasn't been built or can't be
+     */
+    Utf8Dfa getBuiltUtf8Dfa() {
+        return utf8;
+    }
+
+    /**
+     * Turns this matcher into a class of its own, with the transitions of the DFA written out as
+     * branches rather than looked up in a table, so the JIT compiler can optimise the scan loop
+     * for these rules in particular. The class is generated with {@link LexerGenerator}, compiled
+     * in memory and loaded in an isolated class loader. This needs a JDK at runtime, and a DFA
+     * small enough for its match method to fit the class file limits.
+     * <p>
+     * The outcome is reported as {@code dfa.specialised} in the statistics of the matcher that is
+     * returned: 1 from the generated class, or 0 from this matcher along with the reason from
+     * {@link #getSpecialiseFailure()}.
+     * @param rules The rules this matcher was compiled from
+     * @return An equivalent, immutable matcher, or this one if the class can't be generated
+     */
+    public RuleMatcher specialise(RuleSet rules) {
+        String className = "SpecialisedMatcher";
+        try {
+            String source = new LexerGenerator(rules, dfa).generate("", className, true);
+            return (RuleMatcher) RuntimeCompiler.compile(className, source)
+                                         .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError ex) {
+            specialiseFailure = ex.getMessage() == null ? ex.toString() : ex.getMessage();
+            return this;
+        }
+    }
+
+    /**
+     * Gets the reason the last call to {@link #specialise(RuleSet)} fell back to this matcher
+     * @return The reason, or null if specialising hasn't failed
+     */
+    public String getSpecialiseFailure() {
+        return specialiseFailure;
+    }
+
+    /**
+     * Reports the size of the automata and how their transition tables are stored. The UTF-8
+     * automaton is only reported once it has been built, and {@code dfa.specialised} only once
+     * specialising has failed.
+     * @return The state, character class and interval counts of the DFA, and the size,
+     * uncompressed size and mean reads per lookup of each transition table
+     */
+    @Override
+    public Map<String, Number> getStatistics() {
+        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+        stats.put("dfa.states", dfa.getStateCount());
+        stats.put("dfa.classes", dfa.getAlphabet().size());
+        stats.put("dfa.intervals", dfa.getAlphabet().getIntervalCount());
+        stats.put("dfa.tableBytes", dfa.getTableSize());
+        stats.put("dfa.denseTableBytes", dfa.getDenseTableSize());
+        stats.put("dfa.readsPerLookup", dfa.getReadsPerLookup());
+        if(specialiseFailure != null) {
+            stats.put("dfa.specialised", 0);
+        }
+        Utf8Dfa translated = utf8;
+        if(translated != null) {
+            stats.put("utf8.states", translated.getStateCount());
+            stats.put("utf8.tableBytes", translated.getTableSize());
+            stats.put("utf8.denseTableBytes", translated.getDenseTableSize());
+            stats.put("utf8.readsPerLookup", translated.getReadsPerLookup());
+        }
+        return stats;
+    }
+
+    @Override
+    public long match(CharSequence input, int start, int end) {
+        return match(input, start, end, false);
+    }
+
+    @Override
+    public long matchPrefix(CharSequence input, int start, int end) {
+        return match(input, start, end, true);
+    }
+
+    private long match(CharSequence input, int start, int end, boolean partial) {
+        int state = dfa.getStartState();
+        int lastRule = -1, lastEnd = start;
+        for (int i = start; i < end; i++) {
+            state = dfa.step(state, input.charAt(i));
+            if(state == Dfa.DEAD) {
+                break;
+            }
+            int rule = dfa.getAcceptingRule(state);
+            if(rule >= 0) {
+                lastRule = rule;
+                lastEnd = i + 1;
+            }
+        }
+        if(partial && state != Dfa.DEAD) {
+            return NEED_INPUT;
+        }
+        return lastRule < 0 ? NO_MATCH : RuleMatcher.pack(lastRule, lastEnd);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.io.LexicalRule;
+import co.louiscap.lib.lexical.regex.CharSet;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Maps each character to the rules whose matches can start with it, so that a matcher only tries
+ * the handful of rules that could possibly match at a position. Characters below
+ * {@link #DIRECT_SIZE} are looked up directly; the rest of the BMP is split into intervals that
+ * share a candidate list and found by binary search. Rules without a known set of first characters
+ * (those that need backtracking) are candidates for every character.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class DispatchTable {
+
+    /**
+     * The number of characters that have a direct entry in the table
+     */
+    public static final int DIRECT_SIZE = 256;
+
+    private final int[][] direct;
+    private final int[] starts;
+    private final int[][] lists;
+
+    public DispatchTable(RuleSet rules) {
+        this(rules, new boolean[rules.size()]);
+    }
+
+    /**
+     * Creates a table that leaves some rules out, for matchers that handle them another way
+     * @param rules The rules to dispatch to
+     * @param excluded Flags for the rules that should never be candidates, indexed by rule
+     */
+    public DispatchTable(RuleSet rules, boolean[] excluded) {
+        CharSet[] firsts = new CharSet[rules.size()];
+        int[] bounds = new int[16];
+        int size = 0;
+        bounds[size++] = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            LexicalRule rule = rules.get(r);
+            if(excluded[r]) {
+                firsts[r] = CharSet.EMPTY;
+                continue;
+            }
+            firsts[r] = rule.getFirstChars() == null ? CharSet.ANY : rule.getFirstChars();
+            for (int i = 0; i < firsts[r].getRangeCount(); i++) {
+                if(size + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[size++] = firsts[r].getLow(i);
+                bounds[size++] = firsts[r].getHigh(i) + 1;
+            }
+        }
+        Arrays.sort(bounds, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if(bounds[i] <= CharSet.MAX_CHAR && (unique == 0 || bounds[i] != bounds[unique - 1])) {
+                bounds[unique++] = bounds[i];
+            }
+        }
+        this.starts = Arrays.copyOf(bounds, unique);
+        this.lists = new int[unique][];
+
+        // Identical candidate lists share one array
+        HashMap<String, int[]> shared = new HashMap<>();
+        int[] scratch = new int[rules.size()];
+        for (int i = 0; i < unique; i++) {
+            int count = 0;
+            for (int r = 0; r < firsts.length; r++) {
+                if(firsts[r].contains(starts[i])) {
+                    scratch[count++] = r;
+                }
+            }
+            int[] list = Arrays.copyOf(scratch, count);
+            lists[i] = shared.computeIfAbsent(Arrays.toString(list), k -> list);
+        }
+
+        this.direct = new int[DIRECT_SIZE][];
+        for (int c = 0; c < DIRECT_SIZE; c++) {
+            direct[c] = lists[search(c)];
+        }
+    }
+
+    private int search(int c) {
+        int index = Arrays.binarySearch(starts, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Gets the rules that can match starting with a character
+     * @param c The first character of the input to match
+     * @return The indices of the candidate rules, in priority order. The array must not be
+     * modified.
+     */
+    public int[] candidates(char c) {
+        return c < DIRECT_SIZE ? direct[c] : lists[search(c)];
+    }
+
+    /**
+     * Gets the average number of candidates per character over the direct part of the table
+     * @return The mean candidate list length for characters below {@link #DIRECT_SIZE}
+     */
+    public double getAverageDirectCandidates() {
+        long total = 0;
+        for (int[] list : direct) {
+            total += list.length;
+        }
+        return (double) total / DIRECT_SIZE;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches every rule that is only a list of literal strings, such as keywords and operators, with
+ * a single walk down a trie. Each node of the trie records the highest priority rule that would
+ * choose the string spelled out by the path to it, so the deepest such node reached is the
+ * longest match of any literal rule.
+ * <p>
+ * Every alternative of a rule is added to the trie whatever order they are written in, so
+ * {@code if|ifx} matches all of {@code "ifx"}, as it would in a DFA.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class KeywordTrie {
+
+    private static final int ROOT = 0;
+    private static final int ROOT_DIRECT = 128;
+
+    private final boolean[] handled;
+    private final int[] rootEdges;
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] rules;
+    private final int words;
+
+    private KeywordTrie(ArrayList<TreeMap<Character, Integer>> edges, ArrayList<Integer> accepting,
+            boolean[] handled, int words) {
+        this.handled = handled;
+        this.words = words;
+        int count = edges.size();
+        this.labels = new char[count][];
+        this.targets = new int[count][];
+        this.rules = new int[count];
+        for (int n = 0; n < count; n++) {
+            TreeMap<Character, Integer> children = edges.get(n);
+            labels[n] = new char[children.size()];
+            targets[n] = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                labels[n][i] = child.getKey();
+                targets[n][i++] = child.getValue();
+            }
+            rules[n] = accepting.get(n);
+        }
+        this.rootEdges = new int[ROOT_DIRECT];
+        Arrays.fill(rootEdges, -1);
+        for (int i = 0; i < labels[ROOT].length && labels[ROOT][i] < ROOT_DIRECT; i++) {
+            rootEdges[labels[ROOT][i]] = targets[ROOT][i];
+        }
+    }
+
+    /**
+     * Builds a trie of the literal rules in a rule set
+     * @param ruleSet The rules to search for literal rules
+     * @return The trie, or null if no rule is made only of literals
+     */
+    public static KeywordTrie of(RuleSet ruleSet) {
+        ArrayList<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        ArrayList<Integer> accepting = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        accepting.add(-1);
+        boolean[] handled = new boolean[ruleSet.size()];
+        int words = 0;
+        for (int r = 0; r < ruleSet.size(); r++) {
+            LexicalRule rule = ruleSet.get(r);
+            if(!rule.isLiteral()) {
+                continue;
+            }
+            handled[r] = true;
+            for (String literal : rule.getLiterals()) {
+                int node = ROOT;
+                for (int i = 0; i < literal.length(); i++) {
+                    Integer next = edges.get(node).get(literal.charAt(i));
+                    if(next == null) {
+                        next = edges.size();
+                        edges.get(node).put(literal.charAt(i), next);
+                        edges.add(new TreeMap<>());
+                        accepting.add(-1);
+                    }
+                    node = next;
+                }
+                // Rules are visited in priority order, so the first to claim a node wins
+                if(accepting.get(node) < 0) {
+                    accepting.set(node, r);
+                }
+                words++;
+            }
+        }
+        return contains(handled) ? new KeywordTrie(edges, accepting, handled, words) : null;
+    }
+
+    private static boolean contains(boolean[] flags) {
+        for (boolean flag : flags) {
+            if(flag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a rule is matched by this trie, and so needn't be matched any other way
+     * @param rule The index of the rule
+     * @return True if the rule is made only of literals
+     */
+    public boolean handles(int rule) {
+        return handled[rule];
+    }
+
+    /**
+     * Gets flags for the rules matched by this trie
+     * @return A new array with an entry for every rule in the rule set
+     */
+    public boolean[] getHandled() {
+        return handled.clone();
+    }
+
+    /**
+     * Finds the longest match of any literal rule
+     * @param input The text to match against
+     * @param start The index to start matching at
+     * @param end The index after the last character that may be consumed
+     * @return The rule and end of the match, packed as by {@link RuleMatcher#pack(int, int)}, or
+     * {@link RuleMatcher#NO_MATCH}
+     */
+    public long match(CharSequence input, int start, int end) {
+        long best = RuleMatcher.NO_MATCH;
+        int node = ROOT;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if(node == ROOT && c < ROOT_DIRECT) {
+                node = rootEdges[c];
+            } else {
+                int index = Arrays.binarySearch(labels[node], c);
+                node = index < 0 ? -1 : targets[node][index];
+            }
+            if(node < 0) {
+                break;
+            }
+            if(rules[node] >= 0) {
+                best = RuleMatcher.pack(rules[node], i + 1);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks whether some literal could still match if the input continued past the end
+     * @param input The text to match against
+     * @param start The index to start matching at
+     * @param end The index after the last character available
+     * @return True if the available input is a proper prefix of a literal
+     */
+    public boolean continuesPast(CharSequence input, int start, int end) {
+        int node = ROOT;
+        for (int i = start; i < end && node >= 0; i++) {
+            int index = Arrays.binarySearch(labels[node], input.charAt(i));
+            node = index < 0 ? -1 : targets[node][index];
+        }
+        return node >= 0 && labels[node].length > 0;
+    }
+
+    /**
+     * Gets the number of literals stored
+     * @return The number of strings that can be matched
+     */
+    public int getWordCount() {
+        return words;
+    }
+
+    /**
+     * Gets the number of rules matched by this trie
+     * @return The number of literal rules
+     */
+    public int getRuleCount() {
+        int count = 0;
+        for (boolean flag : handled) {
+            count += flag ? 1 : 0;
+        }
+        return count;
+    }
+
+    public int getNodeCount() {
+        return rules.length;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.LazyDfa;
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.automata.NfaSimulator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Matches every rule of a {@link RuleSet} with a {@link LazyDfa}, building DFA states only as the
+ * input reaches them. Memory use is bounded by the cache capacity however large the full DFA
+ * would be. When the cache thrashes the matcher falls back to simulating the NFA for a while
+ * before giving the cache another chance.
+ * <p>
+ * Instances hold mutable state and must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class LazyDfaMatcher implements RuleMatcher {
+
+    /**
+     * The number of characters matched by NFA simulation after the cache thrashes, before the
+     * lazy DFA is tried again
+     */
+    public static final int FALLBACK_LENGTH = 1 << 16;
+
+    private final LazyDfa dfa;
+    private final NfaSimulator nfa;
+    private int fallbackRemaining;
+    private long fallbackCount, fallbackChars;
+
+    public LazyDfaMatcher(Nfa nfa, int cacheCapacity) {
+        this.dfa = new LazyDfa(nfa, cacheCapacity);
+        this.nfa = new NfaSimulator(nfa);
+        this.fallbackRemaining = 0;
+    }
+
+    /**
+     * Compiles a rule set into a lazy DFA
+     * @param rules The rules to compile
+     * @param cacheCapacity The maximum number of DFA states to keep
+     * @return A new matcher
+     * @throws co.louiscap.lib.lexical.regex.UnsupportedRegexException If a rule can't be expressed
+     * as a finite automaton
+     */
+    public static LazyDfaMatcher compile(RuleSet rules, int cacheCapacity) {
+        return new LazyDfaMatcher(Nfa.build(rules.parseAll()), cacheCapacity);
+    }
+
+    public static LazyDfaMatcher compile(RuleSet rules) {
+        return compile(rules, LazyDfa.DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public long match(CharSequence input, int start, int end) {
+        return match(input, start, end, false);
+    }
+
+    @Override
+    public long matchPrefix(CharSequence input, int start, int end) {
+        return match(input, start, end, true);
+    }
+
+    private long match(CharSequence input, int start, int end, boolean partial) {
+        if(fallbackRemaining > 0) {
+            long match = matchNfa(input, start, end, partial);
+            int consumed = match < 0 ? 1 : RuleMatcher.endOf(match) - start;
+            fallbackRemaining -= consumed;
+            fallbackChars += consumed;
+            return match;
+        }
+        long match = matchDfa(input, start, end, partial);
+        if(dfa.isThrashing()) {
+            dfa.clearThrashing();
+            fallbackRemaining = FALLBACK_LENGTH;
+            fallbackCount++;
+        }
+        return match;
+    }
+
+    private long matchDfa(CharSequence input, int start, int end, boolean partial) {
+        int state = dfa.getStartState();
+        int lastRule = -1, lastEnd = start;
+        for (int i = start; i < end; i++) {
+            state = dfa.step(state, input.charAt(i));
+            if(state == LazyDfa.DEAD) {
+                break;
+            }
+            int rule = dfa.getAcceptingRule(state);
+            if(rule >= 0) {
+                lastRule = rule;
+                lastEnd = i + 1;
+            }
+        }
+        if(partial && state != LazyDfa.DEAD) {
+            return NEED_INPUT;
+        }
+        return lastRule < 0 ? NO_MATCH : RuleMatcher.pack(lastRule, lastEnd);
+    }
+
+    private long matchNfa(CharSequence input, int start, int end, boolean partial) {
+        nfa.start();
+        int lastRule = -1, lastEnd = start;
+        boolean alive = true;
+        for (int i = start; i < end; i++) {
+            if(!nfa.step(input.charAt(i))) {
+                alive = false;
+                break;
+            }
+            int rule = nfa.getAcceptingRule();
+            if(rule >= 0) {
+                lastRule = rule;
+                lastEnd = i + 1;
+            }
+        }
+        if(partial && alive) {
+            return NEED_INPUT;
+        }
+        return lastRule < 0 ? NO_MATCH : RuleMatcher.pack(lastRule, lastEnd);
+    }
+
+    public int getCacheCapacity() {
+        return dfa.getCapacity();
+    }
+
+    public int getCacheSize() {
+        return dfa.getSize();
+    }
+
+    public double getCacheHitRate() {
+        return dfa.getHitRate();
+    }
+
+    /**
+     * Checks whether matching is currently done by NFA simulation because the cache thrashed
+     * @return True if the matcher is in fallback mode
+     */
+    public boolean isFallingBack() {
+        return fallbackRemaining > 0;
+    }
+
+    @Override
+    public Map<String, Number> getStatistics() {
+        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+        stats.put("cache.capacity", dfa.getCapacity());
+        stats.put("cache.size", dfa.getSize());
+        stats.put("cache.hits", dfa.getHits());
+        stats.put("cache.misses", dfa.getMisses());
+        stats.put("cache.hitRate", dfa.getHitRate());
+        stats.put("cache.flushes", dfa.getFlushes());
+        stats.put("nfa.fallbacks", fallbackCount);
+        stats.put("nfa.chars", fallbackChars);
+        return stats;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits input into tokens using a {@link RuleMatcher}. At each position the longest match wins;
+ * rules without capture names consume their input without producing a token.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class Lexer {
+
+    private final RuleSet rules;
+    private final RuleMatcher matcher;
+    private final TokenTypes types;
+
+    public Lexer(RuleSet rules, RuleMatcher matcher) {
+        this.rules = rules;
+        this.matcher = matcher;
+        this.types = rules.getTokenTypes();
+    }
+
+    public RuleSet getRules() {
+        return rules;
+    }
+
+    public RuleMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * Reports statistics from the underlying matcher
+     * @return A map of statistic names to values
+     * @see RuleMatcher#getStatistics()
+     */
+    public Map<String, Number> getStatistics() {
+        return matcher.getStatistics();
+    }
+
+    /**
+     * Lexes the whole of the input
+     * @param input The text to lex
+     * @return The tokens produced, in input order. Each token's value is the text it matched.
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public List<LexicalToken<String>> lex(CharSequence input) {
+        ArrayList<LexicalToken<String>> tokens = new ArrayList<>();
+        lex(input, TokenSink.of(rules, input, tokens::add));
+        return tokens;
+    }
+
+    /**
+     * Lexes the whole of the input without creating any token objects
+     * @param input The text to lex
+     * @param sink Receives the type and position of each token, in input order
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public void lex(CharSequence input, TokenSink sink) {
+        int pos = 0, length = input.length();
+        while (pos < length) {
+            pos = lexOne(input, pos, length, sink);
+        }
+    }
+
+    /**
+     * Matches the token at a position, which is passed to the sink unless its rule is skipped.
+     * Every way of lexing a whole input is a loop over this.
+     * @return The position after the token
+     */
+    private int lexOne(CharSequence input, int pos, int length, TokenSink sink) {
+        long match = matcher.match(input, pos, length);
+        if(match == RuleMatcher.NO_MATCH) {
+            throw new LexicalException("No rule matches the input at offset " + pos, pos);
+        }
+        int end = RuleMatcher.endOf(match);
+        int type = types.getType(RuleMatcher.ruleOf(match));
+        if(type != TokenTypes.NO_TYPE) {
+            sink.onToken(type, pos, end);
+        }
+        return end;
+    }
+
+    /**
+     * Lexes the whole of the input into a compact buffer
+     * @param input The text to lex
+     * @param trackLines True to record the line each token starts on
+     * @return A buffer holding every token
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public TokenBuffer lexToBuffer(CharSequence input, boolean trackLines) {
+        TokenBuffer buffer = new TokenBuffer(rules, input, trackLines);
+        lex(input, buffer);
+        return buffer;
+    }
+
+    /**
+     * Lexes the input on demand, one token for each call to {@link Iterator#next()}, so a consumer
+     * that only needs the first few tokens only pays for those
+     * @param input The text to lex, which must not change while it is being lexed
+     * @return An iterator over the tokens of the input, which throws a {@link LexicalException}
+     * from {@link Iterator#hasNext()} if no rule matches at some position
+     */
+    public Iterator<LexicalToken<String>> iterator(CharSequence input) {
+        return new Tokens(input);
+    }
+
+    /**
+     * Lexes the input on demand, as described by {@link #iterator(java.lang.CharSequence)}.
+     * Short circuiting operations such as {@link Stream#findFirst()} and {@link Stream#limit(long)}
+     * stop lexing as soon as they have what they need.
+     * @param input The text to lex, which must not change while it is being lexed
+     * @return A sequential, ordered stream of the tokens of the input
+     */
+    public Stream<LexicalToken<String>> stream(CharSequence input) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                iterator(input), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Lexes one token at a time, looking ahead only to find out whether there is another
+     */
+    private final class Tokens implements Iterator<LexicalToken<String>> {
+
+        private final CharSequence input;
+        private final TokenSink sink;
+        private int pos;
+        private LexicalToken<String> next;
+
+        Tokens(CharSequence input) {
+            this.input = input;
+            this.sink = TokenSink.of(rules, input, token -> next = token);
+        }
+
+        @Override
+        public boolean hasNext() {
+            int length = input.length();
+            while (next == null && pos < length) {
+                pos = lexOne(input, pos, length, sink);
+            }
+            return next != null;
+        }
+
+        @Override
+        public LexicalToken<String> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LexicalToken<String> token = next;
+            next = null;
+            return token;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.Alphabet;
+import co.louiscap.lib.lexical.automata.Dfa;
+import co.louiscap.lib.lexical.automata.DfaBuilder;
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.io.LexicalRule;
+
+/**
+ * Generates the Java source of a lexer specialised to one rule set, so that lexical definitions
+ * can be compiled ahead of time instead of being parsed and compiled every time a program starts.
+ * The generated class has the rules' DFA baked in as constant tables, indexed directly by
+ * character, and the mapping from rules to token types as a switch statement. It implements
+ * {@link RuleMatcher} and has a {@code lex} method of its own, so it only needs this library's
+ * engine interfaces at runtime and never touches a regular expression.
+ * <p>
+ * Tables are written as run length encoded string literals and unpacked when the class is loaded,
+ * which keeps the class file small and clear of the size limits on array initialisers.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class LexerGenerator {
+
+    /**
+     * The most characters written in a single string literal, well inside the class file limit
+     */
+    private static final int LITERAL_CHARS = 16384;
+    private static final int CHAR_COUNT = 0x10000;
+
+    private final RuleSet rules;
+    private final Dfa dfa;
+
+    /**
+     * Creates a generator for a rule set, compiling it into a DFA
+     * @param rules The rules to generate a lexer for
+     * @throws co.louiscap.lib.lexical.regex.UnsupportedRegexException If a rule can't be expressed
+     * as a finite automaton
+     * @throws IllegalStateException If the DFA would exceed {@link DfaBuilder#DEFAULT_STATE_LIMIT}
+     */
+    public LexerGenerator(RuleSet rules) {
+        this(rules, new DfaBuilder(Nfa.build(rules.parseAll())).build());
+    }
+
+    /**
+     * Creates a generator for a rule set that has already been compiled
+     * @param rules The rules to generate a lexer for
+     * @param dfa The DFA compiled from the rules
+     */
+    public LexerGenerator(RuleSet rules, Dfa dfa) {
+        if(dfa.getStateCount() >= CHAR_COUNT || rules.size() >= CHAR_COUNT - 1) {
+            throw new IllegalStateException("Too many states or rules to generate a lexer for");
+        }
+        this.rules = rules;
+        this.dfa = dfa;
+    }
+
+    /**
+     * Generates the source of the lexer class
+     * @param packageName The package of the class, or an empty string for the default package
+     * @param className The simple name of the class
+     * @return The source code of the class
+     */
+    public String generate(String packageName, String className) {
+        return generate(packageName, className, false);
+    }
+
+    /**
+     * Generates the source of the lexer class, optionally with the transitions written out as
+     * code. Inline transitions are a switch on the state holding a tree of comparisons against the
+     * character for each state, which the JIT compiler can optimise like any other branches, but
+     * a large DFA will make the match method too big to compile.
+     * @param packageName The package of the class, or an empty string for the default package
+     * @param className The simple name of the class
+     * @param inlineTransitions True to write the transitions as code instead of tables
+     * @return The source code of the class
+     */
+    public String generate(String packageName, String className, boolean inlineTransitions) {
+        TokenTypes types = rules.getTokenTypes();
+        Alphabet alphabet = dfa.getAlphabet();
+        int width = alphabet.size(), states = dfa.getStateCount();
+        StringBuilder source = new StringBuilder();
+        if(!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import co.louiscap.lib.lexical.engine.LexicalException;\n")
+              .append("import co.louiscap.lib.lexical.engine.RuleMatcher;\n")
+              .append("import co.louiscap.lib.lexical.engine.TokenSink;\n")
+              .append("import java.util.Arrays;\n")
+              .append("import java.util.LinkedHashMap;\n")
+              .append("import java.util.Map;\n\n")
+              .append("/**\n")
+              .append(" * A lexer for ").append(rules.size()).append(" rules, as a DFA of ")
+              .append(states).append(" states over ").append(width).append(" character classes.\n")
+              .append(" * Generated by ").append(LexerGenerator.class.getName())
+              .append(" from the lexical definitions; do not edit.\n")
+              .append(" */\n")
+              .append("public final class ").append(className).append(" implements RuleMatcher {\n\n")
+              .append("    /** The type of the tokens of skipped rules */\n")
+              .append("    public static final int NO_TYPE = ").append(TokenTypes.NO_TYPE).append(";\n\n")
+              .append("    /** The number of rules, whose indices are the rules' priority order */\n")
+              .append("    public static final int RULE_COUNT = ").append(rules.size()).append(";\n\n")
+              .append("    private static final int START = ").append(dfa.getStartState()).append(";\n")
+              .append("    private static final int WIDTH = ").append(width).append(";\n")
+              .append("    private static final int CHAR_COUNT = ").append(CHAR_COUNT).append(";\n\n");
+
+        appendStrings(source, "TOKEN_NAMES", rules, true);
+        appendStrings(source, "NAMESPACES", rules, false);
+
+        if(!inlineTransitions) {
+            RunLength classes = new RunLength();
+            for (int i = 0; i < alphabet.getIntervalCount(); i++) {
+                classes.add(alphabet.getIntervalClass(i),
+                            alphabet.getIntervalEnd(i) - alphabet.getIntervalStart(i) + 1);
+            }
+            appendTable(source, "CLASSES", classes, "CHAR_COUNT");
+            RunLength transitions = new RunLength();
+            for (int s = 0; s < states; s++) {
+                for (int c = 0; c < width; c++) {
+                    transitions.add(dfa.stepClass(s, c), 1);
+                }
+            }
+            appendTable(source, "TRANSITIONS", transitions, states + " * WIDTH");
+        }
+        RunLength accepting = new RunLength();
+        for (int s = 0; s < states; s++) {
+            accepting.add(dfa.getAcceptingRule(s) + 1, 1);
+        }
+        appendTable(source, "ACCEPTING", accepting, String.valueOf(states));
+
+        source.append("    /**\n")
+              .append("     * Gets the type of the tokens a rule produces\n")
+              .append("     * @param rule The index of the rule\n")
+              .append("     * @return The token type id, or {@link #NO_TYPE} if the rule is skipped\n")
+              .append("     */\n")
+              .append("    public static int typeOf(int rule) {\n")
+              .append("        switch(rule) {\n");
+        for (int type = 0; type < types.size(); type++) {
+            boolean any = false;
+            for (int rule = 0; rule < rules.size(); rule++) {
+                if(types.getType(rule) == type) {
+                    source.append("            case ").append(rule).append(":\n");
+                    any = true;
+                }
+            }
+            if(any) {
+                source.append("                return ").append(type).append(";\n");
+            }
+        }
+        source.append("            default:\n")
+              .append("                return NO_TYPE;\n")
+              .append("        }\n")
+              .append("    }\n\n")
+              .append("    public static String getTokenName(int rule) {\n")
+              .append("        return TOKEN_NAMES[rule];\n")
+              .append("    }\n\n")
+              .append("    public static String getNamespace(int rule) {\n")
+              .append("        return NAMESPACES[rule];\n")
+              .append("    }\n\n")
+              .append("    /**\n")
+              .append("     * Lexes the whole of the input\n")
+              .append("     * @param input The text to lex\n")
+              .append("     * @param sink Receives the type and position of each token, in input order\n")
+              .append("     * @throws LexicalException If no rule matches at some position of the input\n")
+              .append("     */\n")
+              .append("    public void lex(CharSequence input, TokenSink sink) {\n")
+              .append("        int pos = 0, length = input.length();\n")
+              .append("        while (pos < length) {\n")
+              .append("            long match = match(input, pos, length, false);\n")
+              .append("            if(match == NO_MATCH) {\n")
+              .append("                throw new LexicalException(\"No rule matches the input at offset \" + pos, pos);\n")
+              .append("            }\n")
+              .append("            int type = typeOf(RuleMatcher.ruleOf(match)), end = RuleMatcher.endOf(match);\n")
+              .append("            if(type != NO_TYPE) {\n")
+              .append("                sink.onToken(type, pos, end);\n")
+              .append("            }\n")
+              .append("            pos = end;\n")
+              .append("        }\n")
+              .append("    }\n\n")
+              .append("    /**\n")
+              .append("     * Reports the size of the DFA and whether its transitions are written out as code\n")
+              .append("     */\n")
+              .append("    @Override\n")
+              .append("    public Map<String, Number> getStatistics() {\n")
+              .append("        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();\n")
+              .append("        stats.put(\"dfa.states\", ").append(states).append(");\n")
+              .append("        stats.put(\"dfa.classes\", WIDTH);\n")
+              .append("        stats.put(\"dfa.specialised\", ").append(inlineTransitions ? 1 : 0)
+              .append(");\n")
+              .append("        return stats;\n")
+              .append("    }\n\n")
+              .append("    @Override\n")
+              .append("    public long match(CharSequence input, int start, int end) {\n")
+              .append("        return match(input, start, end, false);\n")
+              .append("    }\n\n")
+              .append("    @Override\n")
+              .append("    public long matchPrefix(CharSequence input, int start, int end) {\n")
+              .append("        return match(input, start, end, true);\n")
+              .append("    }\n\n")
+              .append("    private static long match(CharSequence input, int start, int end, boolean partial) {\n")
+              .append("        int state = START;\n")
+              .append("        int lastRule = -1, lastEnd = start;\n")
+              .append("        for (int i = start; i < end; i++) {\n");
+        if(inlineTransitions) {
+            appendTransitions(source);
+        } else {
+            source.append("            state = TRANSITIONS[state * WIDTH + CLASSES[input.charAt(i)]];\n");
+        }
+        source.append("            if(state == 0) {\n")
+              .append("                break;\n")
+              .append("            }\n")
+              .append("            int rule = ACCEPTING[state] - 1;\n")
+              .append("            if(rule >= 0) {\n")
+              .append("                lastRule = rule;\n")
+              .append("                lastEnd = i + 1;\n")
+              .append("            }\n")
+              .append("        }\n")
+              .append("        if(partial && state != 0) {\n")
+              .append("            return NEED_INPUT;\n")
+              .append("        }\n")
+              .append("        return lastRule < 0 ? NO_MATCH : RuleMatcher.pack(lastRule, lastEnd);\n")
+              .append("    }\n\n")
+              .append("    /**\n")
+              .append("     * Expands a table written as pairs of a run length and the value repeated\n")
+              .append("     */\n")
+              .append("    private static char[] unpack(String[] packed, int size) {\n")
+              .append("        char[] table = new char[size];\n")
+              .append("        int pos = 0;\n")
+              .append("        for (String part : packed) {\n")
+              .append("            for (int i = 0; i < part.length(); i += 2) {\n")
+              .append("                int count = part.charAt(i);\n")
+              .append("                Arrays.fill(table, pos, pos + count, part.charAt(i + 1));\n")
+              .append("                pos += count;\n")
+              .append("            }\n")
+              .append("        }\n")
+              .append("        return table;\n")
+              .append("    }\n")
+              .append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Writes the transitions of every live state as a switch, leaving states that only lead to
+     * {@link Dfa#DEAD} to the default case
+     */
+    private void appendTransitions(StringBuilder source) {
+        Alphabet alphabet = dfa.getAlphabet();
+        int intervals = alphabet.getIntervalCount();
+        int[] lows = new int[intervals], targets = new int[intervals];
+        source.append("            char c = input.charAt(i);\n")
+              .append("            switch(state) {\n");
+        for (int s = 0; s < dfa.getStateCount(); s++) {
+            if(s == Dfa.DEAD) {
+                continue;
+            }
+            // Neighbouring intervals that lead to the same state are compared as one range
+            int ranges = 0;
+            boolean live = false;
+            for (int i = 0; i < intervals; i++) {
+                int target = dfa.stepClass(s, alphabet.getIntervalClass(i));
+                live |= target != Dfa.DEAD;
+                if(ranges == 0 || targets[ranges - 1] != target) {
+                    lows[ranges] = alphabet.getIntervalStart(i);
+                    targets[ranges++] = target;
+                }
+            }
+            if(!live) {
+                continue;
+            }
+            source.append("                case ").append(s).append(":\n");
+            appendRanges(source, lows, targets, 0, ranges - 1, "                    ");
+            source.append("                    break;\n");
+        }
+        source.append("                default:\n")
+              .append("                    state = 0;\n")
+              .append("            }\n");
+    }
+
+    /**
+     * Writes a binary search over character ranges, so a state with n ranges takes log n
+     * comparisons
+     */
+    private static void appendRanges(StringBuilder source, int[] lows, int[] targets, int from,
+                                     int to, String indent) {
+        if(from == to) {
+            source.append(indent).append("state = ").append(targets[from]).append(";\n");
+            return;
+        }
+        int middle = (from + to + 1) >>> 1;
+        source.append(indent).append("if(c < 0x").append(Integer.toHexString(lows[middle]))
+              .append(") {\n");
+        appendRanges(source, lows, targets, from, middle - 1, indent + "    ");
+        source.append(indent).append("} else {\n");
+        appendRanges(source, lows, targets, middle, to, indent + "    ");
+        source.append(indent).append("}\n");
+    }
+
+    private static void appendStrings(StringBuilder source, String name, RuleSet rules,
+                                      boolean tokenNames) {
+        source.append("    private static final String[] ").append(name).append(" = {\n");
+        for (int i = 0; i < rules.size(); i++) {
+            LexicalRule rule = rules.get(i);
+            String value = tokenNames ? rule.getTokenName() : rule.getNamespace();
+            source.append("        ");
+            if(value == null) {
+                source.append("null");
+            } else {
+                appendLiteral(source, value);
+            }
+            source.append(",\n");
+        }
+        source.append("    };\n\n");
+    }
+
+    private static void appendTable(StringBuilder source, String name, RunLength table,
+                                    String size) {
+        source.append("    private static final char[] ").append(name).append(" = unpack(new String[] {\n");
+        String packed = table.toString();
+        for (int i = 0; i < packed.length(); i += LITERAL_CHARS) {
+            source.append("        ");
+            appendLiteral(source, packed.substring(i, Math.min(packed.length(), i + LITERAL_CHARS)));
+            source.append(",\n");
+        }
+        source.append("    }, ").append(size).append(");\n\n");
+    }
+
+    /**
+     * Writes a string as a Java literal. Unicode escapes are only used above U+00FF, where they
+     * can't be read as a line break or a quote before the literal is parsed.
+     */
+    private static void appendLiteral(StringBuilder source, String value) {
+        source.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                source.append('\\').append(c);
+            } else if(c >= 0x20 && c < 0x7F) {
+                source.append(c);
+            } else if(c <= 0xFF) {
+                source.append(String.format("\\%03o", (int) c));
+            } else {
+                source.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        source.append('"');
+    }
+
+    /**
+     * Builds the run length encoding of a table, as pairs of a count and a value
+     */
+    private static final class RunLength {
+
+        private final StringBuilder packed = new StringBuilder();
+        private int value = -1;
+        private int count;
+
+        void add(int value, int times) {
+            if(value != this.value) {
+                flush();
+                this.value = value;
+            }
+            count += times;
+        }
+
+        private void flush() {
+            while (count > 0) {
+                int run = Math.min(count, Character.MAX_VALUE);
+                packed.append((char) run).append((char) value);
+                count -= run;
+            }
+        }
+
+        @Override
+        public String toString() {
+            flush();
+            return packed.toString();
+        }
+    }
+}
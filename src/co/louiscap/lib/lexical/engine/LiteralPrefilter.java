@@ -0,0 +1,200 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.AhoCorasick;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import co.louiscap.lib.lexical.regex.RequiredLiteral;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Rules out rules at positions where the literal they require can't be found. The required
+ * literals of every rule are scanned for with a single {@link AhoCorasick} automaton, which runs
+ * a short distance ahead of the lexer and records, for each upcoming position, the rules whose
+ * literal occurs at the right offset from it. A rule with a required literal is then only worth
+ * matching at positions where it has been recorded; rules without one are always allowed.
+ * <p>
+ * Scanning restarts whenever the input changes or the lexer moves backwards, so that lexing from
+ * the start of an input to its end scans each character once. Instances hold mutable state and
+ * must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class LiteralPrefilter {
+
+    /**
+     * The furthest past the start of a match that a required literal may end for it to be used.
+     * This bounds how far the automaton runs ahead of the lexer.
+     */
+    public static final int MAX_SPAN = 256;
+
+    private final AhoCorasick automaton;
+    private final int[][] users;
+    private final boolean[] filtered;
+    private final int[] spans;
+    private final int[] lengths;
+    private final int words;
+    private final int mask;
+    private final long[] enabled;
+
+    private CharSequence input;
+    private int position, scanned, state;
+    private long skipped;
+
+    private LiteralPrefilter(RuleSet rules, ArrayList<String> literals, ArrayList<ArrayList<int[]>> uses) {
+        this.automaton = new AhoCorasick(literals);
+        this.filtered = new boolean[rules.size()];
+        this.spans = new int[rules.size()];
+        this.users = new int[literals.size()][];
+        this.lengths = new int[literals.size()];
+        int span = 1;
+        for (int w = 0; w < literals.size(); w++) {
+            lengths[w] = literals.get(w).length();
+            ArrayList<int[]> list = uses.get(w);
+            users[w] = new int[list.size() * 2];
+            for (int i = 0; i < list.size(); i++) {
+                int rule = list.get(i)[0], offset = list.get(i)[1];
+                users[w][i * 2] = rule;
+                users[w][i * 2 + 1] = offset;
+                filtered[rule] = true;
+                spans[rule] = offset + lengths[w];
+                span = Math.max(span, offset + lengths[w]);
+            }
+        }
+        int window = Integer.highestOneBit(span - 1) << 1;
+        this.mask = window - 1;
+        this.words = (rules.size() + 63) >>> 6;
+        this.enabled = new long[window * words];
+    }
+
+    /**
+     * Builds a prefilter for the rules that have a usable required literal
+     * @param rules The rules to filter
+     * @return The prefilter, or null if no rule has a required literal
+     */
+    public static LiteralPrefilter of(RuleSet rules) {
+        ArrayList<String> literals = new ArrayList<>();
+        ArrayList<ArrayList<int[]>> uses = new ArrayList<>();
+        LinkedHashMap<String, Integer> ids = new LinkedHashMap<>();
+        for (int r = 0; r < rules.size(); r++) {
+            LexicalRule rule = rules.get(r);
+            RequiredLiteral literal = rule.getRequiredLiteral();
+            if(literal == null || literal.getOffset() + literal.getText().length() > MAX_SPAN) {
+                continue;
+            }
+            Integer id = ids.get(literal.getText());
+            if(id == null) {
+                id = literals.size();
+                ids.put(literal.getText(), id);
+                literals.add(literal.getText());
+                uses.add(new ArrayList<>());
+            }
+            uses.get(id).add(new int[] { r, literal.getOffset() });
+        }
+        return literals.isEmpty() ? null : new LiteralPrefilter(rules, literals, uses);
+    }
+
+    /**
+     * Scans far enough ahead to decide which rules can match at a position. This must be called
+     * before {@link #allows(int, int)} is used for that position.
+     * @param input The text being lexed
+     * @param start The position the next match will start at
+     * @param end The index after the last character that may be consumed
+     */
+    public void advance(CharSequence input, int start, int end) {
+        if(input != this.input || start < position || start > scanned) {
+            this.input = input;
+            this.scanned = start;
+            this.state = AhoCorasick.ROOT;
+        }
+        position = start;
+        int limit = Math.min(end, start + mask + 1);
+        for (; scanned < limit; scanned++) {
+            Arrays.fill(enabled, (scanned & mask) * words, (scanned & mask) * words + words, 0);
+            state = automaton.step(state, input.charAt(scanned));
+            for (int w : automaton.getOutputs(state)) {
+                int literalStart = scanned - lengths[w] + 1;
+                int[] list = users[w];
+                for (int i = 0; i < list.length; i += 2) {
+                    int matchStart = literalStart - list[i + 1];
+                    if(matchStart >= position) {
+                        int rule = list[i];
+                        enabled[(matchStart & mask) * words + (rule >>> 6)] |= 1L << rule;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a rule could match at the position last passed to
+     * {@link #advance(CharSequence, int, int)}
+     * @param rule The index of the rule
+     * @param start The position, which must be the one last advanced to
+     * @return False if the rule's required literal isn't in the right place for it to match
+     */
+    public boolean allows(int rule, int start) {
+        if(!filtered[rule]) {
+            return true;
+        }
+        if((enabled[(start & mask) * words + (rule >>> 6)] & (1L << rule)) != 0) {
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /**
+     * Gets how much input a rule's required literal needs to be found
+     * @param rule The index of the rule
+     * @return The number of characters from the start of a match to the end of its required
+     * literal, or 0 if the rule isn't filtered
+     */
+    public int getSpan(int rule) {
+        return spans[rule];
+    }
+
+    /**
+     * Gets the number of distinct literals searched for
+     * @return The number of literals
+     */
+    public int getLiteralCount() {
+        return automaton.getWordCount();
+    }
+
+    /**
+     * Gets the number of times a rule wasn't matched because of this filter
+     * @return The number of rule attempts skipped
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.automata.Utf8Dfa;
+import co.louiscap.lib.lexical.io.ByteCharSequence;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import co.louiscap.lib.lexical.io.MappedFileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Lexes a file by memory mapping it, so that its contents are read by the operating system's page
+ * cache rather than copied into the heap. The file is mapped a window at a time, and a token that
+ * runs off the end of a window is matched again from the start of the next window, which begins
+ * at that token. Windows are well below the 2GB limit of a single mapping, so files of any size
+ * can be lexed.
+ * <p>
+ * Files in US-ASCII or ISO-8859-1 are matched directly against the mapped bytes through a
+ * {@link ByteCharSequence}. A US-ASCII window is checked for bytes above 0x7F first, which are
+ * rejected just as the decoder used by {@link StreamingLexer} rejects them. UTF-8 files are
+ * matched directly by a {@link Utf8Lexer} when the rules have been compiled into a DFA that can
+ * be translated to UTF-8; {@link #lexUtf8(ByteBuffer, Consumer)} does the same for input already
+ * in memory, so callers can send UTF-8 input of any size to the byte lexer and take the
+ * {@link Utf8Token}s it finds as they are. Anything else has to be decoded to chars first, which
+ * is done window by window through a {@link MappedFileReader} feeding a {@link StreamingLexer}.
+ * <p>
+ * Instances must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class MappedLexer {
+
+    /**
+     * The default number of bytes mapped at once
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final RuleSet rules;
+    private final RuleMatcher matcher;
+    private Utf8Lexer utf8;
+    private boolean utf8Resolved;
+    private final int windowSize;
+
+    public MappedLexer(Lexer lexer) {
+        this(lexer.getRules(), lexer.getMatcher(), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a mapped lexer, which also lexes UTF-8 at the byte level if the matcher is a
+     * {@link DfaMatcher} whose automaton can be translated to UTF-8. The translation is built
+     * when the first UTF-8 file is lexed.
+     * @param rules The rules matched by the matcher
+     * @param matcher The matcher to find tokens with
+     * @param windowSize The largest number of bytes to map at once, which bounds the length of a
+     * token
+     */
+    public MappedLexer(RuleSet rules, RuleMatcher matcher, int windowSize) {
+        this(rules, matcher, null, windowSize);
+        this.utf8Resolved = false;
+    }
+
+    /**
+     * Creates a mapped lexer
+     * @param rules The rules matched by the matcher
+     * @param matcher The matcher to find tokens with
+     * @param utf8 The lexer to use for UTF-8 input, or null to decode UTF-8 input to chars
+     * @param windowSize The largest number of bytes to map at once, which bounds the length of a
+     * token
+     */
+    public MappedLexer(RuleSet rules, RuleMatcher matcher, Utf8Lexer utf8, int windowSize) {
+        if(windowSize < 16) {
+            throw new IllegalArgumentException("Mapped windows must be at least 16 bytes");
+        }
+        this.rules = rules;
+        this.matcher = matcher;
+        this.utf8 = utf8;
+        this.utf8Resolved = true;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Creates the byte level lexer for a matcher
+     * @return The lexer, or null if the matcher has no UTF-8 automaton
+     */
+    static Utf8Lexer utf8Lexer(RuleSet rules, RuleMatcher matcher) {
+        Utf8Dfa translated = matcher instanceof DfaMatcher
+                ? ((DfaMatcher) matcher).getUtf8Dfa() : null;
+        return translated == null ? null : new Utf8Lexer(rules, translated);
+    }
+
+    private Utf8Lexer getUtf8Lexer() {
+        if(!utf8Resolved) {
+            utf8 = utf8Lexer(rules, matcher);
+            utf8Resolved = true;
+        }
+        return utf8;
+    }
+
+    /**
+     * Checks whether UTF-8 input can be passed to {@code lexUtf8}, which builds the translated
+     * automaton if it hasn't been built yet
+     * @return True if UTF-8 input is lexed at the byte level
+     */
+    public boolean canLexUtf8() {
+        return getUtf8Lexer() != null;
+    }
+
+    /**
+     * Checks whether files in an encoding can be matched without decoding them
+     * @param encoding The encoding of the input
+     * @return True if each byte of the encoding is one char
+     */
+    public static boolean isDirect(Charset encoding) {
+        return encoding.equals(StandardCharsets.US_ASCII) || encoding.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Lexes the whole of a file
+     * @param channel The file to lex, which is not closed
+     * @param encoding The character encoding of the file
+     * @param consumer Receives each token as soon as it is complete
+     * @throws IOException If the file can't be mapped
+     * @throws MalformedInputException If a US-ASCII file holds a byte above 0x7F
+     * @throws LexicalException If no rule matches at some position of the input, or a token
+     * doesn't fit in a window
+     */
+    public void lex(FileChannel channel, Charset encoding,
+            Consumer<LexicalToken<String>> consumer) throws IOException {
+        if(encoding.equals(StandardCharsets.UTF_8) && getUtf8Lexer() != null) {
+            lexUtf8(channel, token -> consumer.accept(token.toLexicalToken()));
+            return;
+        }
+        if(!isDirect(encoding)) {
+            int bufferSize = Math.min(windowSize, StreamingLexer.DEFAULT_BUFFER_SIZE);
+            new StreamingLexer(rules, matcher, bufferSize)
+                    .lex(new MappedFileReader(channel, encoding, windowSize), consumer);
+            return;
+        }
+        boolean ascii = encoding.equals(StandardCharsets.US_ASCII);
+        long size = channel.size();
+        long windowStart = 0;
+        while (true) {
+            int length = (int) Math.min(windowSize, size - windowStart);
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            if(ascii) {
+                checkAscii(bytes, length);
+            }
+            ByteCharSequence window = new ByteCharSequence(bytes);
+            boolean last = windowStart + length == size;
+            int pos = 0;
+            while (pos < length) {
+                long match = last ? matcher.match(window, pos, length)
+                        : matcher.matchPrefix(window, pos, length);
+                if(match == RuleMatcher.NEED_INPUT) {
+                    break;
+                }
+                if(match == RuleMatcher.NO_MATCH) {
+                    throw new LexicalException("No rule matches the input at offset "
+                            + (windowStart + pos), windowStart + pos);
+                }
+                int end = RuleMatcher.endOf(match);
+                LexicalRule rule = rules.get(RuleMatcher.ruleOf(match));
+                if(!rule.isSkipped()) {
+                    consumer.accept(new LexicalToken<>(rule.getTokenName(), rule.getNamespace(),
+                                                       window.subSequence(pos, end)));
+                }
+                pos = end;
+            }
+            if(last) {
+                return;
+            }
+            if(pos == 0) {
+                throw new LexicalException("A token starting at offset " + windowStart
+                        + " doesn't fit in a window of " + windowSize + " bytes", windowStart);
+            }
+            windowStart += pos;
+        }
+    }
+
+    /**
+     * Reads the whole of a file into the heap, for files too small to be worth mapping
+     * @param channel The file to read, which is not closed
+     * @return A heap buffer holding the file, positioned at its first byte
+     * @throws IOException If the file can't be read
+     */
+    public static ByteBuffer readFully(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("Files of " + size + " bytes have to be mapped");
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        while (contents.hasRemaining() && channel.read(contents) >= 0) {
+            // Keep reading until the buffer is full or the file turns out to be shorter
+        }
+        contents.flip();
+        return contents;
+    }
+
+    private static void checkAscii(ByteBuffer bytes, int length) throws MalformedInputException {
+        for (int i = 0; i < length; i++) {
+            if(bytes.get(i) < 0) {
+                throw new MalformedInputException(1);
+            }
+        }
+    }
+
+    /**
+     * Lexes the whole of a UTF-8 file at the byte level
+     * @param channel The file to lex, which is not closed
+     * @param consumer Receives each token, whose lexeme is only valid until the consumer returns
+     * @throws IOException If the file can't be mapped
+     * @throws LexicalException If no rule matches at some position of the input, or a token
+     * doesn't fit in a window
+     * @throws IllegalStateException If this lexer has no {@link Utf8Lexer}
+     */
+    public void lexUtf8(FileChannel channel, Consumer<Utf8Token> consumer) throws IOException {
+        checkUtf8();
+        lexWindows(channel, (window, length, base, partial)
+                -> utf8.lex(window, 0, length, base, partial, consumer));
+    }
+
+    /**
+     * Lexes the whole of a UTF-8 file at the byte level into an off-heap store, without creating
+     * any token objects, for files with more tokens than would fit in the heap
+     * @param channel The file to lex, which is not closed
+     * @param store Receives each token, with its position in bytes from the start of the file
+     * @throws IOException If the file can't be mapped
+     * @throws LexicalException If no rule matches at some position of the input, or a token
+     * doesn't fit in a window
+     * @throws IllegalStateException If this lexer has no {@link Utf8Lexer}
+     */
+    public void lexUtf8(FileChannel channel, OffHeapTokenStore store) throws IOException {
+        checkUtf8();
+        lexWindows(channel, (window, length, base, partial) -> {
+            store.setBase(base);
+            return utf8.lex(window, 0, length, base, partial, store);
+        });
+    }
+
+    /**
+     * Maps a file a window at a time, starting each window at the first byte the previous one
+     * didn't consume
+     */
+    private void lexWindows(FileChannel channel, WindowLexer lexer) throws IOException {
+        long size = channel.size();
+        long windowStart = 0;
+        while (true) {
+            int length = (int) Math.min(windowSize, size - windowStart);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            boolean last = windowStart + length == size;
+            int pos = lexer.lex(window, length, windowStart, !last);
+            if(last) {
+                return;
+            }
+            if(pos == 0) {
+                throw new LexicalException("A token starting at byte offset " + windowStart
+                        + " doesn't fit in a window of " + windowSize + " bytes", windowStart);
+            }
+            windowStart += pos;
+        }
+    }
+
+    /**
+     * Lexes UTF-8 input that is already in memory at the byte level, such as a small file read
+     * with {@link #readFully(FileChannel)}
+     * @param input The UTF-8 input, from its position to its limit
+     * @param consumer Receives each token, whose lexeme is only valid while the buffer is
+     * @throws LexicalException If no rule matches at some position of the input
+     * @throws IllegalStateException If this lexer has no {@link Utf8Lexer}
+     */
+    public void lexUtf8(ByteBuffer input, Consumer<Utf8Token> consumer) {
+        checkUtf8();
+        utf8.lex(input, consumer);
+    }
+
+    private void checkUtf8() {
+        if(getUtf8Lexer() == null) {
+            throw new IllegalStateException("UTF-8 input can only be lexed at the byte level by a DFA");
+        }
+    }
+
+    /**
+     * Lexes the bytes of one mapped window
+     */
+    private interface WindowLexer {
+
+        /**
+         * @return The index after the last byte consumed
+         */
+        int lex(ByteBuffer window, int length, long base, boolean partial);
+    }
+}
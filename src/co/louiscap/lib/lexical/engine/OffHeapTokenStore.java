@@ -0,0 +1,317 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores tokens outside the Java heap, so that lexing inputs with billions of tokens doesn't put
+ * the garbage collector under pressure. Each token is a 16 byte record of its type, length and
+ * start, written to segments that are either direct buffers or pages of a memory mapped temporary
+ * file. The only heap used is the list of segments, which grows by one reference for every
+ * million tokens.
+ * <p>
+ * Stores are filled as {@link TokenSink}s, for example by
+ * {@link MappedLexer#lexUtf8(java.nio.channels.FileChannel, OffHeapTokenStore)}, and read back
+ * through a {@link Cursor}. Their memory is released, and their file deleted, by {@link #close()}
+ * rather than by the garbage collector. Neither they nor their cursors can be used after that;
+ * doing so throws an {@link IllegalStateException} rather than reading freed memory. Instances
+ * must not be shared between threads while they are being filled.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class OffHeapTokenStore implements TokenSink, Closeable {
+
+    private static final int RECORD_BYTES = 16;
+    private static final int SEGMENT_BITS = 20;
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_BITS;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_BYTES;
+
+    private final FileChannel file;
+    private ByteBuffer[] segments = new ByteBuffer[8];
+    private long size;
+    private long base;
+    private boolean closed;
+
+    private OffHeapTokenStore(FileChannel file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a store backed by direct buffers
+     * @return A new, empty store
+     */
+    public static OffHeapTokenStore direct() {
+        return new OffHeapTokenStore(null);
+    }
+
+    /**
+     * Creates a store backed by a memory mapped temporary file, which is deleted by the time the
+     * store is closed. Its pages are written back to the file by the operating system as memory
+     * runs low, so the store isn't limited by the memory available.
+     * @param directory The directory to create the file in
+     * @return A new, empty store
+     * @throws IOException If the file can't be created
+     */
+    public static OffHeapTokenStore mapped(Path directory) throws IOException {
+        Path path = Files.createTempFile(directory, "tokens", ".bin");
+        return new OffHeapTokenStore(FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Sets the offset added to the positions of tokens passed to
+     * {@link #onToken(int, int, int)}, for inputs that are lexed in windows whose positions start
+     * from 0
+     * @param base The offset of position 0 from the start of the whole input
+     */
+    public void setBase(long base) {
+        this.base = base;
+    }
+
+    @Override
+    public void onToken(int type, int start, int end) {
+        add(type, base + start, end - start);
+    }
+
+    /**
+     * Adds a token
+     * @param type The id of the token's type, as numbered by {@link RuleSet#getTokenTypes()}
+     * @param start The offset of the token from the start of the input
+     * @param length The length of the token
+     */
+    public void add(int type, long start, int length) {
+        checkOpen();
+        int segment = (int) (size >>> SEGMENT_BITS);
+        int offset = (int) (size & (SEGMENT_RECORDS - 1)) * RECORD_BYTES;
+        if(offset == 0 && (segment == segments.length || segments[segment] == null)) {
+            addSegment(segment);
+        }
+        ByteBuffer records = segments[segment];
+        records.putInt(offset, type);
+        records.putInt(offset + 4, length);
+        records.putLong(offset + 8, start);
+        size++;
+    }
+
+    private void addSegment(int segment) {
+        if(segment == segments.length) {
+            segments = Arrays.copyOf(segments, segment * 2);
+        }
+        ByteBuffer records;
+        if(file == null) {
+            records = ByteBuffer.allocateDirect((int) SEGMENT_BYTES);
+        } else {
+            try {
+                records = file.map(FileChannel.MapMode.READ_WRITE, segment * SEGMENT_BYTES,
+                                   SEGMENT_BYTES);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        segments[segment] = records.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Gets the number of tokens stored
+     * @return The number of tokens
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Creates a cursor positioned before the first token
+     * @return A new cursor, which sees tokens added after it was created
+     */
+    public Cursor cursor() {
+        checkOpen();
+        return new Cursor();
+    }
+
+    /**
+     * Releases the memory and file holding the tokens
+     * @throws IOException If the temporary file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < segments.length; i++) {
+            if(segments[i] != null) {
+                release(segments[i]);
+                segments[i] = null;
+            }
+        }
+        if(file != null) {
+            file.close();
+        }
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("The token store has been closed");
+        }
+    }
+
+    /**
+     * Frees a direct or mapped buffer straight away where the runtime allows it, leaving it to the
+     * garbage collector otherwise. The buffer must not be used afterwards.
+     */
+    private static void release(ByteBuffer buffer) {
+        try {
+            // Java 9 onwards
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Not available, so try the Java 8 way
+        }
+        try {
+            Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object clean = cleaner.invoke(buffer);
+            if(clean != null) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // The garbage collector will release it instead
+        }
+    }
+
+    /**
+     * Reads the tokens of a store in order, or from any index, without allocating. A cursor starts
+     * before the first token; {@link #next()} moves it onto each token in turn.
+     */
+    public final class Cursor {
+
+        private long index = -1;
+        private ByteBuffer records;
+        private int offset;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next token
+         * @return True if there was another token, false if the cursor is at the end
+         * @throws IllegalStateException If the store has been closed
+         */
+        public boolean next() {
+            checkOpen();
+            if(index + 1 >= size) {
+                return false;
+            }
+            seek(index + 1);
+            return true;
+        }
+
+        /**
+         * Moves to a token
+         * @param index The index of the token
+         * @throws IndexOutOfBoundsException If there is no such token
+         * @throws IllegalStateException If the store has been closed
+         */
+        public void seek(long index) {
+            checkOpen();
+            if(index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Token " + index + " of " + size);
+            }
+            this.index = index;
+            records = segments[(int) (index >>> SEGMENT_BITS)];
+            offset = (int) (index & (SEGMENT_RECORDS - 1)) * RECORD_BYTES;
+        }
+
+        /**
+         * Gets the index of the current token
+         * @return The index, or -1 before the first call to {@link #next()}
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the type of the current token
+         * @return The id of the type in the {@link TokenTypes} of the rules the tokens were lexed
+         * with
+         */
+        public int getType() {
+            return current().getInt(offset);
+        }
+
+        /**
+         * Gets the length of the current token
+         * @return The number of characters, or bytes for byte input, in the token
+         */
+        public int getLength() {
+            return current().getInt(offset + 4);
+        }
+
+        /**
+         * Gets the position of the current token
+         * @return The offset of the token from the start of the input
+         */
+        public long getStart() {
+            return current().getLong(offset + 8);
+        }
+
+        /**
+         * Gets the position after the current token
+         * @return The offset after the token from the start of the input
+         */
+        public long getEnd() {
+            return getStart() + getLength();
+        }
+
+        private ByteBuffer current() {
+            if(records == null) {
+                throw new NoSuchElementException("The cursor isn't on a token");
+            }
+            checkOpen();
+            return records;
+        }
+    }
+}
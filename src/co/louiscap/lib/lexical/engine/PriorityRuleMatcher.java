@@ -0,0 +1,168 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.automata.PikeVm;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * Matches a {@link RuleSet} by trying each rule in priority order and keeping the longest match.
+ * A {@link DispatchTable} narrows the rules tried at each position down to those that can start
+ * with the character found there, and a {@link LiteralPrefilter} skips rules whose required
+ * literal (such as the {@code 0x} of a hexadecimal number) isn't where a match would need it.
+ * Rules that are nothing but literal strings, such as keywords and operators, are all matched at
+ * once by a {@link KeywordTrie} instead of being tried one at a time.
+ * Rules with a linear time program are run on a {@link PikeVm}, which finds the longest match of
+ * each rule just as a DFA would, so for those rules this matcher gives the same results as the
+ * automaton based ones and no rule can take more than O(n&middot;m) time. Only rules flagged as
+ * needing backtracking use their {@link java.util.regex.Pattern}, through a {@link Matcher} that
+ * is created once per rule and then moved over the input by setting its region, so no part of the
+ * input is ever copied. Such a rule is matched by {@link Matcher#lookingAt()}, which takes the
+ * first match its alternatives and quantifiers lead to rather than the longest, so
+ * {@code (?=\w)(int|integer)} matches only {@code "int"} of {@code "integer"}.
+ * <p>
+ * This is slower than the automaton based matchers when there are many rules, but accepts every
+ * rule. Instances hold scratch space and must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class PriorityRuleMatcher implements RuleMatcher {
+
+    private final RuleSet rules;
+    private final PikeVm vm;
+    private final DispatchTable dispatch;
+    private final LiteralPrefilter prefilter;
+    private final KeywordTrie keywords;
+    private final Matcher[] matchers;
+    private final CharSequence[] bound;
+    private boolean hitEnd;
+
+    public PriorityRuleMatcher(RuleSet rules) {
+        this.rules = rules;
+        this.keywords = KeywordTrie.of(rules);
+        this.matchers = new Matcher[rules.size()];
+        this.bound = new CharSequence[rules.size()];
+        this.dispatch = keywords == null ? new DispatchTable(rules)
+                : new DispatchTable(rules, keywords.getHandled());
+        this.prefilter = LiteralPrefilter.of(rules);
+        int largest = 1;
+        for (LexicalRule rule : rules) {
+            if(rule.isLinear()) {
+                largest = Math.max(largest, rule.getProgram().getStateCount());
+            }
+        }
+        this.vm = new PikeVm(largest);
+    }
+
+    @Override
+    public long match(CharSequence input, int start, int end) {
+        return match(input, start, end, false);
+    }
+
+    @Override
+    public long matchPrefix(CharSequence input, int start, int end) {
+        return match(input, start, end, true);
+    }
+
+    private long match(CharSequence input, int start, int end, boolean partial) {
+        if(start >= end) {
+            return partial ? NEED_INPUT : NO_MATCH;
+        }
+        hitEnd = false;
+        if(prefilter != null) {
+            prefilter.advance(input, start, end);
+        }
+        int bestRule = -1, bestEnd = start;
+        if(keywords != null) {
+            long keyword = keywords.match(input, start, end);
+            if(keyword != NO_MATCH) {
+                bestRule = RuleMatcher.ruleOf(keyword);
+                bestEnd = RuleMatcher.endOf(keyword);
+            }
+            hitEnd = partial && keywords.continuesPast(input, start, end);
+        }
+        for (int i : dispatch.candidates(input.charAt(start))) {
+            if(prefilter != null && !prefilter.allows(i, start)) {
+                hitEnd |= partial && start + prefilter.getSpan(i) > end;
+                continue;
+            }
+            int ruleEnd = matchRule(i, input, start, end);
+            if(ruleEnd > bestEnd || (ruleEnd == bestEnd && i < bestRule)) {
+                bestRule = i;
+                bestEnd = ruleEnd;
+            }
+        }
+        if(partial && hitEnd) {
+            return NEED_INPUT;
+        }
+        return bestRule < 0 ? NO_MATCH : RuleMatcher.pack(bestRule, bestEnd);
+    }
+
+    @Override
+    public Map<String, Number> getStatistics() {
+        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+        stats.put("rules", rules.size());
+        stats.put("dispatch.averageCandidates", dispatch.getAverageDirectCandidates());
+        stats.put("keywords.rules", keywords == null ? 0 : keywords.getRuleCount());
+        stats.put("keywords.words", keywords == null ? 0 : keywords.getWordCount());
+        stats.put("prefilter.literals", prefilter == null ? 0 : prefilter.getLiteralCount());
+        stats.put("prefilter.skipped", prefilter == null ? 0 : prefilter.getSkipped());
+        return stats;
+    }
+
+    /**
+     * Matches a single rule at a position
+     * @return The end of the match, or -1
+     */
+    private int matchRule(int index, CharSequence input, int start, int end) {
+        LexicalRule rule = rules.get(index);
+        Nfa program = rule.getProgram();
+        if(program != null) {
+            int ruleEnd = vm.match(program, program.getRuleStart(0), input, start, end);
+            hitEnd |= vm.hitEnd();
+            return ruleEnd;
+        }
+        Matcher m = matchers[index];
+        if(m == null) {
+            m = matchers[index] = rule.getPattern().matcher(input);
+            bound[index] = input;
+        } else if(bound[index] != input) {
+            m.reset(input);
+            bound[index] = input;
+        }
+        m.region(start, end);
+        boolean found = m.lookingAt();
+        hitEnd |= m.hitEnd();
+        return found ? m.end() : -1;
+    }
+}
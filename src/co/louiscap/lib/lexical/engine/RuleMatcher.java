@@ -0,0 +1,115 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Finds the rule that matches the input at a given position. Implementations use longest-match
+ * semantics: of every rule that can match at the position, the one consuming the most input wins,
+ * and ties are broken by rule priority. Empty matches are never reported. The one exception is a
+ * rule that needs a backtracking matcher, which only {@link PriorityRuleMatcher} accepts: such a
+ * rule matches whatever {@link java.util.regex.Matcher#lookingAt()} finds for it, which can be
+ * shorter than the longest input it could match.
+ * <p>
+ * Results are packed into a single long so that matching never allocates; use
+ * {@link #ruleOf(long)} and {@link #endOf(long)} to unpack them.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public interface RuleMatcher {
+
+    /**
+     * Returned by {@link #match(java.lang.CharSequence, int, int)} when no rule matches
+     */
+    long NO_MATCH = -1L;
+
+    /**
+     * Returned by {@link #matchPrefix(java.lang.CharSequence, int, int)} when the result depends
+     * on input that hasn't been read yet
+     */
+    long NEED_INPUT = -2L;
+
+    /**
+     * Finds the longest match starting at a position
+     * @param input The text being lexed
+     * @param start The index of the first character of the token
+     * @param end The index after the last character that may be consumed
+     * @return A packed match, or {@link #NO_MATCH}
+     */
+    long match(CharSequence input, int start, int end);
+
+    /**
+     * Finds the longest match starting at a position in input that continues past the end of
+     * what is available, such as a buffer that is being filled from a stream
+     * @param input The text being lexed
+     * @param start The index of the first character of the token
+     * @param end The index after the last character available
+     * @return A packed match, {@link #NO_MATCH}, or {@link #NEED_INPUT} if reading past the end
+     * could lead to a different result
+     */
+    long matchPrefix(CharSequence input, int start, int end);
+
+    /**
+     * Reports implementation specific statistics, such as cache behaviour
+     * @return A map of statistic names to their current values, which is empty by default
+     */
+    default Map<String, Number> getStatistics() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Packs a match result
+     * @param rule The index of the matching rule in its {@link RuleSet}
+     * @param end The index after the last character of the match
+     * @return The packed result
+     */
+    static long pack(int rule, int end) {
+        return ((long) rule << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the rule from a packed match
+     * @param match A result of {@link #match(java.lang.CharSequence, int, int)}
+     * @return The index of the matching rule
+     */
+    static int ruleOf(long match) {
+        return (int) (match >>> 32);
+    }
+
+    /**
+     * Gets the end of the match from a packed match
+     * @param match A result of {@link #match(java.lang.CharSequence, int, int)}
+     * @return The index after the last character of the match
+     */
+    static int endOf(long match) {
+        return (int) match;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.io.LexicalFile;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import co.louiscap.lib.lexical.regex.RegexNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable, priority ordered collection of rules. Rules are sorted with
+ * {@link LexicalRule#compareTo(co.louiscap.lib.lexical.io.LexicalRule)}, and rules of equal priority
+ * keep the order they were declared in, so a lower index always means a higher priority. Matchers
+ * identify rules by their index in this set.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class RuleSet implements Iterable<LexicalRule> {
+
+    private final LexicalRule[] rules;
+    private final boolean[] skipped;
+    private final TokenTypes types;
+
+    public RuleSet(Collection<LexicalRule> rules) {
+        this.rules = rules.toArray(new LexicalRule[rules.size()]);
+        Arrays.sort(this.rules);
+        this.skipped = new boolean[this.rules.length];
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = this.rules[i].isSkipped();
+        }
+        this.types = new TokenTypes(this);
+    }
+
+    /**
+     * Combines the rules of several lexical files into one set
+     * @param files The files to take rules from
+     * @return A new RuleSet
+     */
+    public static RuleSet fromFiles(Collection<LexicalFile> files) {
+        ArrayList<LexicalRule> all = new ArrayList<>();
+        files.forEach(f -> all.addAll(f.getRules()));
+        return new RuleSet(all);
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public LexicalRule get(int index) {
+        return rules[index];
+    }
+
+    /**
+     * Checks whether a rule consumes its input without producing a token, without going through
+     * the rule itself
+     * @param index The index of the rule
+     * @return True if the rule is skipped
+     * @see LexicalRule#isSkipped()
+     */
+    public boolean isSkipped(int index) {
+        return skipped[index];
+    }
+
+    /**
+     * Gets the ids of the token types the rules produce
+     * @return The token types, numbered when this set was created
+     */
+    public TokenTypes getTokenTypes() {
+        return types;
+    }
+
+    /**
+     * Parses every rule into a syntax tree for automaton construction
+     * @return The syntax trees, in rule order
+     * @throws co.louiscap.lib.lexical.regex.UnsupportedRegexException If any rule can't be
+     * represented as a finite automaton
+     */
+    public List<RegexNode> parseAll() {
+        ArrayList<RegexNode> syntax = new ArrayList<>(rules.length);
+        for (LexicalRule rule : rules) {
+            syntax.add(rule.getSyntax());
+        }
+        return syntax;
+    }
+
+    /**
+     * Checks whether every rule can be compiled into a finite automaton
+     * @return True if no rule needs a backtracking matcher
+     */
+    public boolean isLinear() {
+        for (LexicalRule rule : rules) {
+            if(!rule.isLinear()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<LexicalRule> iterator() {
+        return Collections.unmodifiableList(Arrays.asList(rules)).iterator();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles generated source in memory with the platform's Java compiler and defines the result in
+ * a class loader of its own, so generated classes never clash with each other and are unloaded
+ * along with the last of their instances. Only available when running on a JDK.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+final class RuntimeCompiler {
+
+    private RuntimeCompiler() {
+    }
+
+    /**
+     * Compiles and loads a class in the default package
+     * @param className The simple name of the class
+     * @param source The source code of the class, which may use this library's classes
+     * @return The loaded class
+     * @throws IllegalStateException If there is no compiler or the source doesn't compile
+     */
+    static Class<?> compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null) {
+            throw new IllegalStateException("No Java compiler is available at runtime");
+        }
+        HashMap<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name.replace('.', '/')
+                                                           + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject input = new SimpleJavaFileObject(URI.create("string:///" + className
+                                                        + JavaFileObject.Kind.SOURCE.extension),
+                                                        JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        // Collected rather than printed, as a failure is handled by the caller
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Boolean compiled = compiler.getTask(null, files, diagnostics,
+                Arrays.asList("-classpath", classPath(), "-proc:none", "-g:none", "-nowarn"),
+                null, Arrays.asList(input)).call();
+        if(!compiled || !classes.containsKey(className)) {
+            throw new IllegalStateException("Generated class " + className + " failed to compile: "
+                                            + diagnostics.getDiagnostics());
+        }
+        try {
+            return new GeneratedClassLoader(classes).loadClass(className);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Generated class " + className + " failed to load", ex);
+        }
+    }
+
+    /**
+     * Finds the classpath that holds this library, which may have been loaded from somewhere
+     * other than the application classpath
+     */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path", "");
+        CodeSource library = RuntimeCompiler.class.getProtectionDomain().getCodeSource();
+        if(library != null) {
+            try {
+                path = new File(library.getLocation().toURI()).getPath() + File.pathSeparator + path;
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                // Not a file, so rely on the application classpath
+            }
+        }
+        return path;
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        private final Map<String, ByteArrayOutputStream> classes;
+
+        GeneratedClassLoader(Map<String, ByteArrayOutputStream> classes) {
+            super(RuntimeCompiler.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ByteArrayOutputStream bytes = classes.get(name);
+            if(bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] code = bytes.toByteArray();
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+}
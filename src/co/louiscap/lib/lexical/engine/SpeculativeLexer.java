@@ -0,0 +1,190 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lexes a large input in parallel by splitting it into chunks and lexing every chunk at once, each
+ * from the guess that a token starts exactly where the chunk does. The chunks are then stitched
+ * together in order: where the previous chunk's last token really ends, the chunk's own tokens are
+ * searched for a token starting at the same position. Lexing only depends on where a token
+ * starts, so from that point on the speculative tokens are the true ones. If there is no such
+ * token the input is re-lexed sequentially from the true position until it lands on a boundary
+ * the chunk also found, which for most languages happens within a token or two. The chunks only
+ * record the positions of their tokens, and the token objects for the true ones are created on the
+ * pool once they are known.
+ * <p>
+ * Matchers are created through a supplier, once per thread, so matchers that aren't thread safe
+ * can be used. Instances can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class SpeculativeLexer implements ParallelLexer {
+
+    /**
+     * The default smallest number of chars worth lexing as a separate chunk
+     */
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The number of chunks given to each thread of the pool, so that threads that finish early
+     * can take work from slower ones
+     */
+    public static final int CHUNKS_PER_THREAD = 4;
+
+    private final RuleSet rules;
+    private final ThreadLocal<RuleMatcher> matchers;
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+    private final AtomicLong chunkCount = new AtomicLong();
+    private final AtomicLong resyncCount = new AtomicLong();
+    private final AtomicLong relexedChars = new AtomicLong();
+
+    /**
+     * Creates a parallel lexer
+     * @param rules The rules to lex with
+     * @param matchers Creates a matcher for the rules; called once for each thread that lexes
+     * @param pool The pool to lex chunks on
+     */
+    public SpeculativeLexer(RuleSet rules, Supplier<RuleMatcher> matchers, ForkJoinPool pool) {
+        this(rules, matchers, pool, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a parallel lexer
+     * @param rules The rules to lex with
+     * @param matchers Creates a matcher for the rules; called once for each thread that lexes
+     * @param pool The pool to lex chunks on
+     * @param minChunkSize The smallest number of chars to lex as a separate chunk; inputs shorter
+     * than twice this are lexed in one piece
+     */
+    public SpeculativeLexer(RuleSet rules, Supplier<RuleMatcher> matchers, ForkJoinPool pool,
+            int minChunkSize) {
+        if(minChunkSize < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one char");
+        }
+        this.rules = rules;
+        this.matchers = ThreadLocal.withInitial(matchers);
+        this.pool = pool;
+        this.minChunkSize = minChunkSize;
+    }
+
+    @Override
+    public List<LexicalToken<String>> lex(CharSequence input) {
+        int length = input.length();
+        int count = Math.max(1, Math.min(pool.getParallelism() * CHUNKS_PER_THREAD,
+                                         length / minChunkSize));
+        int[] bounds = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = (int) ((long) length * i / count);
+        }
+        ArrayList<ForkJoinTask<TokenSpans>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = bounds[i], end = bounds[i + 1];
+            tasks.add(pool.submit(() -> lexChunk(input, start, end)));
+        }
+        chunkCount.addAndGet(count);
+
+        // The true tokens are the tails of the chunks, from where each one resynchronised, with
+        // any re-lexed tokens in between
+        ArrayList<TokenSpans> pieces = new ArrayList<>(count * 2);
+        ArrayList<int[]> ranges = new ArrayList<>(count * 2);
+        RuleMatcher matcher = matchers.get();
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            TokenSpans chunk = tasks.get(i).join();
+            if(pos >= bounds[i + 1]) {
+                // Re-lexing the previous chunk ran past the whole of this one
+                continue;
+            }
+            int index = chunk.indexOfStart(pos);
+            if(index < 0) {
+                resyncCount.incrementAndGet();
+                TokenSpans relexed = new TokenSpans(16);
+                int from = pos;
+                while (index < 0 && pos < bounds[i + 1]) {
+                    pos = relexed.lexOne(matcher, input, pos, length);
+                    index = chunk.indexOfStart(pos);
+                }
+                relexedChars.addAndGet(pos - from);
+                pieces.add(relexed);
+                ranges.add(new int[] {0, relexed.size});
+                if(index < 0) {
+                    continue;
+                }
+            }
+            pieces.add(chunk);
+            ranges.add(new int[] {index, chunk.size});
+            if(chunk.errorAt >= 0) {
+                throw new LexicalException("No rule matches the input at offset " + chunk.errorAt,
+                                           chunk.errorAt);
+            }
+            pos = chunk.size > 0 ? chunk.ends[chunk.size - 1] : pos;
+        }
+
+        return TokenSpans.toTokens(pieces, ranges, rules, input, pool);
+    }
+
+    /**
+     * Lexes from the start of a chunk until the end of a token reaches the end of the chunk, or no
+     * rule matches
+     */
+    private TokenSpans lexChunk(CharSequence input, int start, int end) {
+        RuleMatcher matcher = matchers.get();
+        TokenSpans spans = new TokenSpans(Math.max(16, (end - start) / 8));
+        int pos = start, length = input.length();
+        try {
+            while (pos < end) {
+                pos = spans.lexOne(matcher, input, pos, length);
+            }
+        } catch (LexicalException ex) {
+            spans.errorAt = (int) ex.getOffset();
+        }
+        return spans;
+    }
+
+    @Override
+    public Map<String, Number> getStatistics() {
+        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+        stats.put("parallel.threads", pool.getParallelism());
+        stats.put("parallel.chunks", chunkCount.get());
+        stats.put("parallel.resyncs", resyncCount.get());
+        stats.put("parallel.relexedChars", relexedChars.get());
+        return stats;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.automata.Dfa;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lexes a large input in parallel without guessing, by describing what each chunk does for every
+ * state the lexer could be in where the chunk starts. Between chunks, the lexer is either about to
+ * start a token or part way through one, in some state of the {@link Dfa}. Each chunk runs the
+ * automaton from all of its states at once, in lock step, to find where the token in progress
+ * would end from each state; states that reach the same configuration are merged, which usually
+ * happens within a few chars. The chunk is then lexed from each distinct place a token could start
+ * at, with runs that reach a token boundary already found joining the earlier run there.
+ * <p>
+ * The result for every chunk is a mapping from the lexer state at its start to the tokens it holds
+ * and the lexer state at its end. Composing the mappings in order from the known state at the
+ * start of the input picks out the true tokens of every chunk exactly, so nothing is ever re-lexed.
+ * Only then are the token objects created, again one task for each run on the pool. This suits rule sets with few DFA states, where the cost of following every state is small.
+ * <p>
+ * Instances can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class StateMappingLexer implements ParallelLexer {
+
+    /**
+     * The lexer state between tokens, used in place of a DFA state
+     */
+    private static final int BETWEEN_TOKENS = -1;
+
+    private final RuleSet rules;
+    private final DfaMatcher matcher;
+    private final Dfa dfa;
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+    private final AtomicLong chunkCount = new AtomicLong();
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong mergedStates = new AtomicLong();
+
+    /**
+     * Creates a parallel lexer
+     * @param rules The rules to lex with
+     * @param matcher The compiled rules
+     * @param pool The pool to lex chunks on
+     */
+    public StateMappingLexer(RuleSet rules, DfaMatcher matcher, ForkJoinPool pool) {
+        this(rules, matcher, pool, SpeculativeLexer.DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a parallel lexer
+     * @param rules The rules to lex with
+     * @param matcher The compiled rules
+     * @param pool The pool to lex chunks on
+     * @param minChunkSize The smallest number of chars to lex as a separate chunk; inputs shorter
+     * than twice this are lexed in one piece
+     */
+    public StateMappingLexer(RuleSet rules, DfaMatcher matcher, ForkJoinPool pool,
+            int minChunkSize) {
+        if(minChunkSize < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one char");
+        }
+        this.rules = rules;
+        this.matcher = matcher;
+        this.dfa = matcher.getDfa();
+        this.pool = pool;
+        this.minChunkSize = minChunkSize;
+    }
+
+    @Override
+    public List<LexicalToken<String>> lex(CharSequence input) {
+        int length = input.length();
+        int count = Math.max(1, Math.min(pool.getParallelism() * SpeculativeLexer.CHUNKS_PER_THREAD,
+                                         length / minChunkSize));
+        ArrayList<ForkJoinTask<ChunkMap>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = (int) ((long) length * i / count);
+            int end = (int) ((long) length * (i + 1) / count);
+            boolean first = i == 0;
+            tasks.add(pool.submit(() -> mapChunk(input, start, end, first)));
+        }
+        chunkCount.addAndGet(count);
+
+        // Tokens that cross from one chunk into another belong to no run, so are kept here
+        TokenSpans crossing = new TokenSpans(Math.max(16, count));
+        ArrayList<TokenSpans> pieces = new ArrayList<>();
+        ArrayList<int[]> ranges = new ArrayList<>();
+        int tokenStart = 0, state = BETWEEN_TOKENS;
+        for (int i = 0; i < count; i++) {
+            ChunkMap chunk = tasks.get(i).join();
+            int runStart = chunk.start;
+            if(state != BETWEEN_TOKENS) {
+                int tokenEnd = chunk.tokenEnds[state];
+                if(tokenEnd < 0) {
+                    throw new LexicalException("No rule matches the input at offset " + tokenStart,
+                                               tokenStart);
+                }
+                if(tokenEnd > chunk.end) {
+                    // The token crosses this whole chunk too
+                    state = chunk.statesAtEnd[state];
+                    continue;
+                }
+                crossing.add(tokenStart, tokenEnd, chunk.tokenRules[state]);
+                pieces.add(crossing);
+                ranges.add(new int[] {crossing.size - 1, crossing.size});
+                if(tokenEnd == chunk.end) {
+                    tokenStart = tokenEnd;
+                    state = BETWEEN_TOKENS;
+                    continue;
+                }
+                runStart = tokenEnd;
+            }
+            Run run = chunk.runAt(runStart);
+            int from = 0;
+            while (true) {
+                pieces.add(run.spans);
+                ranges.add(new int[] {from, run.spans.size});
+                if(run.spans.errorAt >= 0) {
+                    throw new LexicalException("No rule matches the input at offset "
+                            + run.spans.errorAt, run.spans.errorAt);
+                }
+                if(run.joins == null) {
+                    break;
+                }
+                from = run.joinIndex;
+                run = run.joins;
+            }
+            tokenStart = run.exitStart;
+            state = run.exitState;
+        }
+
+        return TokenSpans.toTokens(pieces, ranges, rules, input, pool);
+    }
+
+    /**
+     * Works out the tokens of a chunk for every state the lexer could be in at its start
+     */
+    private ChunkMap mapChunk(CharSequence input, int start, int end, boolean first) {
+        ChunkMap chunk = new ChunkMap(start, end);
+        int[] runStarts;
+        if(first) {
+            runStarts = new int[] {start};
+        } else {
+            resolveEntryStates(chunk, input);
+            runStarts = new int[chunk.tokenEnds.length + 1];
+            runStarts[0] = start;
+            int n = 1;
+            for (int tokenEnd : chunk.tokenEnds) {
+                if(tokenEnd >= start && tokenEnd < end) {
+                    runStarts[n++] = tokenEnd;
+                }
+            }
+            Arrays.sort(runStarts, 0, n);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if(distinct == 0 || runStarts[distinct - 1] != runStarts[i]) {
+                    runStarts[distinct++] = runStarts[i];
+                }
+            }
+            runStarts = Arrays.copyOf(runStarts, distinct);
+        }
+        chunk.runStarts = runStarts;
+        chunk.runs = new Run[runStarts.length];
+        for (int i = 0; i < runStarts.length; i++) {
+            chunk.runs[i] = lexRun(chunk, input, runStarts[i], i);
+        }
+        runCount.addAndGet(runStarts.length);
+        return chunk;
+    }
+
+    /**
+     * Runs the automaton from every state at the start of a chunk until each one dies, recording
+     * where the token in progress ends. This may read past the end of the chunk for tokens that
+     * span it.
+     */
+    private void resolveEntryStates(ChunkMap chunk, CharSequence input) {
+        int states = dfa.getStateCount(), length = input.length();
+        int[] current = new int[states], lastEnd = new int[states], lastRule = new int[states];
+        int[] merged = new int[states], owner = new int[states], ownerStamp = new int[states];
+        int[] active = new int[states];
+        int[] tokenEnds = new int[states], tokenRules = new int[states], statesAtEnd = new int[states];
+        Arrays.fill(merged, -1);
+        Arrays.fill(statesAtEnd, -1);
+        Arrays.fill(tokenEnds, -1);
+        int count = 0;
+        for (int q = 0; q < states; q++) {
+            if(q == Dfa.DEAD) {
+                continue;
+            }
+            current[q] = q;
+            lastRule[q] = dfa.getAcceptingRule(q);
+            lastEnd[q] = lastRule[q] >= 0 ? chunk.start : -1;
+            active[count++] = q;
+        }
+        int stamp = 0;
+        long merges = 0;
+        for (int pos = chunk.start; count > 0 && pos < length; pos++) {
+            char c = input.charAt(pos);
+            stamp++;
+            int kept = 0;
+            for (int k = 0; k < count; k++) {
+                int q = active[k];
+                int next = dfa.step(current[q], c);
+                if(next == Dfa.DEAD) {
+                    tokenEnds[q] = lastEnd[q];
+                    tokenRules[q] = lastRule[q];
+                    continue;
+                }
+                int rule = dfa.getAcceptingRule(next);
+                if(rule >= 0) {
+                    lastEnd[q] = pos + 1;
+                    lastRule[q] = rule;
+                }
+                current[q] = next;
+                if(pos + 1 == chunk.end) {
+                    statesAtEnd[q] = next;
+                }
+                if(ownerStamp[next] == stamp) {
+                    int o = owner[next];
+                    if(lastEnd[o] == lastEnd[q] && lastRule[o] == lastRule[q]) {
+                        // Same automaton state and same fallback match, so the same future
+                        merged[q] = o;
+                        merges++;
+                        continue;
+                    }
+                } else {
+                    ownerStamp[next] = stamp;
+                    owner[next] = q;
+                }
+                active[kept++] = q;
+            }
+            count = kept;
+        }
+        for (int k = 0; k < count; k++) {
+            int q = active[k];
+            tokenEnds[q] = lastEnd[q];
+            tokenRules[q] = lastRule[q];
+        }
+        for (int q = 0; q < states; q++) {
+            int root = q;
+            while (merged[root] >= 0) {
+                root = merged[root];
+                if(statesAtEnd[q] < 0) {
+                    statesAtEnd[q] = statesAtEnd[root];
+                }
+            }
+            tokenEnds[q] = tokenEnds[root];
+            tokenRules[q] = tokenRules[root];
+        }
+        mergedStates.addAndGet(merges);
+        chunk.tokenEnds = tokenEnds;
+        chunk.tokenRules = tokenRules;
+        chunk.statesAtEnd = statesAtEnd;
+    }
+
+    /**
+     * Lexes the tokens that start in a chunk from a given position, stopping early where a token
+     * starts that an earlier run already found
+     */
+    private Run lexRun(ChunkMap chunk, CharSequence input, int start, int index) {
+        Run run = new Run(new TokenSpans(index == 0 ? Math.max(16, (chunk.end - start) / 8) : 16));
+        int pos = start, length = input.length();
+        while (pos < chunk.end) {
+            long match = matcher.match(input, pos, length);
+            if(match == RuleMatcher.NO_MATCH) {
+                run.spans.errorAt = pos;
+                return run;
+            }
+            int end = RuleMatcher.endOf(match);
+            if(end > chunk.end) {
+                // The token crosses into the next chunk, which will find where it ends
+                int state = dfa.getStartState();
+                for (int i = pos; i < chunk.end; i++) {
+                    state = dfa.step(state, input.charAt(i));
+                }
+                run.exitStart = pos;
+                run.exitState = state;
+                return run;
+            }
+            run.spans.add(pos, end, RuleMatcher.ruleOf(match));
+            pos = end;
+            for (int i = 0; i < index; i++) {
+                int join = chunk.runs[i].spans.indexOfStart(pos);
+                if(join >= 0) {
+                    run.joins = chunk.runs[i];
+                    run.joinIndex = join;
+                    return run;
+                }
+            }
+        }
+        run.exitStart = pos;
+        run.exitState = BETWEEN_TOKENS;
+        return run;
+    }
+
+    @Override
+    public Map<String, Number> getStatistics() {
+        LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+        stats.put("parallel.threads", pool.getParallelism());
+        stats.put("parallel.chunks", chunkCount.get());
+        stats.put("parallel.dfaStates", dfa.getStateCount());
+        stats.put("parallel.runs", runCount.get());
+        stats.put("parallel.mergedStates", mergedStates.get());
+        return stats;
+    }
+
+    /**
+     * What a chunk does for each lexer state at its start
+     */
+    private static final class ChunkMap {
+
+        final int start;
+        final int end;
+
+        /**
+         * For each DFA state at the start, where the token in progress ends, or -1 if no rule
+         * matches it
+         */
+        int[] tokenEnds;
+        int[] tokenRules;
+
+        /**
+         * For each DFA state at the start whose token ends past the end of the chunk, the DFA
+         * state at the end
+         */
+        int[] statesAtEnd;
+
+        int[] runStarts;
+        Run[] runs;
+
+        ChunkMap(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        Run runAt(int start) {
+            return runs[Arrays.binarySearch(runStarts, start)];
+        }
+    }
+
+    /**
+     * The tokens lexed from one place a token could start in a chunk
+     */
+    private static final class Run {
+
+        final TokenSpans spans;
+
+        /**
+         * The run this one continues as, from the token at {@link #joinIndex}, or null
+         */
+        Run joins;
+        int joinIndex;
+
+        /**
+         * The start of the token in progress at the end of the chunk, and the DFA state it is in
+         * there, or {@link #BETWEEN_TOKENS}
+         */
+        int exitStart;
+        int exitState;
+
+        Run(TokenSpans spans) {
+            this.spans = spans;
+        }
+    }
+}
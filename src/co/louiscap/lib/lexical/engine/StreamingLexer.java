@@ -0,0 +1,232 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lexes input from a stream through a fixed size buffer, so memory use doesn't depend on the size
+ * of the input. Tokens may span any number of lines and may cross the point at which the buffer is
+ * refilled: whenever the {@link RuleMatcher} reports that a match depends on input that hasn't
+ * been read yet, the unconsumed part of the buffer is moved to the front and the rest is refilled
+ * before matching again. The only limit is that a single token must be shorter than the buffer.
+ * <p>
+ * Instances hold the buffer and must not be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class StreamingLexer {
+
+    /**
+     * The default buffer size, in chars
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final RuleSet rules;
+    private final RuleMatcher matcher;
+    private final char[] buffer;
+    private final CharBuffer view;
+
+    public StreamingLexer(Lexer lexer) {
+        this(lexer.getRules(), lexer.getMatcher(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a streaming lexer
+     * @param rules The rules matched by the matcher
+     * @param matcher The matcher to find tokens with
+     * @param bufferSize The size of the buffer in chars, which bounds the length of a token
+     */
+    public StreamingLexer(RuleSet rules, RuleMatcher matcher, int bufferSize) {
+        if(bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer must hold at least one char");
+        }
+        this.rules = rules;
+        this.matcher = matcher;
+        this.buffer = new char[bufferSize];
+        this.view = CharBuffer.wrap(buffer);
+    }
+
+    /**
+     * Lexes the bytes read from a channel until it reaches end of stream
+     * @param channel The channel to read from, which is not closed
+     * @param encoding The character encoding of the input
+     * @param consumer Receives each token as soon as it is complete
+     * @throws IOException If reading from the channel fails
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public void lex(ReadableByteChannel channel, Charset encoding,
+            Consumer<LexicalToken<String>> consumer) throws IOException {
+        lex(Channels.newReader(channel, encoding.newDecoder(), -1), consumer);
+    }
+
+    /**
+     * Lexes the characters read from a reader until it reaches end of stream
+     * @param reader The reader to read from, which is not closed
+     * @param consumer Receives each token as soon as it is complete
+     * @throws IOException If reading fails
+     * @throws LexicalException If no rule matches at some position of the input, or a token
+     * doesn't fit in the buffer
+     */
+    public void lex(Reader reader, Consumer<LexicalToken<String>> consumer) throws IOException {
+        Tokens tokens = new Tokens(reader, buffer, view);
+        LexicalToken<String> token;
+        while ((token = tokens.read()) != null) {
+            consumer.accept(token);
+        }
+    }
+
+    /**
+     * Lexes the characters read from a reader on demand. Nothing is read until the first token is
+     * asked for, and only as much is read as is needed for the tokens asked for, so a consumer
+     * that stops early never reads the rest of the input.
+     * <p>
+     * The iterator has a buffer of its own, so any number of them can be in use at once. Reading
+     * errors are thrown from {@link Iterator#hasNext()} as {@link UncheckedIOException}s, and
+     * lexing errors as {@link LexicalException}s.
+     * @param reader The reader to read from, which is not closed
+     * @return An iterator over the tokens of the input
+     */
+    public Iterator<LexicalToken<String>> iterator(Reader reader) {
+        char[] own = new char[buffer.length];
+        return new Tokens(reader, own, CharBuffer.wrap(own));
+    }
+
+    /**
+     * Lexes the characters read from a reader on demand, as described by
+     * {@link #iterator(java.io.Reader)}. Short circuiting operations such as
+     * {@link Stream#findFirst()} and {@link Stream#limit(long)} stop lexing as soon as they have
+     * what they need.
+     * @param reader The reader to read from, which is not closed
+     * @return A sequential, ordered stream of the tokens of the input
+     */
+    public Stream<LexicalToken<String>> stream(Reader reader) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                iterator(reader), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Pulls tokens from a reader through a buffer, refilling it whenever a match depends on input
+     * that hasn't been read yet
+     */
+    private final class Tokens implements Iterator<LexicalToken<String>> {
+
+        private final Reader reader;
+        private final char[] buffer;
+        private final CharBuffer view;
+        private long base;
+        private int pos;
+        private int limit;
+        private boolean eof;
+        private LexicalToken<String> next;
+
+        Tokens(Reader reader, char[] buffer, CharBuffer view) {
+            this.reader = reader;
+            this.buffer = buffer;
+            this.view = view;
+        }
+
+        /**
+         * Lexes the next token that isn't skipped
+         * @return The token, or null at the end of the input
+         */
+        LexicalToken<String> read() throws IOException {
+            while (!eof || pos < limit) {
+                long match = eof ? matcher.match(view, pos, limit) : matcher.matchPrefix(view, pos, limit);
+                if(match == RuleMatcher.NEED_INPUT) {
+                    if(pos == 0 && limit == buffer.length) {
+                        throw new LexicalException("A token starting at offset " + base
+                                + " doesn't fit in the buffer of " + buffer.length + " chars", base);
+                    }
+                    System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+                    base += pos;
+                    limit -= pos;
+                    pos = 0;
+                    while (limit < buffer.length) {
+                        int read = reader.read(buffer, limit, buffer.length - limit);
+                        if(read < 0) {
+                            eof = true;
+                            break;
+                        }
+                        limit += read;
+                    }
+                    continue;
+                }
+                if(match == RuleMatcher.NO_MATCH) {
+                    throw new LexicalException("No rule matches the input at offset " + (base + pos), base + pos);
+                }
+                int start = pos;
+                pos = RuleMatcher.endOf(match);
+                LexicalRule rule = rules.get(RuleMatcher.ruleOf(match));
+                if(!rule.isSkipped()) {
+                    return new LexicalToken<>(rule.getTokenName(), rule.getNamespace(),
+                                              new String(buffer, start, pos - start));
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null) {
+                try {
+                    next = read();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public LexicalToken<String> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LexicalToken<String> token = next;
+            next = null;
+            return token;
+        }
+    }
+}
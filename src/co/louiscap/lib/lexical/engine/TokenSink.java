@@ -0,0 +1,64 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.util.function.Consumer;
+
+/**
+ * Receives tokens as plain numbers, so that lexing allocates nothing for each token. A token is
+ * identified by its type id in the {@link TokenTypes} of the {@link RuleSet} and its position
+ * in the input; its text is only ever created if the sink asks the input for it. Tokens of skipped
+ * rules have no type and are never passed to a sink.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public interface TokenSink {
+
+    /**
+     * Called for each token, in input order
+     * @param type The id of the token's type, as numbered by {@link RuleSet#getTokenTypes()}
+     * @param start The index of the first character (or byte, for byte level lexers) of the token
+     * @param end The index after the last character of the token
+     */
+    void onToken(int type, int start, int end);
+
+    /**
+     * Creates a sink that turns each token into a {@link LexicalToken}
+     * @param rules The rules whose token types the type ids refer to
+     * @param input The text the token's positions refer to
+     * @param consumer Receives each token, with the text it matched as its value
+     * @return A new sink
+     */
+    static TokenSink of(RuleSet rules, CharSequence input, Consumer<LexicalToken<String>> consumer) {
+        TokenTypes types = rules.getTokenTypes();
+        return (type, start, end) -> consumer.accept(new LexicalToken<>(
+                types.getName(type), types.getNamespace(type), input.subSequence(start, end).toString()));
+    }
+}
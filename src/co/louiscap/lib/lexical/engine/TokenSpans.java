@@ -0,0 +1,147 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The positions and rules of a run of tokens, including those of skipped rules, kept without
+ * creating any token objects. Used by the parallel lexers to hold tokens that may turn out to be
+ * wrong until it is known which of them are true.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+final class TokenSpans {
+
+    int[] starts;
+    int[] ends;
+    int[] rules;
+    int size;
+
+    /**
+     * The position no rule matches at, or -1 if the run ended normally
+     */
+    int errorAt = -1;
+
+    TokenSpans(int capacity) {
+        starts = new int[capacity];
+        ends = new int[capacity];
+        rules = new int[capacity];
+    }
+
+    void add(int start, int end, int rule) {
+        if(size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            rules = Arrays.copyOf(rules, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        rules[size++] = rule;
+    }
+
+    /**
+     * Matches a single token and adds it
+     * @return The end of the token
+     * @throws LexicalException If no rule matches
+     */
+    int lexOne(RuleMatcher matcher, CharSequence input, int pos, int length) {
+        long match = matcher.match(input, pos, length);
+        if(match == RuleMatcher.NO_MATCH) {
+            throw new LexicalException("No rule matches the input at offset " + pos, pos);
+        }
+        int end = RuleMatcher.endOf(match);
+        add(pos, end, RuleMatcher.ruleOf(match));
+        return end;
+    }
+
+    /**
+     * Finds the token starting at a position
+     * @return The index of the token, or -1 if no token starts there
+     */
+    int indexOfStart(int start) {
+        int index = Arrays.binarySearch(starts, 0, size, start);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Creates the tokens for a range of spans, leaving out skipped rules
+     */
+    void addTokens(List<LexicalToken<String>> tokens, RuleSet ruleSet, CharSequence input,
+            int from, int to) {
+        for (int i = from; i < to; i++) {
+            LexicalRule rule = ruleSet.get(rules[i]);
+            if(!rule.isSkipped()) {
+                tokens.add(new LexicalToken<>(rule.getTokenName(), rule.getNamespace(),
+                                              input.subSequence(starts[i], ends[i]).toString()));
+            }
+        }
+    }
+
+    /**
+     * Creates the tokens for ranges of several runs, each range on its own task of the pool, so
+     * that the strings of the tokens are created in parallel as the spans were found. Creating
+     * tokens is most of the cost of lexing, so doing it on the calling thread would cap the speedup
+     * of the parallel lexers.
+     * @param pieces The runs, in input order
+     * @param ranges The first index and the index past the last of the spans to use in each run
+     * @return The tokens of every range, in order
+     */
+    static List<LexicalToken<String>> toTokens(List<TokenSpans> pieces, List<int[]> ranges,
+            RuleSet ruleSet, CharSequence input, ForkJoinPool pool) {
+        ArrayList<ForkJoinTask<List<LexicalToken<String>>>> tasks = new ArrayList<>(pieces.size());
+        for (int i = 0; i < pieces.size(); i++) {
+            TokenSpans piece = pieces.get(i);
+            int from = ranges.get(i)[0], to = ranges.get(i)[1];
+            tasks.add(pool.submit(() -> {
+                ArrayList<LexicalToken<String>> tokens = new ArrayList<>(to - from);
+                piece.addTokens(tokens, ruleSet, input, from, to);
+                return tokens;
+            }));
+        }
+        ArrayList<List<LexicalToken<String>>> parts = new ArrayList<>(tasks.size());
+        int total = 0;
+        for (ForkJoinTask<List<LexicalToken<String>>> task : tasks) {
+            List<LexicalToken<String>> part = task.join();
+            parts.add(part);
+            total += part.size();
+        }
+        ArrayList<LexicalToken<String>> tokens = new ArrayList<>(total);
+        for (List<LexicalToken<String>> part : parts) {
+            tokens.addAll(part);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Numbers the token types of a {@link RuleSet}, so that consumers can compare types as ints
+ * instead of comparing names and namespaces as strings. Each distinct namespace and token name
+ * pair gets a dense id, counting from 0 in rule priority order; rules that produce the same token
+ * share its id, and skipped rules have none. Ids depend only on the rules, so a Java class of
+ * constants can be generated from them for downstream code to {@code switch} on.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class TokenTypes {
+
+    /**
+     * The type of a skipped rule, which produces no tokens
+     */
+    public static final int NO_TYPE = -1;
+
+    private final int[] ruleTypes;
+    private final String[] names;
+    private final String[] namespaces;
+    private final HashMap<String, HashMap<String, Integer>> ids = new HashMap<>();
+
+    /**
+     * Numbers the token types of a set of rules
+     * @param rules The rules to number the types of
+     */
+    public TokenTypes(RuleSet rules) {
+        ruleTypes = new int[rules.size()];
+        ArrayList<String> typeNames = new ArrayList<>(), typeNamespaces = new ArrayList<>();
+        for (int i = 0; i < ruleTypes.length; i++) {
+            LexicalRule rule = rules.get(i);
+            if(rule.isSkipped()) {
+                ruleTypes[i] = NO_TYPE;
+                continue;
+            }
+            HashMap<String, Integer> inNamespace = ids.computeIfAbsent(rule.getNamespace(),
+                                                                       ns -> new HashMap<>());
+            Integer id = inNamespace.get(rule.getTokenName());
+            if(id == null) {
+                id = typeNames.size();
+                inNamespace.put(rule.getTokenName(), id);
+                typeNames.add(rule.getTokenName());
+                typeNamespaces.add(rule.getNamespace());
+            }
+            ruleTypes[i] = id;
+        }
+        names = typeNames.toArray(new String[typeNames.size()]);
+        namespaces = typeNamespaces.toArray(new String[typeNamespaces.size()]);
+    }
+
+    /**
+     * Gets the number of token types
+     * @return One more than the largest type id
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Gets the type of the tokens a rule produces
+     * @param rule The index of the rule in its {@link RuleSet}
+     * @return The type id, or {@link #NO_TYPE} if the rule is skipped
+     */
+    public int getType(int rule) {
+        return ruleTypes[rule];
+    }
+
+    /**
+     * Looks up the id of a token type
+     * @param namespace The namespace of the type
+     * @param name The token name of the type
+     * @return The type id, or {@link #NO_TYPE} if no rule produces such tokens
+     */
+    public int getType(String namespace, String name) {
+        HashMap<String, Integer> inNamespace = ids.get(namespace);
+        Integer id = inNamespace == null ? null : inNamespace.get(name);
+        return id == null ? NO_TYPE : id;
+    }
+
+    public String getName(int type) {
+        return names[type];
+    }
+
+    public String getNamespace(int type) {
+        return namespaces[type];
+    }
+
+    /**
+     * Generates the source of a Java class holding an int constant for each token type. Constants
+     * are named after the token names in upper case, prefixed with their namespace when the rules
+     * use more than one.
+     * @param packageName The package of the class, or an empty string for the default package
+     * @param className The simple name of the class
+     * @return The source code of the class
+     */
+    public String generateConstants(String packageName, String className) {
+        boolean qualify = new HashSet<>(Arrays.asList(namespaces)).size() > 1;
+        HashSet<String> used = new HashSet<>(Arrays.asList("COUNT"));
+        StringBuilder source = new StringBuilder();
+        if(!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+              .append(" * Token type ids, as numbered by ").append(TokenTypes.class.getName())
+              .append(".\n")
+              .append(" * Generated from the lexical definitions; do not edit.\n")
+              .append(" */\n")
+              .append("public final class ").append(className).append(" {\n\n");
+        for (int type = 0; type < names.length; type++) {
+            String constant = identifier(qualify ? namespaces[type] + "_" + names[type] : names[type]);
+            if(!used.add(constant)) {
+                constant = constant + "_" + type;
+                used.add(constant);
+            }
+            source.append("    /** ").append(namespaces[type]).append(" ").append(names[type])
+                  .append(" */\n")
+                  .append("    public static final int ").append(constant).append(" = ")
+                  .append(type).append(";\n\n");
+        }
+        source.append("    /** The number of token types */\n")
+              .append("    public static final int COUNT = ").append(names.length).append(";\n\n")
+              .append("    private ").append(className).append("() {\n")
+              .append("    }\n")
+              .append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Turns a name into an upper case Java identifier
+     */
+    private static String identifier(String name) {
+        StringBuilder identifier = new StringBuilder(name.length() + 1);
+        if(name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            identifier.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return identifier.toString().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.Utf8Dfa;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Lexes UTF-8 input directly from its bytes with a {@link Utf8Dfa}, so the input never has to be
+ * decoded into chars. Tokens report their positions in bytes and only decode their text on
+ * request; tokens from skipped rules are never decoded at all. Matching follows the same longest
+ * match and priority rules as {@link DfaMatcher}.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class Utf8Lexer {
+
+    private final TokenTypes types;
+    private final Utf8Dfa dfa;
+
+    public Utf8Lexer(RuleSet rules, Utf8Dfa dfa) {
+        this.types = rules.getTokenTypes();
+        this.dfa = dfa;
+    }
+
+    /**
+     * Compiles a rule set into a byte level automaton
+     * @param rules The rules to compile
+     * @return A new lexer
+     * @throws co.louiscap.lib.lexical.regex.UnsupportedRegexException If a rule can't be expressed
+     * as a finite automaton
+     * @throws IllegalStateException If the DFA would be too large
+     * @throws IllegalArgumentException If a match can end inside a surrogate pair, as described
+     * by {@link Utf8Dfa#canTranslate(co.louiscap.lib.lexical.automata.Dfa)}
+     */
+    public static Utf8Lexer compile(RuleSet rules) {
+        return new Utf8Lexer(rules, Utf8Dfa.of(DfaMatcher.compile(rules).getDfa()));
+    }
+
+    public Utf8Dfa getDfa() {
+        return dfa;
+    }
+
+    /**
+     * Finds the longest match starting at a position
+     * @param input The UTF-8 input
+     * @param start The index of the first byte of the token
+     * @param end The index after the last byte available
+     * @param partial True if the input continues past the end
+     * @return A packed match as described by {@link RuleMatcher}, {@link RuleMatcher#NO_MATCH},
+     * or {@link RuleMatcher#NEED_INPUT} if the input is partial and reading past the end could
+     * change the result
+     */
+    public long match(ByteBuffer input, int start, int end, boolean partial) {
+        int state = dfa.getStartState();
+        int lastRule = -1, lastEnd = start;
+        for (int i = start; i < end; i++) {
+            state = dfa.step(state, input.get(i));
+            if(state == Utf8Dfa.DEAD) {
+                break;
+            }
+            int rule = dfa.getAcceptingRule(state);
+            if(rule >= 0) {
+                lastRule = rule;
+                lastEnd = i + 1;
+            }
+        }
+        if(partial && state != Utf8Dfa.DEAD) {
+            return RuleMatcher.NEED_INPUT;
+        }
+        return lastRule < 0 ? RuleMatcher.NO_MATCH : RuleMatcher.pack(lastRule, lastEnd);
+    }
+
+    /**
+     * Lexes everything between the position and limit of a buffer
+     * @param input The UTF-8 input
+     * @param consumer Receives each token
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public void lex(ByteBuffer input, Consumer<Utf8Token> consumer) {
+        lex(input, input.position(), input.limit(), -input.position(), false, consumer);
+    }
+
+    /**
+     * Lexes part of an input that may continue past the end of the buffer
+     * @param input The UTF-8 input
+     * @param start The index of the first byte to lex
+     * @param end The index after the last byte available
+     * @param base The offset from the start of the whole input to index 0 of the buffer
+     * @param partial True if the input continues past the end
+     * @param consumer Receives each token
+     * @return The index after the last byte consumed, which is before {@code end} if a token
+     * might continue past it
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public int lex(ByteBuffer input, int start, int end, long base, boolean partial,
+            Consumer<Utf8Token> consumer) {
+        return lex(input, start, end, base, partial, (type, tokenStart, tokenEnd) -> consumer.accept(
+                new Utf8Token(types, type, input, tokenStart, tokenEnd - tokenStart, base + tokenStart)));
+    }
+
+    /**
+     * Lexes part of an input without creating any token objects
+     * @param input The UTF-8 input
+     * @param start The index of the first byte to lex
+     * @param end The index after the last byte available
+     * @param base The offset from the start of the whole input to index 0 of the buffer, used for
+     * error messages
+     * @param partial True if the input continues past the end
+     * @param sink Receives the type of each token and its position in the buffer, in bytes
+     * @return The index after the last byte consumed, which is before {@code end} if a token
+     * might continue past it
+     * @throws LexicalException If no rule matches at some position of the input
+     */
+    public int lex(ByteBuffer input, int start, int end, long base, boolean partial,
+            TokenSink sink) {
+        int pos = start;
+        while (pos < end) {
+            long match = match(input, pos, end, partial);
+            if(match == RuleMatcher.NEED_INPUT) {
+                break;
+            }
+            if(match == RuleMatcher.NO_MATCH) {
+                throw new LexicalException("No rule matches the input at byte offset "
+                        + (base + pos), base + pos);
+            }
+            int tokenEnd = RuleMatcher.endOf(match);
+            int type = types.getType(RuleMatcher.ruleOf(match));
+            if(type != TokenTypes.NO_TYPE) {
+                sink.onToken(type, pos, tokenEnd);
+            }
+            pos = tokenEnd;
+        }
+        return pos;
+    }
+}
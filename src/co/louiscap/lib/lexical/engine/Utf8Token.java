@@ -0,0 +1,148 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A token found by a {@link Utf8Lexer}, identified by its type and its position in the input in
+ * bytes. The text of the token is only decoded when {@link #getLexeme()} is called, so tokens
+ * that are never looked at cost nothing beyond this object.
+ * <p>
+ * A token refers to the buffer it was found in, so its lexeme is only available while that
+ * buffer is; consumers that keep tokens after the buffer is released should call
+ * {@link #getLexeme()} or {@link #toLexicalToken()} first.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class Utf8Token {
+
+    private final TokenTypes types;
+    private final int type;
+    private final ByteBuffer source;
+    private final int index;
+    private final int length;
+    private final long offset;
+
+    /**
+     * Creates a token
+     * @param types The token types of the rules that were matched
+     * @param type The id of the token's type
+     * @param source The buffer the token was found in
+     * @param index The index of the token's first byte in the buffer
+     * @param length The length of the token in bytes
+     * @param offset The offset of the token's first byte from the start of the whole input
+     */
+    public Utf8Token(TokenTypes types, int type, ByteBuffer source, int index, int length,
+            long offset) {
+        this.types = types;
+        this.type = type;
+        this.source = source;
+        this.index = index;
+        this.length = length;
+        this.offset = offset;
+    }
+
+    /**
+     * Gets the type of the token
+     * @return The id of the token's type, as numbered by {@link RuleSet#getTokenTypes()}
+     */
+    public int getType() {
+        return type;
+    }
+
+    public String getTokenName() {
+        return types.getName(type);
+    }
+
+    public String getNamespace() {
+        return types.getNamespace(type);
+    }
+
+    /**
+     * Gets the position of the token in the input
+     * @return The offset of the first byte of the token, in bytes from the start of the input
+     */
+    public long getStartOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the position after the token in the input
+     * @return The offset after the last byte of the token, in bytes from the start of the input
+     */
+    public long getEndOffset() {
+        return offset + length;
+    }
+
+    /**
+     * Gets the length of the token
+     * @return The number of bytes in the token
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Decodes the text of the token
+     * @return A new String holding the token's text
+     */
+    public String getLexeme() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = source.get(index + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Converts this token into the form produced by the char based lexers
+     * @return A token holding the type's token name and namespace and the decoded lexeme
+     */
+    public LexicalToken<String> toLexicalToken() {
+        return new LexicalToken<>(getTokenName(), getNamespace(), getLexeme());
+    }
+
+    /**
+     * Serialises this token the way {@link LexicalToken#serialise()} serialises the token from
+     * {@link #toLexicalToken()}, without creating it
+     * @return The serialised token, ending in a newline
+     */
+    public String serialise() {
+        return "LexTok#" + getTokenName() + "#" + getNamespace() + "#dtString#"
+                + getLexeme() + "\n";
+    }
+
+    @Override
+    public String toString() {
+        return getTokenName() + "@" + offset + "+" + length;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Presents a buffer of bytes in a single byte, ASCII compatible encoding as a
+ * {@link CharSequence}, by mapping each byte to the char with the same ISO-8859-1 code. Nothing is
+ * copied, so a memory mapped file can be matched without its contents ever entering the heap.
+ * Indices are relative to the buffer's position when the sequence is created, and the buffer's
+ * own position and limit are never changed.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class ByteCharSequence implements CharSequence {
+
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int length;
+
+    public ByteCharSequence(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.offset = bytes.position();
+        this.length = bytes.remaining();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(offset + index) & 0xFF);
+    }
+
+    /**
+     * Copies part of the sequence into a String
+     * @param start The index of the first char
+     * @param end The index after the last char
+     * @return A new String holding the chars
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        byte[] copy = new byte[end - start];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = bytes.get(offset + start + i);
+        }
+        return new String(copy, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length);
+    }
+}
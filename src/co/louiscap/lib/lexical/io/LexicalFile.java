@@ -29,10 +29,39 @@
  */
 package co.louiscap.lib.lexical.io;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
- *
+ * The rules read from a single lexical definition file, in the order they were declared
  * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
  */
 public class LexicalFile {
-    
+
+    private final Path path;
+    private final ArrayList<LexicalRule> rules;
+
+    public LexicalFile(Path path) {
+        this.path = path;
+        this.rules = new ArrayList<>();
+    }
+
+    public void addRule(LexicalRule rule) {
+        rules.add(rule);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the rules declared in this file
+     * @return An unmodifiable view of the rules, in declaration order
+     */
+    public List<LexicalRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
 }
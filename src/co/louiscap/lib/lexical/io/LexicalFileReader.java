@@ -53,32 +53,62 @@ public class LexicalFileReader {
         }
     }
     
-    public void parse() throws IOException {
+    /**
+     * Reads every rule from the file. Lines starting with {@code ::} change the namespace of the
+     * rules that follow them, blank lines are ignored and every other line is read as
+     * {@code priority /regex/ captures}
+     * @return A {@link LexicalFile} holding the rules in declaration order
+     * @throws IOException If the file can't be read
+     */
+    public LexicalFile parse() throws IOException {
         StringChunker sc;
         String currentNamespace = null;
         String priority, regex, captures;
         String[] captureSplit;
+        LexicalFile result = new LexicalFile(filePath);
         
         CliLexer.PRINTER.println("Starting to parse " + filePath.toString(), "debug");
         LineIterator it = FileUtils.lineIterator(file, "UTF-8");
-        while(it.hasNext()) {
-            String line = it.nextLine();
-            sc = new StringChunker(line);
-            
-            if(sc.peekNext(2).equals("::")) {
-                sc.getUntil(" ");
-                currentNamespace = sc.tail().trim();
-            } else {
-                priority = sc.getUntil("/").trim();
-                regex = sc.getUntil("/", true);
-                while(!(sc.peekNext(1).equals(" ") || sc.peekNext(1).equals(""))) {
-                    regex += sc.getUntil("/", true);
+        try {
+            while(it.hasNext()) {
+                String line = it.nextLine();
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                sc = new StringChunker(line);
+
+                if(sc.peekNext(2).equals("::")) {
+                    sc.getUntil(" ");
+                    currentNamespace = sc.tail().trim();
+                } else {
+                    priority = sc.getUntil("/").trim();
+                    sc.skip(1);
+                    regex = sc.getUntil("/", true);
+                    while(!(sc.peekNext(1).equals(" ") || sc.peekNext(1).equals(""))) {
+                        regex += sc.getUntil("/", true);
+                    }
+                    regex = regex.substring(0, regex.length()-1);
+                    captures = sc.tail().trim();
+                    captureSplit = captures.isEmpty() ? new String[0] : captures.split("[\\s,]+");
+                    try {
+                        LexicalRule rule = new LexicalRule(Integer.parseInt(priority),
+                                currentNamespace, regex, captureSplit);
+                        if(!rule.isLinear()) {
+                            CliLexer.PRINTER.println("Warning: " + filePath.toString() + ": "
+                                    + rule.getUnsupportedReason().getMessage()
+                                    + "; the rule will be matched by backtracking", "err");
+                        }
+                        result.addRule(rule);
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Invalid rule priority '" + priority + "' in "
+                                + filePath.toString(), ex);
+                    }
                 }
-                regex = regex.substring(0, regex.length()-1);
-                captures = sc.tail().trim();
             }
-            
+        } finally {
+            it.close();
         }
+        return result;
     }
     
 }
@@ -29,34 +29,207 @@
  */
 package co.louiscap.lib.lexical.io;
 
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.regex.CharSet;
+import co.louiscap.lib.lexical.regex.RegexNode;
+import co.louiscap.lib.lexical.regex.RegexParser;
+import co.louiscap.lib.lexical.regex.RequiredLiteral;
+import co.louiscap.lib.lexical.regex.UnsupportedRegexException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
- *
+ * A single line of a lexical definition file; a regular expression along with the priority used to
+ * break ties between rules that match the same input, the namespace it was declared in and the
+ * names of the tokens it captures. A rule with no capture names still consumes the input it
+ * matches, but produces no token (useful for whitespace and comments).
+ * <p>
+ * Alongside its {@link Pattern}, each rule is compiled into an {@link Nfa} program that can be
+ * matched in linear time by a {@link co.louiscap.lib.lexical.automata.PikeVm}. Rules that use
+ * features only a backtracking matcher can support are flagged with
+ * {@link #getUnsupportedReason()} and can only be matched with their Pattern.
  * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
  */
 public class LexicalRule implements Comparable<LexicalRule> {
     private int priority;
+    private String namespace;
     private String ruleSource;
     private Pattern rule;
     private String[] captureSet;
+    private RegexNode syntax;
+    private Nfa program;
+    private UnsupportedRegexException unsupportedReason;
+    private CharSet firstChars;
+    private RequiredLiteral requiredLiteral;
+    private String[] literals;
     
     public LexicalRule(int priority, String rule, String[] captureSet){
+        this(priority, LexicalToken.DEFAULT_NAMESPACE, rule, captureSet);
+    }
+
+    public LexicalRule(int priority, String namespace, String rule, String[] captureSet){
         this.priority = priority;
+        this.namespace = namespace == null ? LexicalToken.DEFAULT_NAMESPACE : namespace;
         this.ruleSource = rule;
-        this.captureSet = captureSet;
-        
-        if(!this.ruleSource.startsWith(("^"))) {
-            this.ruleSource = "^" + this.ruleSource;
-        }
+        this.captureSet = captureSet == null ? new String[0] : captureSet;
         
         this.rule = Pattern.compile(this.ruleSource);
+        
+        try {
+            this.syntax = RegexParser.parse(this.ruleSource);
+            this.program = Nfa.build(Collections.singletonList(this.syntax));
+            this.firstChars = this.program.firstChars(this.program.getRuleStart(0));
+            this.requiredLiteral = RequiredLiteral.find(this.syntax);
+            this.literals = literalsOf(this.syntax);
+        } catch (UnsupportedRegexException ex) {
+            this.unsupportedReason = ex;
+        }
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Gets the source of the regular expression for this rule. Rules are always matched anchored
+     * at the current position, so the source needs no leading {@code ^}.
+     * @return The regular expression this rule was compiled from
+     */
+    public String getRuleSource() {
+        return ruleSource;
+    }
+
+    public Pattern getPattern() {
+        return rule;
+    }
+
+    /**
+     * Gets the syntax tree of this rule, for compiling it into an automaton
+     * @return The parsed rule
+     * @throws UnsupportedRegexException If the rule can't be represented as a finite automaton
+     */
+    public RegexNode getSyntax() {
+        if(syntax == null) {
+            throw unsupportedReason;
+        }
+        return syntax;
+    }
+
+    /**
+     * Gets the linear time program for this rule
+     * @return An NFA holding only this rule, as rule 0, or null if the rule needs a backtracking
+     * matcher
+     */
+    public Nfa getProgram() {
+        return program;
+    }
+
+    /**
+     * Gets the characters that a non-empty match of this rule can start with
+     * @return The set of possible first characters, or null if the rule needs a backtracking
+     * matcher and so could start with anything
+     */
+    public CharSet getFirstChars() {
+        return firstChars;
+    }
+
+    /**
+     * Gets a string that every match of this rule contains at a known position, which lets the
+     * rule be skipped wherever that string doesn't appear
+     * @return The required literal, or null if the rule has none or needs a backtracking matcher
+     */
+    public RequiredLiteral getRequiredLiteral() {
+        return requiredLiteral;
+    }
+
+    /**
+     * Gets the strings matched by a rule that is nothing more than a list of alternative literals,
+     * such as {@code if|else|while}
+     * @return The non-empty alternatives in the order they are written, or null if the rule isn't
+     * made of literals
+     */
+    public String[] getLiterals() {
+        return literals == null ? null : literals.clone();
+    }
+
+    /**
+     * Checks whether this rule only matches fixed strings
+     * @return True if {@link #getLiterals()} is not null
+     */
+    public boolean isLiteral() {
+        return literals != null;
+    }
+
+    private static String[] literalsOf(RegexNode node) {
+        List<RegexNode> alternatives = node.getType() == RegexNode.Type.ALTERNATE
+                ? node.getChildren() : Collections.singletonList(node);
+        ArrayList<String> found = new ArrayList<>();
+        for (RegexNode alternative : alternatives) {
+            String literal = alternative.getLiteral();
+            if(literal == null) {
+                return null;
+            }
+            if(!literal.isEmpty()) {
+                // Empty matches are never reported, so an empty alternative needs no entry
+                found.add(literal);
+            }
+        }
+        return found.toArray(new String[found.size()]);
+    }
+
+    /**
+     * Checks whether this rule can be matched without backtracking
+     * @return True if the rule has a linear time program
+     */
+    public boolean isLinear() {
+        return program != null;
+    }
+
+    /**
+     * Gets the reason this rule can't be matched without backtracking
+     * @return The exception raised when parsing the rule, or null if the rule is linear
+     */
+    public UnsupportedRegexException getUnsupportedReason() {
+        return unsupportedReason;
+    }
+
+    public String[] getCaptureSet() {
+        return captureSet.clone();
+    }
+
+    /**
+     * Gets the name given to tokens produced by this rule, which is the first name in its capture
+     * set
+     * @return The name of the tokens this rule produces, or null if the rule produces no tokens
+     */
+    public String getTokenName() {
+        return captureSet.length == 0 ? null : captureSet[0];
+    }
+
+    /**
+     * Checks whether input matched by this rule should be discarded instead of producing a token
+     * @return True if this rule has no capture names
+     */
+    public boolean isSkipped() {
+        return captureSet.length == 0;
     }
 
     @Override
     public int compareTo(LexicalRule lr) {
-        // Negative 
+        // Negative
         return lr.priority - this.priority;
     }
+
+    @Override
+    public String toString() {
+        return priority + " /" + ruleSource + "/ " + String.join(" ", captureSet);
+    }
     
 }
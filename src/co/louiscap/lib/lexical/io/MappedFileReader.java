@@ -0,0 +1,150 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes a file by memory mapping it a window at a time, rather than reading it through a byte
+ * buffer on the heap. Windows are at most {@code windowSize} bytes, so files larger than a single
+ * {@link MappedByteBuffer} can address are read by remapping the next window once the current one
+ * is used up. A multi-byte sequence split between windows is carried over by starting the next
+ * window at its first byte.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class MappedFileReader extends Reader {
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final long size;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean flushed;
+    private final CharBuffer pending = CharBuffer.allocate(2);
+
+    /**
+     * Creates a reader over a file
+     * @param channel The file to read, which is closed when this reader is closed
+     * @param encoding The character encoding of the file; malformed or unmappable input is
+     * reported as a {@link java.nio.charset.CharacterCodingException}
+     * @param windowSize The largest number of bytes to map at once
+     * @throws IOException If the size of the file can't be read
+     */
+    public MappedFileReader(FileChannel channel, Charset encoding, int windowSize) throws IOException {
+        if(windowSize < 16) {
+            throw new IllegalArgumentException("Mapped windows must be at least 16 bytes");
+        }
+        this.channel = channel;
+        this.decoder = encoding.newDecoder()
+                               .onMalformedInput(CodingErrorAction.REPORT)
+                               .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        this.windowStart = 0;
+        this.pending.limit(0);
+    }
+
+    private boolean isLastWindow() {
+        return windowStart + window.limit() == size;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        if(pending.hasRemaining()) {
+            cbuf[off] = pending.get();
+            return 1;
+        }
+        if(len == 1) {
+            // A surrogate pair can't be decoded into a single char, so decode into a larger buffer
+            pending.position(0);
+            pending.limit(0);
+            int count = read(pending.array(), 0, 2);
+            if(count < 0) {
+                return -1;
+            }
+            pending.limit(count);
+            return read(cbuf, off, 1);
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            if(flushed) {
+                return -1;
+            }
+            if(window == null || (!window.hasRemaining() && !isLastWindow())) {
+                remap();
+            }
+            boolean last = isLastWindow();
+            CoderResult result = decoder.decode(window, out, last);
+            if(result.isError()) {
+                if(out.position() > off) {
+                    // Hand over what was decoded; the next read reports the error
+                    break;
+                }
+                result.throwException();
+            }
+            if(result.isOverflow()) {
+                continue;
+            }
+            if(last) {
+                flushed = decoder.flush(out).isUnderflow();
+            } else if(window.hasRemaining()) {
+                // The window ends part way through a character; continue from its first byte
+                remap();
+            }
+        }
+        return out.position() - off;
+    }
+
+    private void remap() throws IOException {
+        if(window != null) {
+            windowStart += window.position();
+        }
+        long length = Math.min(windowSize, size - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.regex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An immutable set of UTF-16 code units, stored as a sorted list of disjoint, non-adjacent,
+ * inclusive ranges. While a rule is parsed a set may also hold supplementary code points, up to
+ * {@link #MAX_CODE_POINT}; the parser splits those into surrogate pairs, so the sets held by an
+ * automaton never go past {@link #MAX_CHAR}.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class CharSet {
+
+    /**
+     * The largest value that can be held in a CharSet
+     */
+    public static final int MAX_CHAR = Character.MAX_VALUE;
+
+    /**
+     * The largest code point that can be held in a CharSet
+     */
+    public static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    public static final CharSet EMPTY = new CharSet(new int[0]);
+    public static final CharSet ANY = range(0, MAX_CHAR);
+    public static final CharSet SURROGATES = range(Character.MIN_SURROGATE,
+                                                   Character.MAX_SURROGATE);
+    /**
+     * The set matched by {@code .} without the DOTALL flag; any code point but a line terminator
+     * or an unpaired surrogate
+     */
+    public static final CharSet DOT = fromRanges('\n', '\n', '\r', '\r', '\u0085', '\u0085',
+                                                 '\u2028', '\u2029').complementCodePoints();
+    public static final CharSet DIGIT = range('0', '9');
+    public static final CharSet WORD = fromRanges('a', 'z', 'A', 'Z', '_', '_', '0', '9');
+    public static final CharSet SPACE = fromRanges(' ', ' ', '\t', '\r', '\f', '\f');
+    public static final CharSet HORIZONTAL_SPACE = fromRanges(' ', ' ', '\t', '\t',
+            '\u00a0', '\u00a0', '\u1680', '\u1680', '\u180e', '\u180e', '\u2000', '\u200a',
+            '\u202f', '\u202f', '\u205f', '\u205f', '\u3000', '\u3000');
+    public static final CharSet VERTICAL_SPACE = fromRanges('\n', '\r', '\u0085', '\u0085',
+                                                            '\u2028', '\u2029');
+
+    private static final HashMap<Integer, CharSet> CATEGORY_CACHE = new HashMap<>();
+
+    private final int[] ranges;
+
+    private CharSet(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Creates a set holding a single character
+     * @param c The character in the set
+     * @return A new CharSet
+     */
+    public static CharSet of(int c) {
+        return range(c, c);
+    }
+
+    /**
+     * Creates a set holding every character between two bounds
+     * @param lo The lowest character in the set
+     * @param hi The highest character in the set
+     * @return A new CharSet, which is empty if {@code hi < lo}
+     */
+    public static CharSet range(int lo, int hi) {
+        if(hi < lo) {
+            return EMPTY;
+        }
+        checkBounds(lo);
+        checkBounds(hi);
+        return new CharSet(new int[] { lo, hi });
+    }
+
+    /**
+     * Creates a set from any number of inclusive {@code lo, hi} pairs. The pairs don't need to be
+     * ordered or disjoint.
+     * @param pairs The bounds of each range
+     * @return A new CharSet that is the union of every range
+     */
+    public static CharSet fromRanges(int... pairs) {
+        if(pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Ranges must be given as lo, hi pairs");
+        }
+        long[] packed = new long[pairs.length / 2];
+        int count = 0;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if(pairs[i + 1] >= pairs[i]) {
+                checkBounds(pairs[i]);
+                checkBounds(pairs[i + 1]);
+                packed[count++] = ((long) pairs[i] << 32) | pairs[i + 1];
+            }
+        }
+        Arrays.sort(packed, 0, count);
+        int[] merged = new int[count * 2];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int lo = (int) (packed[i] >>> 32), hi = (int) packed[i];
+            if(size > 0 && lo <= merged[size - 1] + 1) {
+                merged[size - 1] = Math.max(merged[size - 1], hi);
+            } else {
+                merged[size++] = lo;
+                merged[size++] = hi;
+            }
+        }
+        return new CharSet(Arrays.copyOf(merged, size));
+    }
+
+    /**
+     * Creates a set of every code point with the given {@link Character#getType(int)}
+     * @param types One or more general category constants from {@link Character}
+     * @return A CharSet holding every character in any of the categories
+     */
+    public static CharSet ofCategories(int... types) {
+        CharSet result = EMPTY;
+        for (int type : types) {
+            CharSet category;
+            synchronized (CATEGORY_CACHE) {
+                category = CATEGORY_CACHE.get(type);
+            }
+            if(category == null) {
+                int[] pairs = new int[64];
+                int size = 0;
+                int start = -1;
+                for (int c = 0; c <= MAX_CODE_POINT + 1; c++) {
+                    boolean in = c <= MAX_CODE_POINT && Character.getType(c) == type;
+                    if(in && start < 0) {
+                        start = c;
+                    } else if(!in && start >= 0) {
+                        if(size == pairs.length) {
+                            pairs = Arrays.copyOf(pairs, size * 2);
+                        }
+                        pairs[size++] = start;
+                        pairs[size++] = c - 1;
+                        start = -1;
+                    }
+                }
+                category = new CharSet(Arrays.copyOf(pairs, size));
+                synchronized (CATEGORY_CACHE) {
+                    CATEGORY_CACHE.put(type, category);
+                }
+            }
+            result = result.union(category);
+        }
+        return result;
+    }
+
+    private static void checkBounds(int c) {
+        if(c < 0 || c > MAX_CODE_POINT) {
+            throw new IllegalArgumentException("Code point " + c + " is out of range");
+        }
+    }
+
+    public CharSet union(CharSet other) {
+        if(other.isEmpty()) {
+            return this;
+        }
+        if(this.isEmpty()) {
+            return other;
+        }
+        int[] pairs = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+        System.arraycopy(other.ranges, 0, pairs, ranges.length, other.ranges.length);
+        return fromRanges(pairs);
+    }
+
+    public CharSet intersect(CharSet other) {
+        return complement(MAX_CODE_POINT).union(other.complement(MAX_CODE_POINT))
+                                         .complement(MAX_CODE_POINT);
+    }
+
+    public CharSet minus(CharSet other) {
+        return intersect(other.complement(MAX_CODE_POINT));
+    }
+
+    /**
+     * Gets the UTF-16 code units that aren't in this set
+     * @return A set holding every char up to {@link #MAX_CHAR} not in this one
+     */
+    public CharSet complement() {
+        return complement(MAX_CHAR);
+    }
+
+    /**
+     * Gets the code points that aren't in this set, other than surrogates, which only appear in
+     * well formed text as part of a pair standing for a supplementary code point
+     * @return A set holding every code point up to {@link #MAX_CODE_POINT} not in this one or in
+     * {@link #SURROGATES}
+     */
+    public CharSet complementCodePoints() {
+        return complement(MAX_CODE_POINT).minus(SURROGATES);
+    }
+
+    private CharSet complement(int max) {
+        int[] result = new int[ranges.length + 2];
+        int size = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if(ranges[i] > next) {
+                result[size++] = next;
+                result[size++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if(next <= max) {
+            result[size++] = next;
+            result[size++] = max;
+        }
+        return new CharSet(Arrays.copyOf(result, size));
+    }
+
+    public boolean contains(int c) {
+        int lo = 0, hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if(c < ranges[mid * 2]) {
+                hi = mid - 1;
+            } else if(c > ranges[mid * 2 + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether this set holds any code point above {@link #MAX_CHAR}
+     * @return True if some of the set can only be matched by surrogate pairs
+     */
+    public boolean hasSupplementary() {
+        return ranges.length > 0 && ranges[ranges.length - 1] > MAX_CHAR;
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * Gets the number of disjoint ranges that make up this set
+     * @return The number of ranges
+     */
+    public int getRangeCount() {
+        return ranges.length / 2;
+    }
+
+    /**
+     * Gets the lowest character of a range
+     * @param range The index of the range, between 0 and {@link #getRangeCount()}
+     * @return The inclusive lower bound of the range
+     */
+    public int getLow(int range) {
+        return ranges[range * 2];
+    }
+
+    /**
+     * Gets the highest character of a range
+     * @param range The index of the range, between 0 and {@link #getRangeCount()}
+     * @return The inclusive upper bound of the range
+     */
+    public int getHigh(int range) {
+        return ranges[range * 2 + 1];
+    }
+
+    /**
+     * Gets the number of characters in this set
+     * @return The size of the set
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharSet && Arrays.equals(ranges, ((CharSet) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            sb.append(escape(ranges[i]));
+            if(ranges[i + 1] != ranges[i]) {
+                sb.append('-').append(escape(ranges[i + 1]));
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String escape(int c) {
+        return c > MAX_CHAR ? String.format("\\x{%x}", c) : String.format("\\u%04x", c);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.regex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the syntax tree of a parsed rule. Only the constructs that can be expressed as a
+ * finite automaton are represented; anything else is rejected by the {@link RegexParser}.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class RegexNode {
+
+    /**
+     * Used as the maximum of a {@link Type#REPEAT} node that has no upper bound
+     */
+    public static final int UNBOUNDED = -1;
+
+    public enum Type {
+        /** Matches the empty string */
+        EMPTY,
+        /** Matches a single character from a {@link CharSet} */
+        CHARS,
+        /** Matches each child in sequence */
+        CONCAT,
+        /** Matches any one of its children */
+        ALTERNATE,
+        /** Matches its only child between a minimum and maximum number of times */
+        REPEAT
+    }
+
+    private static final RegexNode EMPTY_NODE = new RegexNode(Type.EMPTY, null,
+            Collections.<RegexNode>emptyList(), 0, 0);
+
+    private final Type type;
+    private final CharSet chars;
+    private final List<RegexNode> children;
+    private final int min, max;
+
+    private RegexNode(Type type, CharSet chars, List<RegexNode> children, int min, int max) {
+        this.type = type;
+        this.chars = chars;
+        this.children = children;
+        this.min = min;
+        this.max = max;
+    }
+
+    public static RegexNode empty() {
+        return EMPTY_NODE;
+    }
+
+    public static RegexNode chars(CharSet set) {
+        return new RegexNode(Type.CHARS, set, Collections.<RegexNode>emptyList(), 1, 1);
+    }
+
+    public static RegexNode concat(List<RegexNode> children) {
+        if(children.isEmpty()) {
+            return EMPTY_NODE;
+        }
+        if(children.size() == 1) {
+            return children.get(0);
+        }
+        return new RegexNode(Type.CONCAT, null, Collections.unmodifiableList(children), 1, 1);
+    }
+
+    public static RegexNode alternate(List<RegexNode> children) {
+        if(children.size() == 1) {
+            return children.get(0);
+        }
+        return new RegexNode(Type.ALTERNATE, null, Collections.unmodifiableList(children), 1, 1);
+    }
+
+    public static RegexNode repeat(RegexNode child, int min, int max) {
+        return new RegexNode(Type.REPEAT, null, Collections.singletonList(child), min, max);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the characters matched by a {@link Type#CHARS} node
+     * @return The set of characters, or null for any other type of node
+     */
+    public CharSet getChars() {
+        return chars;
+    }
+
+    public List<RegexNode> getChildren() {
+        return children;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Gets the maximum number of repetitions of a {@link Type#REPEAT} node
+     * @return The maximum, or {@link #UNBOUNDED}
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the single string matched by this node, if it matches only one
+     * @return The string, which is empty for an {@link Type#EMPTY} node, or null if the node can
+     * match more than one string
+     */
+    public String getLiteral() {
+        switch(type) {
+            case EMPTY:
+                return "";
+            case CHARS:
+                if(chars.getRangeCount() != 1 || chars.getLow(0) != chars.getHigh(0)) {
+                    return null;
+                }
+                return String.valueOf((char) chars.getLow(0));
+            case CONCAT:
+                StringBuilder literal = new StringBuilder();
+                for (RegexNode child : children) {
+                    String part = child.getLiteral();
+                    if(part == null) {
+                        return null;
+                    }
+                    literal.append(part);
+                }
+                return literal.toString();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch(type) {
+            case EMPTY:
+                return "()";
+            case CHARS:
+                return chars.toString();
+            case REPEAT:
+                return "(" + children.get(0) + "){" + min + "," + (max == UNBOUNDED ? "" : max) + "}";
+            case ALTERNATE:
+                StringBuilder alt = new StringBuilder("(");
+                for (int i = 0; i < children.size(); i++) {
+                    alt.append(i == 0 ? "" : "|").append(children.get(i));
+                }
+                return alt.append(")").toString();
+            case CONCAT:
+            default:
+                StringBuilder cat = new StringBuilder();
+                children.forEach(cat::append);
+                return cat.toString();
+        }
+    }
+}
@@ -0,0 +1,653 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.regex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses the subset of {@link java.util.regex.Pattern} syntax that can be compiled to a finite
+ * automaton. Supported are literals and escapes, {@code .}, character classes (including
+ * nested unions and {@code &&} intersections), the predefined classes {@code \d \s \w \h \v} and
+ * their negations, general category and POSIX {@code \p{..}} classes, capturing and non-capturing
+ * groups, alternation and greedy quantifiers. A leading {@code ^} is accepted and ignored, as
+ * rules are always anchored at the start of a token.
+ * <p>
+ * Anything else throws an {@link UnsupportedRegexException}.
+ * <p>
+ * As in {@link java.util.regex.Pattern}, {@code .}, classes and escapes match whole code points:
+ * the supplementary code points in a class are compiled into alternatives of surrogate pairs.
+ * Unlike Pattern, the complement of a class ({@code .}, {@code [^..]}, {@code \W},
+ * {@code \P{..}} and so on) never matches an unpaired surrogate, so a match only ends between the
+ * two halves of a pair when a rule names surrogates explicitly.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class RegexParser {
+
+    /**
+     * The largest bound accepted in a {@code {n,m}} quantifier
+     */
+    public static final int MAX_REPEAT = 1000;
+
+    private static final HashMap<String, int[]> CATEGORIES = new HashMap<>();
+    private static final HashMap<String, CharSet> POSIX_CLASSES = new HashMap<>();
+
+    static {
+        CATEGORIES.put("Cn", new int[] { Character.UNASSIGNED });
+        CATEGORIES.put("Lu", new int[] { Character.UPPERCASE_LETTER });
+        CATEGORIES.put("Ll", new int[] { Character.LOWERCASE_LETTER });
+        CATEGORIES.put("Lt", new int[] { Character.TITLECASE_LETTER });
+        CATEGORIES.put("Lm", new int[] { Character.MODIFIER_LETTER });
+        CATEGORIES.put("Lo", new int[] { Character.OTHER_LETTER });
+        CATEGORIES.put("Mn", new int[] { Character.NON_SPACING_MARK });
+        CATEGORIES.put("Me", new int[] { Character.ENCLOSING_MARK });
+        CATEGORIES.put("Mc", new int[] { Character.COMBINING_SPACING_MARK });
+        CATEGORIES.put("Nd", new int[] { Character.DECIMAL_DIGIT_NUMBER });
+        CATEGORIES.put("Nl", new int[] { Character.LETTER_NUMBER });
+        CATEGORIES.put("No", new int[] { Character.OTHER_NUMBER });
+        CATEGORIES.put("Zs", new int[] { Character.SPACE_SEPARATOR });
+        CATEGORIES.put("Zl", new int[] { Character.LINE_SEPARATOR });
+        CATEGORIES.put("Zp", new int[] { Character.PARAGRAPH_SEPARATOR });
+        CATEGORIES.put("Cc", new int[] { Character.CONTROL });
+        CATEGORIES.put("Cf", new int[] { Character.FORMAT });
+        CATEGORIES.put("Co", new int[] { Character.PRIVATE_USE });
+        CATEGORIES.put("Cs", new int[] { Character.SURROGATE });
+        CATEGORIES.put("Pd", new int[] { Character.DASH_PUNCTUATION });
+        CATEGORIES.put("Ps", new int[] { Character.START_PUNCTUATION });
+        CATEGORIES.put("Pe", new int[] { Character.END_PUNCTUATION });
+        CATEGORIES.put("Pc", new int[] { Character.CONNECTOR_PUNCTUATION });
+        CATEGORIES.put("Po", new int[] { Character.OTHER_PUNCTUATION });
+        CATEGORIES.put("Sm", new int[] { Character.MATH_SYMBOL });
+        CATEGORIES.put("Sc", new int[] { Character.CURRENCY_SYMBOL });
+        CATEGORIES.put("Sk", new int[] { Character.MODIFIER_SYMBOL });
+        CATEGORIES.put("So", new int[] { Character.OTHER_SYMBOL });
+        CATEGORIES.put("Pi", new int[] { Character.INITIAL_QUOTE_PUNCTUATION });
+        CATEGORIES.put("Pf", new int[] { Character.FINAL_QUOTE_PUNCTUATION });
+        CATEGORIES.put("L", new int[] { Character.UPPERCASE_LETTER, Character.LOWERCASE_LETTER,
+            Character.TITLECASE_LETTER, Character.MODIFIER_LETTER, Character.OTHER_LETTER });
+        CATEGORIES.put("M", new int[] { Character.NON_SPACING_MARK, Character.ENCLOSING_MARK,
+            Character.COMBINING_SPACING_MARK });
+        CATEGORIES.put("N", new int[] { Character.DECIMAL_DIGIT_NUMBER, Character.LETTER_NUMBER,
+            Character.OTHER_NUMBER });
+        CATEGORIES.put("Z", new int[] { Character.SPACE_SEPARATOR, Character.LINE_SEPARATOR,
+            Character.PARAGRAPH_SEPARATOR });
+        CATEGORIES.put("C", new int[] { Character.CONTROL, Character.FORMAT,
+            Character.PRIVATE_USE, Character.SURROGATE, Character.UNASSIGNED });
+        CATEGORIES.put("P", new int[] { Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+            Character.END_PUNCTUATION, Character.CONNECTOR_PUNCTUATION,
+            Character.OTHER_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION,
+            Character.FINAL_QUOTE_PUNCTUATION });
+        CATEGORIES.put("S", new int[] { Character.MATH_SYMBOL, Character.CURRENCY_SYMBOL,
+            Character.MODIFIER_SYMBOL, Character.OTHER_SYMBOL });
+
+        CharSet lower = CharSet.range('a', 'z');
+        CharSet upper = CharSet.range('A', 'Z');
+        CharSet punct = CharSet.fromRanges('!', '/', ':', '@', '[', '`', '{', '~');
+        CharSet alnum = lower.union(upper).union(CharSet.DIGIT);
+        POSIX_CLASSES.put("Lower", lower);
+        POSIX_CLASSES.put("Upper", upper);
+        POSIX_CLASSES.put("ASCII", CharSet.range(0, 0x7F));
+        POSIX_CLASSES.put("Alpha", lower.union(upper));
+        POSIX_CLASSES.put("Digit", CharSet.DIGIT);
+        POSIX_CLASSES.put("Alnum", alnum);
+        POSIX_CLASSES.put("Punct", punct);
+        POSIX_CLASSES.put("Graph", alnum.union(punct));
+        POSIX_CLASSES.put("Print", alnum.union(punct).union(CharSet.of(' ')));
+        POSIX_CLASSES.put("Blank", CharSet.fromRanges(' ', ' ', '\t', '\t'));
+        POSIX_CLASSES.put("Cntrl", CharSet.fromRanges(0, 0x1F, 0x7F, 0x7F));
+        POSIX_CLASSES.put("XDigit", CharSet.fromRanges('0', '9', 'a', 'f', 'A', 'F'));
+        POSIX_CLASSES.put("Space", CharSet.SPACE);
+    }
+
+    private final String source;
+    private int pos;
+    private CharSet lastClassEscape;
+
+    private RegexParser(String source) {
+        this.source = source;
+        this.pos = 0;
+    }
+
+    /**
+     * Parses a rule into a syntax tree
+     * @param source The regular expression, optionally starting with {@code ^}
+     * @return The root of the syntax tree
+     * @throws UnsupportedRegexException If the expression uses a construct that can't be
+     * represented as a finite automaton
+     */
+    public static RegexNode parse(String source) throws UnsupportedRegexException {
+        RegexParser parser = new RegexParser(source);
+        if(source.startsWith("^")) {
+            parser.pos = 1;
+        }
+        RegexNode result = parser.parseAlternation();
+        if(parser.pos < source.length()) {
+            throw parser.unsupported("Unmatched closing ')'");
+        }
+        return result;
+    }
+
+    private UnsupportedRegexException unsupported(String message) {
+        return new UnsupportedRegexException(message, source, pos);
+    }
+
+    private boolean atEnd() {
+        return pos >= source.length();
+    }
+
+    private char peek() {
+        return source.charAt(pos);
+    }
+
+    private boolean lookingAt(String s) {
+        return source.startsWith(s, pos);
+    }
+
+    private char next() {
+        if(atEnd()) {
+            throw unsupported("Unexpected end of expression");
+        }
+        return source.charAt(pos++);
+    }
+
+    private RegexNode parseAlternation() {
+        ArrayList<RegexNode> branches = new ArrayList<>(2);
+        branches.add(parseConcat());
+        while (!atEnd() && peek() == '|') {
+            pos++;
+            branches.add(parseConcat());
+        }
+        return RegexNode.alternate(branches);
+    }
+
+    private RegexNode parseConcat() {
+        ArrayList<RegexNode> items = new ArrayList<>();
+        while (!atEnd() && peek() != '|' && peek() != ')') {
+            items.add(parseQuantified());
+        }
+        return RegexNode.concat(items);
+    }
+
+    private RegexNode parseQuantified() {
+        RegexNode atom = parseAtom();
+        if(atEnd()) {
+            return atom;
+        }
+        int min, max;
+        int start = pos;
+        switch(peek()) {
+            case '*':
+                pos++;
+                min = 0;
+                max = RegexNode.UNBOUNDED;
+                break;
+            case '+':
+                pos++;
+                min = 1;
+                max = RegexNode.UNBOUNDED;
+                break;
+            case '?':
+                pos++;
+                min = 0;
+                max = 1;
+                break;
+            case '{':
+                pos++;
+                min = parseNumber();
+                max = min;
+                if(!atEnd() && peek() == ',') {
+                    pos++;
+                    max = (!atEnd() && peek() == '}') ? RegexNode.UNBOUNDED : parseNumber();
+                }
+                if(next() != '}') {
+                    pos = start;
+                    throw unsupported("Malformed repetition");
+                }
+                if(max != RegexNode.UNBOUNDED && max < min) {
+                    pos = start;
+                    throw unsupported("Repetition maximum is less than its minimum");
+                }
+                break;
+            default:
+                return atom;
+        }
+        if(!atEnd() && peek() == '?') {
+            throw unsupported("Lazy quantifiers need a backtracking matcher");
+        }
+        if(!atEnd() && peek() == '+') {
+            throw unsupported("Possessive quantifiers need a backtracking matcher");
+        }
+        return RegexNode.repeat(atom, min, max);
+    }
+
+    private int parseNumber() {
+        int start = pos;
+        while (!atEnd() && Character.isDigit(peek())) {
+            pos++;
+        }
+        if(start == pos) {
+            throw unsupported("Expected a number");
+        }
+        if(pos - start > 4 || Integer.parseInt(source.substring(start, pos)) > MAX_REPEAT) {
+            throw unsupported("Repetition bounds larger than " + MAX_REPEAT + " are not supported");
+        }
+        return Integer.parseInt(source.substring(start, pos));
+    }
+
+    private RegexNode parseAtom() {
+        char c = next();
+        switch(c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return codePoints(parseClass());
+            case '.':
+                return codePoints(CharSet.DOT);
+            case '\\':
+                if(!atEnd() && peek() == 'Q') {
+                    pos++;
+                    return parseQuoted();
+                }
+                return codePoints(parseEscape());
+            case '^':
+            case '$':
+                pos--;
+                throw unsupported("Anchors are only supported at the start of a rule");
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                pos--;
+                throw unsupported("Dangling quantifier");
+            default:
+                if(Character.isHighSurrogate(c) && !atEnd() && Character.isLowSurrogate(peek())) {
+                    ArrayList<RegexNode> pair = new ArrayList<>(2);
+                    pair.add(RegexNode.chars(CharSet.of(c)));
+                    pair.add(RegexNode.chars(CharSet.of(next())));
+                    return RegexNode.concat(pair);
+                }
+                return RegexNode.chars(CharSet.of(c));
+        }
+    }
+
+    /**
+     * Creates the node matching a set of code points. Supplementary code points are matched as a
+     * high surrogate followed by a low one, with the high surrogates that can be followed by the
+     * same low surrogates grouped into one alternative.
+     */
+    private static RegexNode codePoints(CharSet set) {
+        if(!set.hasSupplementary()) {
+            return RegexNode.chars(set);
+        }
+        LinkedHashMap<CharSet, CharSet> highsByLows = new LinkedHashMap<>();
+        int high = -1;
+        CharSet lows = CharSet.EMPTY;
+        for (int i = 0; i < set.getRangeCount(); i++) {
+            int cp = Math.max(set.getLow(i), Character.MIN_SUPPLEMENTARY_CODE_POINT);
+            while (cp <= set.getHigh(i)) {
+                // The last code point sharing this one's high surrogate
+                int last = Math.min(set.getHigh(i), cp | 0x3FF);
+                if(Character.highSurrogate(cp) != high) {
+                    addPairs(highsByLows, high, lows);
+                    high = Character.highSurrogate(cp);
+                    lows = CharSet.EMPTY;
+                }
+                lows = lows.union(CharSet.range(Character.lowSurrogate(cp),
+                                                Character.lowSurrogate(last)));
+                cp = last + 1;
+            }
+        }
+        addPairs(highsByLows, high, lows);
+        ArrayList<RegexNode> branches = new ArrayList<>(highsByLows.size() + 1);
+        CharSet units = set.intersect(CharSet.ANY);
+        if(!units.isEmpty()) {
+            branches.add(RegexNode.chars(units));
+        }
+        for (Map.Entry<CharSet, CharSet> pair : highsByLows.entrySet()) {
+            ArrayList<RegexNode> sequence = new ArrayList<>(2);
+            sequence.add(RegexNode.chars(pair.getValue()));
+            sequence.add(RegexNode.chars(pair.getKey()));
+            branches.add(RegexNode.concat(sequence));
+        }
+        return RegexNode.alternate(branches);
+    }
+
+    private static void addPairs(Map<CharSet, CharSet> highsByLows, int high, CharSet lows) {
+        if(high >= 0) {
+            highsByLows.merge(lows, CharSet.of(high), CharSet::union);
+        }
+    }
+
+    private RegexNode parseGroup() {
+        if(!atEnd() && peek() == '?') {
+            pos++;
+            if(lookingAt(":")) {
+                pos++;
+            } else if(lookingAt("<") && pos + 1 < source.length()
+                      && Character.isLetter(source.charAt(pos + 1))) {
+                int close = source.indexOf('>', pos);
+                if(close < 0) {
+                    throw unsupported("Unterminated group name");
+                }
+                pos = close + 1;
+            } else if(lookingAt("=") || lookingAt("!") || lookingAt("<=") || lookingAt("<!")) {
+                throw unsupported("Look-around needs a backtracking matcher");
+            } else if(lookingAt(">")) {
+                throw unsupported("Atomic groups need a backtracking matcher");
+            } else {
+                throw unsupported("Inline flags are not supported");
+            }
+        }
+        RegexNode inner = parseAlternation();
+        if(atEnd() || next() != ')') {
+            throw unsupported("Unclosed group");
+        }
+        return inner;
+    }
+
+    private RegexNode parseQuoted() {
+        int end = source.indexOf("\\E", pos);
+        if(end < 0) {
+            end = source.length();
+        }
+        ArrayList<RegexNode> literal = new ArrayList<>(end - pos);
+        for (int i = pos; i < end; i++) {
+            literal.add(RegexNode.chars(CharSet.of(source.charAt(i))));
+        }
+        pos = Math.min(end + 2, source.length());
+        return RegexNode.concat(literal);
+    }
+
+    /**
+     * Parses the body of a character class, after its opening bracket
+     */
+    private CharSet parseClass() {
+        boolean negate = false;
+        if(!atEnd() && peek() == '^') {
+            negate = true;
+            pos++;
+        }
+        CharSet result = parseClassUnion(negate);
+        if(atEnd() || next() != ']') {
+            throw unsupported("Unclosed character class");
+        }
+        return negate ? result.complementCodePoints() : result;
+    }
+
+    private CharSet parseClassUnion(boolean negated) {
+        CharSet result = CharSet.EMPTY;
+        boolean first = true;
+        while (true) {
+            if(atEnd()) {
+                throw unsupported("Unclosed character class");
+            }
+            char c = peek();
+            if(c == ']' && !first) {
+                return result;
+            }
+            first = false;
+            if(c == '[') {
+                if(negated) {
+                    throw unsupported("Nested classes inside a negated class are not supported");
+                }
+                pos++;
+                result = result.union(parseClass());
+            } else if(lookingAt("&&")) {
+                if(negated) {
+                    throw unsupported("Intersections inside a negated class are not supported");
+                }
+                pos += 2;
+                return result.intersect(parseClassUnion(false));
+            } else {
+                int lo = parseClassChar();
+                if(lo < 0) {
+                    result = result.union(lastClassEscape);
+                } else if(lookingAt("-") && pos + 1 < source.length()
+                          && source.charAt(pos + 1) != ']' && source.charAt(pos + 1) != '[') {
+                    pos++;
+                    int hi = parseClassChar();
+                    if(hi < 0 || hi < lo) {
+                        throw unsupported("Illegal character range");
+                    }
+                    result = result.union(CharSet.range(lo, hi));
+                } else {
+                    result = result.union(CharSet.of(lo));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one item of a character class
+     * @return The character read, or -1 if a multi-character escape was read, in which case it is
+     * left in {@link #lastClassEscape}
+     */
+    private int parseClassChar() {
+        char c = next();
+        if(c != '\\') {
+            if(Character.isHighSurrogate(c) && !atEnd() && Character.isLowSurrogate(peek())) {
+                return Character.toCodePoint(c, next());
+            }
+            if(Character.isSurrogate(c)) {
+                pos--;
+                throw unsupported("Unpaired surrogates in classes are not supported");
+            }
+            return c;
+        }
+        int escaped = parseCharEscape();
+        if(escaped >= 0) {
+            return escaped;
+        }
+        lastClassEscape = parseClassEscape();
+        return -1;
+    }
+
+    private CharSet parseEscape() {
+        int escaped = parseCharEscape();
+        if(escaped >= 0) {
+            return CharSet.of(escaped);
+        }
+        return parseClassEscape();
+    }
+
+    /**
+     * Reads an escape that stands for a single character, after its backslash
+     * @return The character, or -1 without consuming anything if the escape is not for a
+     * single character
+     */
+    private int parseCharEscape() {
+        char c = next();
+        switch(c) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return 0x07;
+            case 'e':
+                return 0x1B;
+            case 'c':
+                return next() ^ 64;
+            case '0':
+                return parseOctal();
+            case 'x':
+                return parseHex();
+            case 'u':
+                int unit = parseHexDigits(4);
+                if(Character.isHighSurrogate((char) unit) && lookingAt("\\u")) {
+                    // An escaped surrogate pair stands for one code point, as it does in Pattern
+                    int start = pos;
+                    pos += 2;
+                    int low = parseHexDigits(4);
+                    if(Character.isLowSurrogate((char) low)) {
+                        return Character.toCodePoint((char) unit, (char) low);
+                    }
+                    pos = start;
+                }
+                return unit;
+            default:
+                if(Character.isLetterOrDigit(c)) {
+                    pos--;
+                    return -1;
+                }
+                return c;
+        }
+    }
+
+    private int parseOctal() {
+        int value = 0, digits = 0;
+        while (!atEnd() && digits < 3 && peek() >= '0' && peek() <= '7') {
+            int candidate = value * 8 + (peek() - '0');
+            if(candidate > 0377) {
+                break;
+            }
+            value = candidate;
+            digits++;
+            pos++;
+        }
+        if(digits == 0) {
+            throw unsupported("Illegal octal escape");
+        }
+        return value;
+    }
+
+    private int parseHex() {
+        if(!atEnd() && peek() == '{') {
+            pos++;
+            int close = source.indexOf('}', pos);
+            if(close < 0) {
+                throw unsupported("Unclosed hexadecimal escape");
+            }
+            int value = parseHexDigits(close - pos);
+            pos++;
+            if(value > CharSet.MAX_CODE_POINT) {
+                throw unsupported("Illegal hexadecimal escape");
+            }
+            return value;
+        }
+        return parseHexDigits(2);
+    }
+
+    private int parseHexDigits(int count) {
+        if(count <= 0 || count > 8 || pos + count > source.length()) {
+            throw unsupported("Illegal hexadecimal escape");
+        }
+        try {
+            int value = Integer.parseInt(source.substring(pos, pos + count), 16);
+            pos += count;
+            return value;
+        } catch (NumberFormatException ex) {
+            throw unsupported("Illegal hexadecimal escape");
+        }
+    }
+
+    /**
+     * Reads an escape that stands for a class of characters, after its backslash
+     */
+    private CharSet parseClassEscape() {
+        char c = next();
+        switch(c) {
+            case 'd':
+                return CharSet.DIGIT;
+            case 'D':
+                return CharSet.DIGIT.complementCodePoints();
+            case 'w':
+                return CharSet.WORD;
+            case 'W':
+                return CharSet.WORD.complementCodePoints();
+            case 's':
+                return CharSet.SPACE;
+            case 'S':
+                return CharSet.SPACE.complementCodePoints();
+            case 'h':
+                return CharSet.HORIZONTAL_SPACE;
+            case 'H':
+                return CharSet.HORIZONTAL_SPACE.complementCodePoints();
+            case 'v':
+                return CharSet.VERTICAL_SPACE;
+            case 'V':
+                return CharSet.VERTICAL_SPACE.complementCodePoints();
+            case 'p':
+                return parseProperty();
+            case 'P':
+                return parseProperty().complementCodePoints();
+            case 'b':
+            case 'B':
+            case 'A':
+            case 'G':
+            case 'Z':
+            case 'z':
+                pos--;
+                throw unsupported("Boundary matchers are not supported");
+            case 'k':
+                pos--;
+                throw unsupported("Back-references need a backtracking matcher");
+            default:
+                pos--;
+                if(c >= '1' && c <= '9') {
+                    throw unsupported("Back-references need a backtracking matcher");
+                }
+                throw unsupported("Unsupported escape \\" + c);
+        }
+    }
+
+    private CharSet parseProperty() {
+        String name;
+        if(!atEnd() && peek() == '{') {
+            int close = source.indexOf('}', pos);
+            if(close < 0) {
+                throw unsupported("Unclosed property name");
+            }
+            name = source.substring(pos + 1, close);
+            pos = close + 1;
+        } else {
+            name = String.valueOf(next());
+        }
+        if(POSIX_CLASSES.containsKey(name)) {
+            return POSIX_CLASSES.get(name);
+        }
+        String category = name;
+        if(category.startsWith("Is")) {
+            category = category.substring(2);
+        } else if(category.startsWith("gc=") || category.startsWith("general_category=")) {
+            category = category.substring(category.indexOf('=') + 1);
+        }
+        if(CATEGORIES.containsKey(category)) {
+            return CharSet.ofCategories(CATEGORIES.get(category));
+        }
+        throw unsupported("Unsupported character property " + name);
+    }
+}
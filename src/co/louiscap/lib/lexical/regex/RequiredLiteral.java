@@ -0,0 +1,164 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A string that must appear at a fixed offset from the start of every match of a rule. For
+ * example {@code 0x[0-9a-f]+} requires {@code "0x"} at offset 0, and {@code [a-z]:=} requires
+ * {@code ":="} at offset 1. Only literals of at least {@link #MIN_LENGTH} characters are
+ * extracted, as single characters are already handled by first character dispatch.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class RequiredLiteral {
+
+    /**
+     * The shortest literal worth extracting
+     */
+    public static final int MIN_LENGTH = 2;
+
+    private static final int VARIABLE = -1;
+
+    private final String text;
+    private final int offset;
+
+    public RequiredLiteral(String text, int offset) {
+        this.text = text;
+        this.offset = offset;
+    }
+
+    /**
+     * Finds the longest literal required at a fixed offset by a rule
+     * @param node The parsed rule
+     * @return The literal, or null if the rule has no such literal
+     */
+    public static RequiredLiteral find(RegexNode node) {
+        ArrayList<RegexNode> items = new ArrayList<>();
+        flatten(node, items);
+        RequiredLiteral best = null;
+        StringBuilder run = new StringBuilder();
+        int offset = 0, runStart = 0;
+        for (RegexNode item : items) {
+            CharSet chars = item.getType() == RegexNode.Type.CHARS ? item.getChars() : null;
+            if(chars != null && chars.getRangeCount() == 1 && chars.getLow(0) == chars.getHigh(0)) {
+                if(run.length() == 0) {
+                    runStart = offset;
+                }
+                run.append((char) chars.getLow(0));
+                offset++;
+                continue;
+            }
+            best = longer(best, run, runStart);
+            run.setLength(0);
+            int width = fixedWidth(item);
+            if(width == VARIABLE) {
+                return best;
+            }
+            offset += width;
+        }
+        return longer(best, run, runStart);
+    }
+
+    private static RequiredLiteral longer(RequiredLiteral best, StringBuilder run, int start) {
+        if(run.length() >= MIN_LENGTH && (best == null || run.length() > best.text.length())) {
+            return new RequiredLiteral(run.toString(), start);
+        }
+        return best;
+    }
+
+    private static void flatten(RegexNode node, List<RegexNode> items) {
+        if(node.getType() == RegexNode.Type.CONCAT) {
+            node.getChildren().forEach(child -> flatten(child, items));
+        } else if(node.getType() == RegexNode.Type.REPEAT && node.getMin() == node.getMax()) {
+            for (int i = 0; i < node.getMin(); i++) {
+                flatten(node.getChildren().get(0), items);
+            }
+        } else if(node.getType() != RegexNode.Type.EMPTY) {
+            items.add(node);
+        }
+    }
+
+    /**
+     * Computes the number of characters every match of a node consumes
+     * @return The width, or {@link #VARIABLE} if matches can have different lengths
+     */
+    private static int fixedWidth(RegexNode node) {
+        switch(node.getType()) {
+            case EMPTY:
+                return 0;
+            case CHARS:
+                return 1;
+            case CONCAT:
+                int sum = 0;
+                for (RegexNode child : node.getChildren()) {
+                    int width = fixedWidth(child);
+                    if(width == VARIABLE) {
+                        return VARIABLE;
+                    }
+                    sum += width;
+                }
+                return sum;
+            case ALTERNATE:
+                int common = fixedWidth(node.getChildren().get(0));
+                for (RegexNode child : node.getChildren()) {
+                    if(fixedWidth(child) != common) {
+                        return VARIABLE;
+                    }
+                }
+                return common;
+            case REPEAT:
+            default:
+                int width = fixedWidth(node.getChildren().get(0));
+                if(node.getMin() != node.getMax() || width == VARIABLE) {
+                    return width == 0 ? 0 : VARIABLE;
+                }
+                return width * node.getMin();
+        }
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the position of the literal relative to the start of a match
+     * @return The number of characters that precede the literal in every match
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return "\"" + text + "\"@" + offset;
+    }
+}
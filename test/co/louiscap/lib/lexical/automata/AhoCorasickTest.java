@@ -0,0 +1,134 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class AhoCorasickTest {
+
+    @Test
+    public void testFindsOverlappingWords() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals("she@0-3 he@1-3 hers@1-5 his@7-10 ", scan(automaton, "shers, his"));
+    }
+
+    @Test
+    public void testFindsWordsOutsideAscii() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("été", "λλ",
+                                                              "té"));
+        assertEquals("λλ@0-2 λλ@1-3 été@3-6 té@4-6 ",
+                     scan(automaton, "λλλété"));
+    }
+
+    @Test
+    public void testAgreesWithIndexOfOnRandomWords() {
+        Random random = new Random(5);
+        String chars = "abé中";
+        for (int round = 0; round < 200; round++) {
+            List<String> words = new ArrayList<>();
+            for (int w = 1 + random.nextInt(8); w > 0; w--) {
+                words.add(randomString(random, chars, 1 + random.nextInt(4)));
+            }
+            String input = randomString(random, chars, 60);
+            assertEquals(words + " in '" + input + "'", naive(words, input),
+                         scan(new AhoCorasick(words), input));
+        }
+    }
+
+    @Test
+    public void testOutputsIncludeSuffixWords() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("abc", "bc", "c"));
+        int state = AhoCorasick.ROOT;
+        for (char c : "abc".toCharArray()) {
+            state = automaton.step(state, c);
+        }
+        int[] outputs = automaton.getOutputs(state).clone();
+        Arrays.sort(outputs);
+        assertArrayEquals(new int[] { 0, 1, 2 }, outputs);
+        assertEquals(3, automaton.getMaxLength());
+    }
+
+    /**
+     * Lists every occurrence as {@code word@start-end}, ordered by end and then by start
+     */
+    private static String scan(AhoCorasick automaton, String input) {
+        StringBuilder found = new StringBuilder();
+        int state = AhoCorasick.ROOT;
+        for (int i = 0; i < input.length(); i++) {
+            state = automaton.step(state, input.charAt(i));
+            int[] outputs = automaton.getOutputs(state).clone();
+            String[] words = new String[outputs.length];
+            for (int o = 0; o < outputs.length; o++) {
+                words[o] = automaton.getWord(outputs[o]);
+            }
+            // Longer words start earlier
+            Arrays.sort(words, (a, b) -> b.length() - a.length());
+            for (String word : words) {
+                found.append(word).append('@').append(i + 1 - word.length()).append('-')
+                        .append(i + 1).append(' ');
+            }
+        }
+        return found.toString();
+    }
+
+    private static String naive(List<String> words, String input) {
+        StringBuilder found = new StringBuilder();
+        for (int end = 1; end <= input.length(); end++) {
+            for (int length = end; length > 0; length--) {
+                String candidate = input.substring(end - length, end);
+                // Duplicate words are reported once per copy, as the automaton reports them
+                for (String word : words) {
+                    if(word.equals(candidate)) {
+                        found.append(word).append('@').append(end - length).append('-')
+                                .append(end).append(' ');
+                    }
+                }
+            }
+        }
+        return found.toString();
+    }
+
+    private static String randomString(Random random, String chars, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import co.louiscap.lib.lexical.engine.RuleSet;
+import co.louiscap.lib.lexical.engine.TestRules;
+import co.louiscap.lib.lexical.regex.CharSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class AlphabetTest {
+
+    /**
+     * Code points on either side of the bounds of lookup blocks, surrogate ranges and planes
+     */
+    private static final int[] EDGES = {
+        0, 1, 0xFE, 0xFF, 0x100, 0x101, 0x1FF, 0x200, 0x2FF, 0x300, 0x7FF, 0x800, 0xD7FE, 0xD7FF,
+        0xE000, 0xE001, 0xFEFF, 0xFF00, 0xFFFE, 0xFFFF, 0x10000, 0x10001, 0x103FF, 0x10400,
+        0x1F600, 0x1F6FF, 0x1F700, 0x10FFFE, 0x10FFFF
+    };
+
+    @Test
+    public void testRandomRulesOnlyShareClassesBetweenEquivalentChars() {
+        Random random = new Random(31);
+        for (int round = 0; round < 100; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            assertPartition("Rules " + rules, rules);
+        }
+    }
+
+    @Test
+    public void testRangesAtBlockAndSurrogateEdgesOnlyShareClassesBetweenEquivalentChars() {
+        Random random = new Random(32);
+        for (int round = 0; round < 100; round++) {
+            List<String> definitions = new ArrayList<>();
+            for (int r = 1 + random.nextInt(5); r > 0; r--) {
+                StringBuilder regex = new StringBuilder("[");
+                for (int n = 1 + random.nextInt(3); n > 0; n--) {
+                    int low = edge(random), high = edge(random);
+                    regex.append(String.format("\\x{%X}-\\x{%X}", Math.min(low, high),
+                                               Math.max(low, high)));
+                }
+                definitions.add(random.nextInt(5) + " /" + regex + "]+/ R" + r);
+            }
+            assertPartition("Rules " + definitions,
+                            TestRules.of(definitions.toArray(new String[0])));
+        }
+    }
+
+    @Test
+    public void testSurrogatesAreSplitByTheSupplementaryRanges() {
+        Alphabet alphabet = assertPartition("Surrogates", TestRules.of(
+                "5 /[\\uD800-\\uDBFF]/ HIGH",
+                "5 /\\p{Cs}/ SURROGATE",
+                "5 /[\\x{10000}-\\x{103FF}]/ FIRST",
+                "5 /\\x{1F600}/ SMILE",
+                "5 /[\\x{FF}-\\x{100}]/ EDGE"));
+        // U+10000 to U+103FF are D800 followed by any low surrogate, and U+1F600 is D83D DE00
+        assertNotEquals(alphabet.classOf((char) 0xD800), alphabet.classOf((char) 0xD801));
+        assertEquals(alphabet.classOf((char) 0xD801), alphabet.classOf((char) 0xD83C));
+        assertNotEquals(alphabet.classOf((char) 0xD83C), alphabet.classOf((char) 0xD83D));
+        assertEquals(alphabet.classOf((char) 0xD83E), alphabet.classOf((char) 0xDBFF));
+        assertNotEquals(alphabet.classOf((char) 0xDBFF), alphabet.classOf((char) 0xDC00));
+        assertEquals(alphabet.classOf((char) 0xDC00), alphabet.classOf((char) 0xDDFF));
+        assertNotEquals(alphabet.classOf((char) 0xDDFF), alphabet.classOf((char) 0xDE00));
+        assertEquals(alphabet.classOf((char) 0xDC00), alphabet.classOf((char) 0xDFFF));
+        assertNotEquals(alphabet.classOf((char) 0xD7FF), alphabet.classOf((char) 0xD800));
+        assertNotEquals(alphabet.classOf((char) 0xDFFF), alphabet.classOf((char) 0xE000));
+        assertEquals(alphabet.classOf((char) 0xFF), alphabet.classOf((char) 0x100));
+        assertNotEquals(alphabet.classOf((char) 0xFE), alphabet.classOf((char) 0xFF));
+        assertNotEquals(alphabet.classOf((char) 0x100), alphabet.classOf((char) 0x101));
+    }
+
+    /**
+     * Picks a code point near an edge, moving any that lands on a surrogate, as a class can't
+     * hold an unpaired one
+     */
+    private static int edge(Random random) {
+        int c = EDGES[random.nextInt(EDGES.length)] + random.nextInt(3) - 1;
+        c = Math.max(0, Math.min(CharSet.MAX_CODE_POINT, c));
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ? 0xE000 : c;
+    }
+
+    /**
+     * Checks that two characters share a class exactly when every character set of the rules'
+     * NFA holds both or neither, and that the two level lookup agrees with the intervals for
+     * every character
+     * @return The alphabet of the rules
+     */
+    private static Alphabet assertPartition(String message, RuleSet rules) {
+        Nfa nfa = Nfa.build(rules.parseAll());
+        Alphabet alphabet = Alphabet.of(nfa);
+        LinkedHashSet<CharSet> distinct = new LinkedHashSet<>();
+        for (int s = 0; s < nfa.getStateCount(); s++) {
+            if(nfa.getChars(s) != null) {
+                distinct.add(nfa.getChars(s));
+            }
+        }
+        CharSet[] sets = distinct.toArray(new CharSet[0]);
+        Map<BitSet, Integer> classes = new HashMap<>();
+        Map<Integer, BitSet> signatures = new HashMap<>();
+        for (int c = 0; c <= CharSet.MAX_CHAR; c++) {
+            BitSet signature = new BitSet(sets.length);
+            for (int i = 0; i < sets.length; i++) {
+                signature.set(i, sets[i].contains(c));
+            }
+            int found = alphabet.classOf((char) c);
+            Integer expected = classes.putIfAbsent(signature, found);
+            if(expected != null && expected != found) {
+                assertEquals(message + " at " + Integer.toHexString(c), expected.intValue(), found);
+            }
+            BitSet other = signatures.putIfAbsent(found, signature);
+            if(other != null && !other.equals(signature)) {
+                assertEquals(message + " splits class " + found + " at " + Integer.toHexString(c),
+                             other, signature);
+            }
+            int interval = alphabet.intervalOf((char) c);
+            if(alphabet.getIntervalClass(interval) != found) {
+                assertEquals(message + " interval of " + Integer.toHexString(c),
+                             alphabet.getIntervalClass(interval), found);
+            }
+            assertTrue(alphabet.getIntervalStart(interval) <= c
+                       && c <= alphabet.getIntervalEnd(interval));
+        }
+        assertEquals(message, classes.size(), alphabet.size());
+        for (int i = 1; i < alphabet.getIntervalCount(); i++) {
+            assertNotEquals(message, alphabet.getIntervalClass(i - 1), alphabet.getIntervalClass(i));
+        }
+        return alphabet;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.automata;
+
+import co.louiscap.lib.lexical.engine.TestRules;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class TransitionTableTest {
+
+    @Test
+    public void testCompressedLayoutsAgreeWithDenseOnRandomTables() {
+        Random random = new Random(21);
+        for (int round = 0; round < 200; round++) {
+            int width = 1 + random.nextInt(random.nextBoolean() ? 8 : 256);
+            int states = 1 + random.nextInt(300);
+            int[] targets = new int[states * width];
+            for (int s = 0; s < states; s++) {
+                // Rows range from all one target to all different, with their exceptions
+                // anywhere from the first column to the last
+                int background = random.nextInt(states);
+                int density = random.nextInt(width + 1);
+                for (int c = 0; c < width; c++) {
+                    targets[s * width + c] = random.nextInt(width) < density
+                                             ? random.nextInt(states) : background;
+                }
+            }
+            assertLayoutsAgree("Round " + round, targets, width);
+        }
+    }
+
+    @Test
+    public void testLargeKeywordDfaIsCompressedAndAgreesWithDense() {
+        Random random = new Random(22);
+        Set<String> keywords = new HashSet<>();
+        while (keywords.size() < 3000) {
+            keywords.add(TestRules.randomInput(random, "abcdefghijklmnopqrstuvwxyz0123456789",
+                                               3 + random.nextInt(4)));
+        }
+        Dfa dfa = new DfaBuilder(Nfa.build(TestRules.of(
+                "10 /" + String.join("|", keywords) + "/ KEYWORD").parseAll())).build();
+        assertTrue(dfa.getDenseTableSize() > TransitionTable.DENSE_LIMIT);
+        assertNotEquals("dense", dfa.getTableLayout());
+
+        for (String keyword : keywords) {
+            assertEquals(keyword, 0, accepted(dfa, keyword));
+        }
+        for (int i = 0; i < 10000; i++) {
+            String input = TestRules.randomInput(random, "abcxyz019", 1 + random.nextInt(6));
+            assertEquals(input, keywords.contains(input) ? 0 : -1, accepted(dfa, input));
+        }
+
+        int width = dfa.getAlphabet().size();
+        int[] targets = new int[dfa.getStateCount() * width];
+        for (int s = 0; s < dfa.getStateCount(); s++) {
+            for (int c = 0; c < width; c++) {
+                targets[s * width + c] = dfa.stepClass(s, c);
+            }
+        }
+        assertLayoutsAgree("Keywords", targets, width);
+        assertEquals(dfa.getTableLayout(), TransitionTable.select(targets, width).getLayout());
+    }
+
+    @Test
+    public void testLargeSparseTablesAreNotKeptDense() {
+        int width = 64, states = 2000;
+        int[] targets = new int[states * width];
+        for (int s = 0; s < states; s++) {
+            targets[s * width + s % width] = (s + 1) % states;
+        }
+        TransitionTable table = TransitionTable.select(targets, width);
+        assertEquals("comb", table.getLayout());
+        assertAgrees("Selected", targets, width, table);
+    }
+
+    /**
+     * Builds a table in each layout, with each row's default chosen as its most frequent target,
+     * its first target and a target it doesn't hold, then checks every entry against the dense one
+     */
+    private static void assertLayoutsAgree(String message, int[] targets, int width) {
+        int states = targets.length / width;
+        TransitionTable dense = new TransitionTable.Dense(targets, width);
+        assertAgrees(message + " dense", targets, width, dense);
+        for (int choice = 0; choice < 3; choice++) {
+            int[] defaults = new int[states];
+            int[] exceptions = new int[states];
+            for (int s = 0; s < states; s++) {
+                int[] row = Arrays.copyOfRange(targets, s * width, (s + 1) * width);
+                defaults[s] = choice == 0 ? mostFrequent(row) : choice == 1 ? row[0] : -1;
+                for (int target : row) {
+                    if(target != defaults[s]) {
+                        exceptions[s]++;
+                    }
+                }
+            }
+            TransitionTable comb = TransitionTable.Comb.build(targets, width, defaults, exceptions);
+            TransitionTable sparse = TransitionTable.Sparse.build(targets, width, defaults,
+                                                                  exceptions);
+            assertAgrees(message + " comb with defaults " + choice, targets, width, comb);
+            assertAgrees(message + " sparse with defaults " + choice, targets, width, sparse);
+        }
+        assertAgrees(message + " selected", targets, width, TransitionTable.select(targets, width));
+    }
+
+    private static void assertAgrees(String message, int[] targets, int width,
+                                     TransitionTable table) {
+        for (int s = 0; s < targets.length / width; s++) {
+            for (int c = 0; c < width; c++) {
+                if(table.next(s, c) != targets[s * width + c]) {
+                    assertEquals(message + " at state " + s + ", class " + c,
+                                 targets[s * width + c], table.next(s, c));
+                }
+            }
+        }
+    }
+
+    private static int mostFrequent(int[] row) {
+        int[] sorted = row.clone();
+        Arrays.sort(sorted);
+        int best = sorted[0], bestCount = 0;
+        for (int i = 0, run = 1; i < sorted.length; i++, run++) {
+            if(i + 1 == sorted.length || sorted[i + 1] != sorted[i]) {
+                if(run > bestCount) {
+                    best = sorted[i];
+                    bestCount = run;
+                }
+                run = 0;
+            }
+        }
+        return best;
+    }
+
+    private static int accepted(Dfa dfa, String input) {
+        int state = dfa.getStartState();
+        for (char c : input.toCharArray()) {
+            state = dfa.step(state, c);
+            if(state == Dfa.DEAD) {
+                return -1;
+            }
+        }
+        return dfa.getAcceptingRule(state);
+    }
+}
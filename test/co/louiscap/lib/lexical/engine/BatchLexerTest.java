@@ -0,0 +1,253 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class BatchLexerTest {
+
+    private static final RuleSet WORDS = TestRules.of("5 /[a-z]+/ WORD", "1 / +/");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testOutputIsInInputOrderWhenFilesFinishOutOfOrder() throws Exception {
+        assertOutputInInputOrder(0);
+    }
+
+    @Test
+    public void testReadAheadOutputIsInInputOrderWhenFilesFinishOutOfOrder() throws Exception {
+        assertOutputInInputOrder(2);
+    }
+
+    private void assertOutputInInputOrder(int openFiles) throws Exception {
+        List<String> contents = Arrays.asList("slow one", "two b", "three c", "four # d", "five e",
+                                              "six f");
+        List<Path> files = createFiles(contents);
+        // The first file is held back until every other file has been lexed to its last word
+        CountDownLatch others = new CountDownLatch(contents.size() - 2);
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        Set<String> seen = Collections.synchronizedSet(new HashSet<>());
+        BatchLexer batch = new BatchLexer(WORDS, () -> new HoldingMatcher(others, finished, seen),
+                                          StandardCharsets.ISO_8859_1, Long.MAX_VALUE, pool,
+                                          openFiles);
+        List<String> output = lex(batch, files);
+        assertEquals("slow", finished.get(finished.size() - 1));
+        assertEquals(Arrays.asList("0:slow one", "1:two b", "2:three c", "3:four",
+                                   "3:!LexicalException", "4:five e", "5:six f"), output);
+        assertEquals(5L, batch.getStatistics().get("batch.files"));
+        assertEquals(1L, batch.getStatistics().get("batch.failures"));
+    }
+
+    @Test
+    public void testReadAheadReportsFilesThatCantBeRead() throws Exception {
+        List<Path> files = createFiles(Arrays.asList("one a", "gone", "three # c", "four d"));
+        Files.delete(files.get(1));
+        BatchLexer batch = new BatchLexer(WORDS, () -> new PriorityRuleMatcher(WORDS),
+                                          StandardCharsets.ISO_8859_1, Long.MAX_VALUE, pool, 2);
+        assertEquals(Arrays.asList("0:one a", "1:", "1:!NoSuchFileException", "2:three",
+                                   "2:!LexicalException", "3:four d"), lex(batch, files));
+        assertEquals(2L, batch.getStatistics().get("batch.files"));
+        assertEquals(2L, batch.getStatistics().get("batch.failures"));
+        // Only the files lexed to the end count, though the one that failed was read in full
+        assertEquals((long) ("one a".length() + "four d".length()),
+                     batch.getStatistics().get("batch.bytes"));
+    }
+
+    @Test
+    public void testReadAheadKeepsAtMostOpenFilesOpen() throws Exception {
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            contents.add("file " + (char) ('a' + i));
+        }
+        List<Path> files = createFiles(contents);
+        AtomicInteger reading = new AtomicInteger();
+        AtomicInteger mostReading = new AtomicInteger();
+        BatchLexer batch = new BatchLexer(WORDS, () -> new PriorityRuleMatcher(WORDS),
+                                          StandardCharsets.ISO_8859_1, Long.MAX_VALUE, pool, 3) {
+            @Override
+            byte[] readFile(Path file) throws IOException {
+                mostReading.accumulateAndGet(reading.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                    return super.readFile(file);
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException();
+                } finally {
+                    reading.decrementAndGet();
+                }
+            }
+        };
+        List<String> output = lex(batch, files);
+        for (int i = 0; i < contents.size(); i++) {
+            assertEquals(i + ":" + contents.get(i), output.get(i));
+        }
+        assertTrue("At most 3 files should be open, not " + mostReading.get(),
+                   mostReading.get() >= 1 && mostReading.get() <= 3);
+        assertEquals(3, batch.getStatistics().get("batch.openFiles"));
+    }
+
+    @Test
+    public void testReadAheadMapsFilesFromTheThreshold() throws Exception {
+        List<String> contents = Arrays.asList("short a", "sixteen bytes ab", "a much longer file",
+                                              "tiny b");
+        List<Path> files = createFiles(contents);
+        Set<Path> mapped = Collections.synchronizedSet(new HashSet<>());
+        BatchLexer batch = new BatchLexer(WORDS, () -> new PriorityRuleMatcher(WORDS),
+                                          StandardCharsets.ISO_8859_1, 16, pool, 2) {
+            @Override
+            byte[] readFile(Path file) throws IOException {
+                byte[] contents = super.readFile(file);
+                if(contents == null) {
+                    mapped.add(file);
+                }
+                return contents;
+            }
+        };
+        List<String> output = lex(batch, files);
+        for (int i = 0; i < contents.size(); i++) {
+            assertEquals(i + ":" + contents.get(i), output.get(i));
+        }
+        assertEquals(new HashSet<>(files.subList(1, 3)), mapped);
+        assertEquals(4L, batch.getStatistics().get("batch.files"));
+        assertEquals((long) String.join("", contents).length(),
+                     batch.getStatistics().get("batch.bytes"));
+    }
+
+    private List<Path> createFiles(List<String> contents) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String text : contents) {
+            Path file = folder.newFile().toPath();
+            Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Lexes a batch, describing each file's output by its index and words, and each failure by
+     * its index and the type of exception
+     */
+    private static List<String> lex(BatchLexer batch, List<Path> files) throws InterruptedException {
+        List<String> output = new ArrayList<>();
+        batch.lex(files, new BatchLexer.Output() {
+            @Override
+            public void lexed(Path file, String tokens) {
+                output.add(files.indexOf(file) + ":" + tokens.replace("LexTok#WORD#default#dtString#", "")
+                                                              .replace('\n', ' ').trim());
+            }
+
+            @Override
+            public void failed(Path file, Exception ex) {
+                output.add(files.indexOf(file) + ":!" + ex.getClass().getSimpleName());
+            }
+        });
+        return output;
+    }
+
+    /**
+     * Matches words, waiting on a latch before matching "slow" and counting it down the first time
+     * each single letter word is matched; single spaces are skipped tokens, not words. The
+     * streaming lexer may match a token more than once when it ends at the end of its buffer.
+     */
+    private static final class HoldingMatcher implements RuleMatcher {
+
+        private final RuleMatcher matcher = new PriorityRuleMatcher(WORDS);
+        private final CountDownLatch others;
+        private final List<String> finished;
+        private final Set<String> seen;
+
+        HoldingMatcher(CountDownLatch others, List<String> finished, Set<String> seen) {
+            this.others = others;
+            this.finished = finished;
+            this.seen = seen;
+        }
+
+        @Override
+        public long match(CharSequence input, int start, int end) {
+            return hold(input, start, matcher.match(input, start, end));
+        }
+
+        @Override
+        public long matchPrefix(CharSequence input, int start, int end) {
+            return hold(input, start, matcher.matchPrefix(input, start, end));
+        }
+
+        private long hold(CharSequence input, int start, long match) {
+            if(match < 0) {
+                return match;
+            }
+            String word = input.subSequence(start, RuleMatcher.endOf(match)).toString();
+            if(word.equals("slow")) {
+                try {
+                    others.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                finished.add(word);
+            } else if(word.length() == 1 && Character.isLetter(word.charAt(0)) && seen.add(word)) {
+                finished.add(word);
+                others.countDown();
+            }
+            return match;
+        }
+    }
+}
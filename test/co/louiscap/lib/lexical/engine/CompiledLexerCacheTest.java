@@ -0,0 +1,199 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.automata.Dfa;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class CompiledLexerCacheTest {
+
+    private static final RuleSet LANGUAGE = TestRules.of(
+            "10 /if|else|int|integer/ KEYWORD",
+            "5 /[A-Za-zé_][A-Za-zé0-9_]*/ IDENT",
+            "5 /\\d+(\\.\\d+)?/ NUMBER",
+            "5 /[=;]/ OP",
+            "1 /\\s+/");
+
+    private static final String SOURCE = "integer intx = 3.25;\nif é_é else 42;\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredEntriesAreLoaded() throws IOException {
+        for (boolean mapTables : new boolean[] {true, false}) {
+            Path directory = folder.newFolder().toPath();
+            CompiledLexerCache first = new CompiledLexerCache(directory, mapTables);
+            DfaMatcher compiled = first.getDfaMatcher(LANGUAGE);
+            assertEquals(1L, first.getStatistics().get("cache.misses"));
+            assertTrue(Files.exists(entry(directory)));
+
+            CompiledLexerCache second = new CompiledLexerCache(directory, mapTables);
+            DfaMatcher loaded = second.getDfaMatcher(LANGUAGE);
+            assertEquals(1L, second.getStatistics().get("cache.hits"));
+            assertEquals(0L, second.getStatistics().get("cache.misses"));
+            assertEquals(compiled.getDfa().getStateCount(), loaded.getDfa().getStateCount());
+            assertEquals(TokenTrace.lex(LANGUAGE, compiled, SOURCE),
+                         TokenTrace.lex(LANGUAGE, loaded, SOURCE));
+        }
+    }
+
+    @Test
+    public void testKeysChangeWithTheRulesAndLibraryVersion() {
+        String key = CompiledLexerCache.keyOf(LANGUAGE);
+        assertEquals(key, CompiledLexerCache.keyOf(TestRules.of(
+                "10 /if|else|int|integer/ KEYWORD", "5 /[A-Za-zé_][A-Za-zé0-9_]*/ IDENT",
+                "5 /\\d+(\\.\\d+)?/ NUMBER", "5 /[=;]/ OP", "1 /\\s+/")));
+        RuleSet[] changed = {
+            TestRules.of("9 /if|else|int|integer/ KEYWORD"),
+            TestRules.of("10 /if|else|int/ KEYWORD"),
+            TestRules.of("10 /if|else|int|integer/ KEY"),
+            new RuleSet(Arrays.asList(new LexicalRule(10, "other", "if|else|int|integer",
+                                                      new String[] {"KEYWORD"})))
+        };
+        String base = CompiledLexerCache.keyOf(TestRules.of("10 /if|else|int|integer/ KEYWORD"));
+        for (RuleSet rules : changed) {
+            assertNotEquals(base, CompiledLexerCache.keyOf(rules));
+        }
+        assertNotEquals(CompiledLexerCache.keyOf(LANGUAGE, "1.0"),
+                        CompiledLexerCache.keyOf(LANGUAGE, "1.1"));
+        assertEquals(CompiledLexerCache.keyOf(LANGUAGE, "1.0"),
+                     CompiledLexerCache.keyOf(LANGUAGE, "1.0"));
+    }
+
+    @Test
+    public void testUnpackagedClassesAreIdentifiedByTheNewestClassFile() throws Exception {
+        Path classes = Paths.get(CompiledLexerCache.class.getProtectionDomain().getCodeSource()
+                                                   .getLocation().toURI());
+        Assume.assumeTrue(Files.isDirectory(classes));
+        String version = CompiledLexerCache.libraryVersion();
+        assertTrue(version, version.startsWith("classes-"));
+        long newest = Long.parseLong(version.substring("classes-".length()));
+        // Recompiling a class in another package must change the version too
+        for (Class<?> type : new Class<?>[] {CompiledLexerCache.class, Dfa.class}) {
+            Path file = classes.resolve(type.getName().replace('.', '/') + ".class");
+            assertTrue(type.getName(), newest >= file.toFile().lastModified());
+        }
+        assertEquals(CompiledLexerCache.keyOf(LANGUAGE, version),
+                     CompiledLexerCache.keyOf(LANGUAGE));
+    }
+
+    @Test
+    public void testBadMagicIsRebuilt() throws IOException {
+        assertRebuilt(0, new byte[] {0, 0, 0, 0});
+    }
+
+    @Test
+    public void testBadVersionIsRebuilt() throws IOException {
+        assertRebuilt(4, new byte[] {0, 0, 0, (byte) (CompiledLexerCache.FORMAT_VERSION + 1)});
+    }
+
+    @Test
+    public void testTruncatedEntriesAreRebuilt() throws IOException {
+        assertRebuilt(-1, null);
+    }
+
+    /**
+     * Damages an entry, then checks that each kind of cache rejects it, rebuilds it and loads the
+     * rebuilt entry next time
+     * @param offset The offset to overwrite, or -1 to cut the entry in half
+     */
+    private void assertRebuilt(long offset, byte[] bytes) throws IOException {
+        for (boolean mapTables : new boolean[] {true, false}) {
+            Path directory = folder.newFolder().toPath();
+            new CompiledLexerCache(directory, mapTables).getDfaMatcher(LANGUAGE);
+            try (RandomAccessFile file = new RandomAccessFile(entry(directory).toFile(), "rw")) {
+                if(offset < 0) {
+                    file.setLength(file.length() / 2);
+                } else {
+                    file.seek(offset);
+                    file.write(bytes);
+                }
+            }
+            CompiledLexerCache cache = new CompiledLexerCache(directory, mapTables);
+            DfaMatcher rebuilt = cache.getDfaMatcher(LANGUAGE);
+            assertEquals(1L, cache.getStatistics().get("cache.failures"));
+            assertEquals(1L, cache.getStatistics().get("cache.misses"));
+            assertEquals(TokenTrace.lex(LANGUAGE, DfaMatcher.compile(LANGUAGE), SOURCE),
+                         TokenTrace.lex(LANGUAGE, rebuilt, SOURCE));
+            CompiledLexerCache again = new CompiledLexerCache(directory, mapTables);
+            again.getDfaMatcher(LANGUAGE);
+            assertEquals(1L, again.getStatistics().get("cache.hits"));
+        }
+    }
+
+    @Test
+    public void testEntriesAreRewrittenOnceTranslatedToUtf8() throws IOException {
+        for (boolean mapTables : new boolean[] {true, false}) {
+            Path directory = folder.newFolder().toPath();
+            DfaMatcher compiled = new CompiledLexerCache(directory, mapTables).getDfaMatcher(LANGUAGE);
+            DfaMatcher loaded = new CompiledLexerCache(directory, mapTables).getDfaMatcher(LANGUAGE);
+            assertNull(loaded.getBuiltUtf8Dfa());
+            long before = Files.size(entry(directory));
+
+            // Translating a loaded matcher completes the entry
+            assertNotNull(loaded.getUtf8Dfa());
+            assertTrue(Files.size(entry(directory)) > before);
+            DfaMatcher complete = new CompiledLexerCache(directory, mapTables).getDfaMatcher(LANGUAGE);
+            assertNotNull(complete.getBuiltUtf8Dfa());
+            assertEquals(loaded.getUtf8Dfa().getStateCount(),
+                         complete.getBuiltUtf8Dfa().getStateCount());
+
+            // So does translating the matcher that was compiled in the first place
+            Files.delete(entry(directory));
+            compiled = new CompiledLexerCache(directory, mapTables).getDfaMatcher(LANGUAGE);
+            assertNotNull(compiled.getUtf8Dfa());
+            assertNotNull(new CompiledLexerCache(directory, mapTables).getDfaMatcher(LANGUAGE)
+                                  .getBuiltUtf8Dfa());
+        }
+    }
+
+    private static Path entry(Path directory) {
+        return directory.resolve(CompiledLexerCache.keyOf(LANGUAGE) + ".dfa");
+    }
+}
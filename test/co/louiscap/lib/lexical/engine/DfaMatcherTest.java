@@ -0,0 +1,176 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import javax.tools.ToolProvider;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class DfaMatcherTest {
+
+    private static final RuleSet LANGUAGE = TestRules.of(
+            "10 /if|else|int|integer/ KEYWORD",
+            "5 /[A-Za-z_][A-Za-z0-9_]*/ IDENT",
+            "5 /0x[0-9a-fA-F]+|\\d+(\\.\\d+)?/ NUMBER",
+            "5 /\"([^\"\\\\]|\\\\.)*\"/ STRING",
+            "5 /==|=|[-+*\\/;(){}]/ OP",
+            "1 /\\s+/");
+
+    @Test
+    public void testLongestMatchWins() {
+        List<LexicalToken<String>> tokens = lex(LANGUAGE, "iffy if 0x1F 3.25 ==");
+        assertEquals("IDENT:iffy KEYWORD:if NUMBER:0x1F NUMBER:3.25 OP:==", describe(tokens));
+    }
+
+    @Test
+    public void testPriorityBreaksTies() {
+        assertEquals("KEYWORD:integer KEYWORD:int IDENT:intx", describe(lex(LANGUAGE, "integer int intx")));
+    }
+
+    @Test
+    public void testSkippedRulesProduceNoTokens() {
+        assertEquals("STRING:\"a \\\" b\" OP:;", describe(lex(LANGUAGE, "  \"a \\\" b\"\n\t;  ")));
+    }
+
+    @Test
+    public void testNoMatchReportsOffset() {
+        try {
+            lex(LANGUAGE, "x = #");
+            fail("Expected no rule to match '#'");
+        } catch (LexicalException ex) {
+            assertEquals(4, ex.getOffset());
+        }
+    }
+
+    @Test
+    public void testSinksReceiveTypeIds() {
+        // Both keyword rules produce KEYWORD tokens, so they share a type id
+        RuleSet rules = TestRules.of("10 /if/ KEYWORD", "5 /[a-z]+/ IDENT", "10 /else/ KEYWORD",
+                                     "1 / +/");
+        assertEquals("0@0-2 1@3-4 0@5-9 ", TokenTrace.lex(rules, DfaMatcher.compile(rules), "if x else"));
+        Lexer lexer = new Lexer(rules, DfaMatcher.compile(rules));
+        String listed = describe(lexer.lex("if x else"));
+        assertEquals("KEYWORD:if IDENT:x KEYWORD:else", listed);
+        assertEquals(listed, describe(lexer.stream("if x else").collect(Collectors.toList())));
+    }
+
+    @Test
+    public void testUnboundedRepeatOfLargeBody() {
+        // The body is larger than the NFA builder's first arrays, so compiling it grows them
+        RuleSet rules = TestRules.of("1 /(alpha|beta|gamma|delta|epsilon|zeta|theta|iota|kappa"
+                                     + "|lambda|omicron|sigma|upsilon|omega)*;/ LIST");
+        assertEquals("LIST:alphaomegabetaalpha; LIST:;", describe(lex(rules, "alphaomegabetaalpha;;")));
+    }
+
+    @Test
+    public void testSpecialisedMatcherAgreesWithTables() {
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+        Random random = new Random(5);
+        for (int i = 0; i < 11; i++) {
+            RuleSet rules = i == 0 ? LANGUAGE : TestRules.random(random, 1 + random.nextInt(4));
+            String chars = i == 0 ? "if else 0x1F 3.25 \"a\\\" b\" == ;#\n" : TestRules.INPUT_CHARS;
+            DfaMatcher dfa = DfaMatcher.compile(rules);
+            RuleMatcher specialised = dfa.specialise(rules);
+            assertNotSame("Rules " + rules + ": " + dfa.getSpecialiseFailure(), dfa, specialised);
+            assertEquals(1, specialised.getStatistics().get("dfa.specialised"));
+            assertEquals(dfa.getDfa().getStateCount(), specialised.getStatistics().get("dfa.states"));
+            for (int j = 0; j < 20; j++) {
+                String input = TestRules.randomInput(random, chars, random.nextInt(40));
+                assertEquals("Rules " + rules + " on '" + input + "'", TokenTrace.lex(rules, dfa, input),
+                             TokenTrace.lex(rules, specialised, input));
+                for (int end = 0; end <= input.length(); end++) {
+                    assertEquals(dfa.matchPrefix(input, 0, end), specialised.matchPrefix(input, 0, end));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFailedSpecialisationIsReported() {
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+        // Enough keywords that the transitions written out as code exceed the method size limit
+        Random random = new Random(6);
+        StringBuilder keywords = new StringBuilder();
+        for (int i = 0; i < 1500; i++) {
+            keywords.append(i == 0 ? "" : "|").append(TestRules.randomInput(random, "abcdefghij", 8));
+        }
+        RuleSet rules = TestRules.of("5 /" + keywords + "/ KEYWORD", "1 / +/");
+        DfaMatcher dfa = DfaMatcher.compile(rules);
+        assertNull(dfa.getStatistics().get("dfa.specialised"));
+        RuleMatcher specialised = dfa.specialise(rules);
+        assertSame(dfa, specialised);
+        assertNotNull(dfa.getSpecialiseFailure());
+        assertEquals(0, dfa.getStatistics().get("dfa.specialised"));
+    }
+
+    @Test
+    public void testAgreesWithReferenceOnRandomRules() {
+        Random random = new Random(1);
+        for (int round = 0; round < 300; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            DfaMatcher dfa = DfaMatcher.compile(rules);
+            ReferenceMatcher reference = new ReferenceMatcher(rules);
+            for (int i = 0; i < 5; i++) {
+                String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, 40);
+                assertEquals(rules + " on '" + input + "'",
+                             TokenTrace.lex(rules, reference, input),
+                             TokenTrace.lex(rules, dfa, input));
+            }
+        }
+    }
+
+    static List<LexicalToken<String>> lex(RuleSet rules, String input) {
+        return new Lexer(rules, DfaMatcher.compile(rules)).lex(input);
+    }
+
+    static String describe(List<LexicalToken<String>> tokens) {
+        StringBuilder text = new StringBuilder();
+        for (LexicalToken<String> token : tokens) {
+            if(text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(token.getName()).append(':').append(token.getValue());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.regex.CharSet;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class DispatchTableTest {
+
+    private static final RuleSet RULES = TestRules.of(
+            "10 /if|else/ KEYWORD",
+            "5 /[\\p{L}_][\\p{L}\\p{N}_]*/ IDENT",
+            "5 /\\d+/ NUMBER",
+            "5 /[\\u2000-\\u206F]+/ PUNCTUATION",
+            "2 /(?=\\S)\\W/ OTHER",
+            "1 /\\s+/");
+
+    @Test
+    public void testCandidatesAreTheRulesThatCanStartWithEachChar() {
+        DispatchTable table = new DispatchTable(RULES);
+        for (int c = 0; c <= CharSet.MAX_CHAR; c++) {
+            assertArrayEquals("Candidates of " + c, expected(RULES, new boolean[RULES.size()], c),
+                              table.candidates((char) c));
+        }
+    }
+
+    @Test
+    public void testExcludedRulesAreNeverCandidates() {
+        boolean[] excluded = new boolean[RULES.size()];
+        excluded[0] = true;
+        excluded[4] = true;
+        DispatchTable table = new DispatchTable(RULES, excluded);
+        for (int c = 0; c <= CharSet.MAX_CHAR; c++) {
+            assertArrayEquals("Candidates of " + c, expected(RULES, excluded, c),
+                              table.candidates((char) c));
+        }
+    }
+
+    @Test
+    public void testEveryMatchingRuleIsACandidate() {
+        Random random = new Random(4);
+        for (int round = 0; round < 200; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            DispatchTable table = new DispatchTable(rules);
+            String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, 20);
+            for (int r = 0; r < rules.size(); r++) {
+                Matcher m = rules.get(r).getPattern().matcher(input);
+                for (int start = 0; start < input.length(); start++) {
+                    if(m.region(start, input.length()).lookingAt() && m.end() > start) {
+                        int[] candidates = table.candidates(input.charAt(start));
+                        assertTrue(rules.get(r) + " at " + start + " of '" + input + "'",
+                                   Arrays.binarySearch(candidates, r) >= 0);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] expected(RuleSet rules, boolean[] excluded, int c) {
+        int[] list = new int[rules.size()];
+        int count = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            CharSet firsts = rules.get(r).getFirstChars();
+            if(!excluded[r] && (firsts == null || firsts.contains(c))) {
+                list[count++] = r;
+            }
+        }
+        return Arrays.copyOf(list, count);
+    }
+}
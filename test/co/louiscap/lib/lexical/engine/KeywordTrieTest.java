@@ -0,0 +1,117 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class KeywordTrieTest {
+
+    private static final RuleSet RULES = TestRules.of(
+            "10 /if|else|int|integer/ KEYWORD",
+            "8 /==|=|<=|<|λ/ OP",
+            "6 /int|long/ TYPE",
+            "5 /[a-z]+/ IDENT",
+            "1 /(|;)/ SEMI");
+
+    @Test
+    public void testOnlyLiteralRulesAreHandled() {
+        KeywordTrie trie = KeywordTrie.of(RULES);
+        assertTrue(trie.handles(0));
+        assertTrue(trie.handles(1));
+        assertTrue(trie.handles(2));
+        assertFalse(trie.handles(3));
+        assertTrue(trie.handles(4));
+        assertEquals(4, trie.getRuleCount());
+        assertEquals(12, trie.getWordCount());
+        assertNull(KeywordTrie.of(TestRules.of("1 /[a-z]+/ IDENT")));
+    }
+
+    @Test
+    public void testLongestLiteralWins() {
+        KeywordTrie trie = KeywordTrie.of(RULES);
+        assertEquals(RuleMatcher.pack(0, 7), trie.match("integers", 0, 8));
+        assertEquals(RuleMatcher.pack(1, 2), trie.match("<=>", 0, 3));
+        assertEquals(RuleMatcher.pack(1, 1), trie.match("λx", 0, 2));
+        assertEquals(RuleMatcher.pack(4, 1), trie.match(";", 0, 1));
+        assertEquals(RuleMatcher.NO_MATCH, trie.match("in", 0, 2));
+        assertEquals(RuleMatcher.NO_MATCH, trie.match("integer", 1, 7));
+    }
+
+    @Test
+    public void testHigherPriorityRuleClaimsSharedWords() {
+        assertEquals(RuleMatcher.pack(0, 3), KeywordTrie.of(RULES).match("int", 0, 3));
+        assertEquals(RuleMatcher.pack(2, 4), KeywordTrie.of(RULES).match("long", 0, 4));
+    }
+
+    @Test
+    public void testContinuesPastProperPrefixes() {
+        KeywordTrie trie = KeywordTrie.of(RULES);
+        assertTrue(trie.continuesPast("inte", 0, 4));
+        assertTrue(trie.continuesPast("int", 0, 3));
+        assertFalse(trie.continuesPast("integer", 0, 7));
+        assertFalse(trie.continuesPast("ix", 0, 2));
+    }
+
+    @Test
+    public void testAgreesWithDfaOnRandomLiteralRules() {
+        Random random = new Random(6);
+        String chars = "abc";
+        for (int round = 0; round < 300; round++) {
+            String[] definitions = new String[1 + random.nextInt(4)];
+            for (int r = 0; r < definitions.length; r++) {
+                StringBuilder regex = new StringBuilder();
+                for (int a = random.nextInt(4); a >= 0; a--) {
+                    if(regex.length() > 0) {
+                        regex.append('|');
+                    }
+                    regex.append(TestRules.randomInput(random, chars, 1 + random.nextInt(4)));
+                }
+                definitions[r] = random.nextInt(3) + " /" + regex + "/ R" + r;
+            }
+            RuleSet rules = TestRules.of(definitions);
+            KeywordTrie trie = KeywordTrie.of(rules);
+            DfaMatcher dfa = DfaMatcher.compile(rules);
+            String input = TestRules.randomInput(random, chars, 30);
+            for (int start = 0; start < input.length(); start++) {
+                assertEquals(rules + " at " + start + " of '" + input + "'",
+                             dfa.match(input, start, input.length()),
+                             trie.match(input, start, input.length()));
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class LazyDfaMatcherTest {
+
+    private static final RuleSet LANGUAGE = TestRules.of(
+            "10 /if|else|int|integer/ KEYWORD",
+            "5 /[A-Za-z_][A-Za-z0-9_]*/ IDENT",
+            "5 /\\d+(\\.\\d+)?/ NUMBER",
+            "1 /\\s+/");
+
+    @Test
+    public void testAgreesWithDfa() {
+        String input = "integer int intx if iffy 3.25 else 42 elsewhere";
+        assertEquals(TokenTrace.lex(LANGUAGE, DfaMatcher.compile(LANGUAGE), input),
+                     TokenTrace.lex(LANGUAGE, LazyDfaMatcher.compile(LANGUAGE), input));
+    }
+
+    @Test
+    public void testMatchPrefixNeedsInputWhileAlive() {
+        LazyDfaMatcher matcher = LazyDfaMatcher.compile(LANGUAGE);
+        assertEquals(RuleMatcher.NEED_INPUT, matcher.matchPrefix("inte", 0, 4));
+        assertEquals(RuleMatcher.pack(0, 3), matcher.match("int", 0, 3));
+        assertEquals(RuleMatcher.pack(1, 4), matcher.matchPrefix("intx ", 0, 5));
+    }
+
+    @Test
+    public void testSmallCacheFallsBackToNfa() {
+        // Three states leave room only for the dead state, the start state and one other, so the
+        // cache flushes on almost every character and the matcher must switch to the NFA
+        LazyDfaMatcher matcher = LazyDfaMatcher.compile(LANGUAGE, 3);
+        String input = "integer int intx if iffy 3.25 else 42 elsewhere";
+        assertEquals(TokenTrace.lex(LANGUAGE, DfaMatcher.compile(LANGUAGE), input),
+                     TokenTrace.lex(LANGUAGE, matcher, input));
+        assertTrue(matcher.isFallingBack());
+        assertTrue(matcher.getStatistics().get("nfa.fallbacks").longValue() > 0);
+    }
+
+    @Test
+    public void testAgreesWithReferenceOnRandomRules() {
+        Random random = new Random(2);
+        for (int round = 0; round < 300; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            ReferenceMatcher reference = new ReferenceMatcher(rules);
+            // Alternate between a cache that never fills and one that is flushed constantly
+            LazyDfaMatcher lazy = LazyDfaMatcher.compile(rules, round % 2 == 0 ? 1024 : 4);
+            for (int i = 0; i < 5; i++) {
+                String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, 40);
+                assertEquals(rules + " on '" + input + "'",
+                             TokenTrace.lex(rules, reference, input),
+                             TokenTrace.lex(rules, lazy, input));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.tools.ToolProvider;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class LexerGeneratorTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+    }
+
+    @Test
+    public void testTableLexersAgreeWithTheDfaOnRandomRules() throws Exception {
+        Random random = new Random(41);
+        for (int round = 0; round < 10; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            List<String> inputs = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                inputs.add(TestRules.randomInput(random, TestRules.INPUT_CHARS,
+                                                 random.nextInt(40)));
+            }
+            String className = "TableLexer" + round;
+            assertAgrees(rules, new LexerGenerator(rules).generate("", className, false), className,
+                         inputs);
+        }
+    }
+
+    @Test
+    public void testTablesLongerThanOneLiteralAreSplit() throws Exception {
+        // Each keyword adds states whose rows are runs of the dead state broken by one exception
+        Random random = new Random(42);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            keywords.add(TestRules.randomInput(random, "abcdefghij", 8));
+        }
+        RuleSet rules = TestRules.of("5 /" + String.join("|", keywords) + "/ KEYWORD",
+                                     "4 /[a-z]+/ WORD", "1 / +/");
+        String source = new LexerGenerator(rules).generate("", "SplitLexer", false);
+        int table = source.indexOf("TRANSITIONS = unpack(");
+        String transitions = source.substring(table, source.indexOf("}, ", table));
+        assertTrue("Expected the transitions to be split over several literals",
+                   transitions.split("\",\n").length > 2);
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            // Keywords, their prefixes and extensions, and other words
+            String keyword = keywords.get(random.nextInt(keywords.size()));
+            inputs.add(keyword + " " + keyword.substring(0, 1 + random.nextInt(7)) + " " + keyword
+                       + "j " + TestRules.randomInput(random, "abcdefghij #", 12));
+        }
+        assertAgrees(rules, source, "SplitLexer", inputs);
+    }
+
+    /**
+     * Compiles a generated lexer and checks its matches between every two offsets of the inputs,
+     * its {@code lex} method and its {@code typeOf} switch against the DFA it was generated from
+     */
+    private static void assertAgrees(RuleSet rules, String source, String className,
+                                     List<String> inputs) throws Exception {
+        Class<?> generated = RuntimeCompiler.compile(className, source);
+        RuleMatcher matcher = (RuleMatcher) generated.getDeclaredConstructor().newInstance();
+        Method lex = generated.getMethod("lex", CharSequence.class, TokenSink.class);
+        Method typeOf = generated.getMethod("typeOf", int.class);
+        DfaMatcher dfa = DfaMatcher.compile(rules);
+        assertEquals(0, matcher.getStatistics().get("dfa.specialised"));
+        assertEquals(dfa.getDfa().getStateCount(), matcher.getStatistics().get("dfa.states"));
+        for (int rule = 0; rule < rules.size(); rule++) {
+            assertEquals(rules.getTokenTypes().getType(rule), typeOf.invoke(null, rule));
+        }
+        for (String input : inputs) {
+            String message = "Rules " + rules + " on '" + input + "'";
+            for (int start = 0; start <= input.length(); start++) {
+                for (int end = start; end <= input.length(); end++) {
+                    assertEquals(message, dfa.match(input, start, end),
+                                 matcher.match(input, start, end));
+                    assertEquals(message, dfa.matchPrefix(input, start, end),
+                                 matcher.matchPrefix(input, start, end));
+                }
+            }
+            TokenTrace trace = new TokenTrace();
+            try {
+                lex.invoke(matcher, input, trace);
+            } catch (InvocationTargetException ex) {
+                if(!(ex.getCause() instanceof LexicalException)) {
+                    throw ex;
+                }
+                trace.fail(((LexicalException) ex.getCause()).getOffset());
+            }
+            assertEquals(message, TokenTrace.lex(rules, dfa, input), trace.toString());
+        }
+    }
+}
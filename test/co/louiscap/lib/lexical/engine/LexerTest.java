@@ -0,0 +1,107 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class LexerTest {
+
+    private static final RuleSet WORDS = TestRules.of("5 /[a-z]+/ WORD", "1 / +/");
+
+    /**
+     * Three words and then a character no rule matches
+     */
+    private static final String BROKEN = "one two three # four";
+
+    @Test
+    public void testStreamsStopBeforeALaterError() {
+        AtomicInteger matches = new AtomicInteger();
+        Lexer lexer = new Lexer(WORDS, counting(DfaMatcher.compile(WORDS), matches));
+        assertEquals("WORD:one", describe(lexer.stream(BROKEN).limit(1).collect(Collectors.toList())));
+        // The word and the lookahead for a second token
+        assertTrue(matches.get() <= 3);
+        assertEquals("one", lexer.stream(BROKEN).findFirst().get().getValue());
+        assertEquals("WORD:one WORD:two WORD:three",
+                     describe(lexer.stream(BROKEN).limit(3).collect(Collectors.toList())));
+        try {
+            lexer.stream(BROKEN).limit(4).count();
+            fail("Expected the fourth token to fail");
+        } catch (LexicalException ex) {
+            assertEquals(14, ex.getOffset());
+        }
+    }
+
+    @Test
+    public void testIteratorsEndWithNoSuchElement() {
+        Iterator<LexicalToken<String>> tokens = new Lexer(WORDS, DfaMatcher.compile(WORDS))
+                .iterator("one two ");
+        assertEquals("one", tokens.next().getValue());
+        assertEquals("two", tokens.next().getValue());
+        assertFalse(tokens.hasNext());
+        try {
+            tokens.next();
+            fail("Expected the iterator to be exhausted");
+        } catch (NoSuchElementException ex) {
+            // The trailing space is skipped, so there is no third token
+        }
+    }
+
+    /**
+     * Wraps a matcher, counting each match it makes
+     */
+    private static RuleMatcher counting(RuleMatcher matcher, AtomicInteger matches) {
+        return new RuleMatcher() {
+            @Override
+            public long match(CharSequence input, int start, int end) {
+                matches.incrementAndGet();
+                return matcher.match(input, start, end);
+            }
+
+            @Override
+            public long matchPrefix(CharSequence input, int start, int end) {
+                matches.incrementAndGet();
+                return matcher.matchPrefix(input, start, end);
+            }
+        };
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class MappedLexerTest {
+
+    private static final RuleSet LANGUAGE = TestRules.of(
+            "10 /if|else|int|integer/ KEYWORD",
+            "5 /[A-Za-zé_][A-Za-zé0-9_]*/ IDENT",
+            "5 /\\d+(\\.\\d+)?/ NUMBER",
+            "5 /[=;]/ OP",
+            "1 /\\s+/");
+
+    private static final String SOURCE = "integer intx = 3.25;\nif é_é else 42;\nintegers\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEveryEncodingGivesTheSameTokens() throws IOException {
+        String expected = describe(new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE)).lex(SOURCE));
+        Charset[] encodings = { StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8,
+                                StandardCharsets.UTF_16BE };
+        RuleMatcher[] matchers = { DfaMatcher.compile(LANGUAGE), new PriorityRuleMatcher(LANGUAGE) };
+        for (Charset encoding : encodings) {
+            Path file = write(SOURCE.getBytes(encoding));
+            for (RuleMatcher matcher : matchers) {
+                for (int window = 16; window <= 40; window++) {
+                    assertEquals(encoding + " with " + matcher.getClass().getSimpleName()
+                                 + " in windows of " + window, expected,
+                                 describe(lex(new MappedLexer(LANGUAGE, matcher, window), file,
+                                              encoding)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSmallUtf8InputIsLexedAtTheByteLevel() throws IOException {
+        DfaMatcher dfa = DfaMatcher.compile(LANGUAGE);
+        List<LexicalToken<String>> expected = new Lexer(LANGUAGE, dfa).lex(SOURCE);
+        MappedLexer lexer = new MappedLexer(LANGUAGE, dfa, 16);
+        assertTrue(lexer.canLexUtf8());
+        Path file = write(SOURCE.getBytes(StandardCharsets.UTF_8));
+        List<Utf8Token> tokens = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            lexer.lexUtf8(MappedLexer.readFully(channel), tokens::add);
+        }
+        assertEquals(expected.size(), tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(expected.get(i).serialise(), tokens.get(i).serialise());
+            assertEquals(expected.get(i).serialise(), tokens.get(i).toLexicalToken().serialise());
+        }
+        assertFalse(new MappedLexer(LANGUAGE, new PriorityRuleMatcher(LANGUAGE), 16).canLexUtf8());
+    }
+
+    @Test
+    public void testAsciiHighBytesAreRejectedLikeTheStreamingLexer() throws IOException {
+        byte[] bytes = "if x = 1; café".getBytes(StandardCharsets.ISO_8859_1);
+        Path file = write(bytes);
+        DfaMatcher dfa = DfaMatcher.compile(LANGUAGE);
+        try {
+            lex(new MappedLexer(LANGUAGE, dfa, 16), file, StandardCharsets.US_ASCII);
+            fail("Expected the mapped lexer to reject a byte above 0x7F");
+        } catch (MalformedInputException ex) {
+            // Expected
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new StreamingLexer(LANGUAGE, dfa, 16).lex(channel, StandardCharsets.US_ASCII, t -> { });
+            fail("Expected the streaming lexer to reject a byte above 0x7F");
+        } catch (MalformedInputException ex) {
+            // Expected
+        }
+        assertEquals("KEYWORD:if IDENT:x OP:= NUMBER:1 OP:; IDENT:café",
+                     describe(lex(new MappedLexer(LANGUAGE, dfa, 16), file,
+                                  StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void testMalformedDecodedInputIsRejectedLikeTheStreamingLexer() throws IOException {
+        byte[] utf8 = { 'i', 'f', ' ', 'x', ' ', '=', ' ', (byte) 0xFF, '1', ';' };
+        byte[] utf16 = { 0, 'i', 0, 'f', 0, ' ', (byte) 0xDC, 0, 0, 'x' };
+        assertMalformed(utf8, 7, StandardCharsets.UTF_8, new PriorityRuleMatcher(LANGUAGE));
+        assertMalformed(utf16, 6, StandardCharsets.UTF_16BE, DfaMatcher.compile(LANGUAGE));
+        assertMalformed(utf16, 6, StandardCharsets.UTF_16BE, new PriorityRuleMatcher(LANGUAGE));
+    }
+
+    private void assertMalformed(byte[] bytes, int valid, Charset encoding, RuleMatcher matcher)
+            throws IOException {
+        Path file = write(bytes);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new StreamingLexer(LANGUAGE, matcher, 16).lex(channel, encoding, t -> { });
+            fail("Expected the streaming lexer to reject malformed " + encoding);
+        } catch (MalformedInputException ex) {
+            // Expected
+        }
+        List<LexicalToken<String>> tokens = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new MappedLexer(LANGUAGE, matcher, 16).lex(channel, encoding, tokens::add);
+            fail("Expected the mapped lexer to reject malformed " + encoding);
+        } catch (MalformedInputException ex) {
+            // Expected
+        }
+        String before = describe(new Lexer(LANGUAGE, matcher).lex(new String(bytes, 0, valid,
+                                                                                 encoding)));
+        assertEquals("Tokens before the malformed input", describe(tokens),
+                     before.substring(0, describe(tokens).length()));
+    }
+
+    @Test
+    public void testNoMatchReportsTheFileOffset() throws IOException {
+        RuleSet rules = TestRules.of("5 /[a-z]+/ IDENT", "1 /\\s+/");
+        Path file = write("abc def ghi jkl mno pqr 7".getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            lex(new MappedLexer(rules, DfaMatcher.compile(rules), 16), file,
+                StandardCharsets.ISO_8859_1);
+            fail("Expected no rule to match '7'");
+        } catch (LexicalException ex) {
+            assertEquals(24, ex.getOffset());
+        }
+    }
+
+    @Test
+    public void testTokenLongerThanAWindowFails() throws IOException {
+        Path file = write("a verylongidentifiername b".getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            lex(new MappedLexer(LANGUAGE, DfaMatcher.compile(LANGUAGE), 16), file,
+                StandardCharsets.ISO_8859_1);
+            fail("Expected the identifier not to fit in a window");
+        } catch (LexicalException ex) {
+            assertEquals(2, ex.getOffset());
+        }
+    }
+
+    private Path write(byte[] bytes) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static List<LexicalToken<String>> lex(MappedLexer lexer, Path file, Charset encoding)
+            throws IOException {
+        List<LexicalToken<String>> tokens = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            lexer.lex(channel, encoding, tokens::add);
+        }
+        return tokens;
+    }
+}
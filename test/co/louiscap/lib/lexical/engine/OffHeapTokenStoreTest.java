@@ -0,0 +1,187 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class OffHeapTokenStoreTest {
+
+    /**
+     * The number of records in a segment of a store
+     */
+    private static final int SEGMENT = 1 << 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTokensCrossSegmentBoundaries() throws IOException {
+        try (OffHeapTokenStore store = OffHeapTokenStore.direct()) {
+            int count = SEGMENT + 5;
+            for (int i = 0; i < count; i++) {
+                store.add(i % 7, 3L * i, i % 3 + 1);
+            }
+            assertEquals(count, store.size());
+            OffHeapTokenStore.Cursor cursor = store.cursor();
+            cursor.seek(SEGMENT - 2);
+            for (long i = SEGMENT - 2; i < count; i++) {
+                if(i > SEGMENT - 2) {
+                    assertTrue(cursor.next());
+                }
+                assertEquals(i, cursor.getIndex());
+                assertEquals(i % 7, cursor.getType());
+                assertEquals(3L * i, cursor.getStart());
+                assertEquals(3L * i + i % 3 + 1, cursor.getEnd());
+            }
+            assertFalse(cursor.next());
+            cursor.seek(SEGMENT);
+            assertEquals(3L * SEGMENT, cursor.getStart());
+            cursor.seek(SEGMENT - 1);
+            assertEquals(3L * (SEGMENT - 1), cursor.getStart());
+        }
+    }
+
+    @Test
+    public void testBaseOffsetsAbove2GB() throws IOException {
+        try (OffHeapTokenStore store = OffHeapTokenStore.direct()) {
+            long base = 3L << 31;
+            store.setBase(base);
+            store.onToken(2, 5, 9);
+            store.setBase(base + Integer.MAX_VALUE);
+            store.onToken(4, 0, 1);
+            OffHeapTokenStore.Cursor cursor = store.cursor();
+            assertTrue(cursor.next());
+            assertEquals(2, cursor.getType());
+            assertEquals(base + 5, cursor.getStart());
+            assertEquals(base + 9, cursor.getEnd());
+            assertTrue(cursor.next());
+            assertEquals(4, cursor.getType());
+            assertEquals(base + Integer.MAX_VALUE, cursor.getStart());
+            assertEquals(1, cursor.getLength());
+        }
+    }
+
+    @Test
+    public void testMappedStoresDeleteTheirFile() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        OffHeapTokenStore store = OffHeapTokenStore.mapped(directory);
+        for (int i = 0; i < SEGMENT + 1; i++) {
+            store.add(1, i, 1);
+        }
+        // Some platforms unlink the file as soon as it is opened, others only once it is closed
+        assertTrue(count(directory) <= 1);
+        OffHeapTokenStore.Cursor cursor = store.cursor();
+        cursor.seek(SEGMENT);
+        assertEquals(SEGMENT, cursor.getStart());
+        store.close();
+        assertEquals(0, count(directory));
+        store.close();
+    }
+
+    @Test
+    public void testUseAfterCloseFails() throws IOException {
+        OffHeapTokenStore store = OffHeapTokenStore.direct();
+        store.add(1, 0, 4);
+        OffHeapTokenStore.Cursor cursor = store.cursor();
+        assertTrue(cursor.next());
+        OffHeapTokenStore.Cursor atEnd = store.cursor();
+        atEnd.seek(0);
+        store.close();
+        List<Runnable> uses = new ArrayList<>();
+        uses.add(cursor::getType);
+        uses.add(cursor::getStart);
+        uses.add(cursor::getLength);
+        uses.add(() -> cursor.seek(0));
+        uses.add(atEnd::next);
+        uses.add(store::cursor);
+        uses.add(() -> store.add(1, 4, 4));
+        uses.add(() -> store.onToken(1, 4, 8));
+        for (int i = 0; i < uses.size(); i++) {
+            try {
+                uses.get(i).run();
+                fail("Expected use " + i + " to fail after closing the store");
+            } catch (IllegalStateException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testMappedUtf8FilesLexIntoAStore() throws IOException {
+        RuleSet rules = TestRules.of("5 /[a-zé]+/ WORD", "5 /\\d+/ NUMBER", "1 /\\s+/");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append(i % 3 == 0 ? "été " : "word" + " ").append(i).append('\n');
+        }
+        Path file = folder.newFile().toPath();
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes);
+        DfaMatcher dfa = DfaMatcher.compile(rules);
+        List<Utf8Token> expected = new ArrayList<>();
+        new Utf8Lexer(rules, dfa.getUtf8Dfa()).lex(ByteBuffer.wrap(bytes), expected::add);
+        try (OffHeapTokenStore store = OffHeapTokenStore.direct();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new MappedLexer(rules, dfa, 16).lexUtf8(channel, store);
+            assertEquals(expected.size(), store.size());
+            OffHeapTokenStore.Cursor cursor = store.cursor();
+            for (Utf8Token token : expected) {
+                assertTrue(cursor.next());
+                assertEquals(token.getType(), cursor.getType());
+                assertEquals(token.getStartOffset(), cursor.getStart());
+                assertEquals(token.getEndOffset(), cursor.getEnd());
+            }
+        }
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class PriorityRuleMatcherTest {
+
+    @Test
+    public void testBacktrackingRuleDoesNotChangeOtherRules() {
+        RuleSet rules = TestRules.of("10 /if|else|int|integer/ KW",
+                                     "5 /[\\p{L}_][\\p{L}\\p{N}_]*/ ID",
+                                     "1 /(?=#)#/ LOOK",
+                                     "1 /\\s+/");
+        assertFalse(rules.isLinear());
+        assertEquals("KW:integer KW:int ID:intx LOOK:#", describe(lex(rules, "integer int intx #")));
+    }
+
+    @Test
+    public void testLaterLiteralAlternativesAreLongestMatches() {
+        RuleSet rules = TestRules.of("1 /if|ifx/ A");
+        assertEquals(RuleMatcher.pack(0, 3), new PriorityRuleMatcher(rules).match("ifx", 0, 3));
+    }
+
+    @Test
+    public void testNullableLoopBodiesMatchLikeDfa() {
+        assertSameEnd("1 /x(y?|z)+/ A", "xzz", 3);
+        assertSameEnd("1 /(a?|b)+/ A", "b", 1);
+        assertSameEnd("1 /(a|ab)(c|bcd)/ A", "abcd", 4);
+    }
+
+    @Test
+    public void testBacktrackingRulesTakeTheFirstMatch() {
+        RuleSet rules = TestRules.of("1 /(?=\\w)(int|integer)/ A");
+        assertEquals(RuleMatcher.pack(0, 3), new PriorityRuleMatcher(rules).match("integer", 0, 7));
+    }
+
+    @Test
+    public void testBacktrackingRulesAreAnchoredAtTheStart() {
+        RuleSet rules = TestRules.of("1 /(?=b)b+/ B");
+        PriorityRuleMatcher matcher = new PriorityRuleMatcher(rules);
+        assertEquals(RuleMatcher.NO_MATCH, matcher.match("abb", 0, 3));
+        assertEquals(RuleMatcher.pack(0, 3), matcher.match("abb", 1, 3));
+    }
+
+    @Test
+    public void testBacktrackingRulesStopAtTheRegionEnd() {
+        RuleSet rules = TestRules.of("1 /(?=b)b+/ B");
+        PriorityRuleMatcher matcher = new PriorityRuleMatcher(rules);
+        assertEquals(RuleMatcher.pack(0, 2), matcher.match("bbbb", 0, 2));
+        assertEquals(RuleMatcher.NO_MATCH, matcher.match("bbbb", 2, 2));
+    }
+
+    @Test
+    public void testMatchersFollowANewInput() {
+        RuleSet rules = TestRules.of("1 /(?=b)b+/ B");
+        PriorityRuleMatcher matcher = new PriorityRuleMatcher(rules);
+        assertEquals(RuleMatcher.pack(0, 2), matcher.match("bb", 0, 2));
+        assertEquals(RuleMatcher.NO_MATCH, matcher.match("ab", 0, 2));
+        assertEquals(RuleMatcher.pack(0, 4), matcher.match(new StringBuilder("bbbb"), 0, 4));
+    }
+
+    @Test
+    public void testMatchPrefixNeedsInputWhileARuleCanContinue() {
+        RuleSet rules = TestRules.of("10 /if|integer/ KW", "5 /[a-z]+/ ID", "1 /(?=x)x/ LOOK");
+        PriorityRuleMatcher matcher = new PriorityRuleMatcher(rules);
+        assertEquals(RuleMatcher.NEED_INPUT, matcher.matchPrefix("inte", 0, 4));
+        assertEquals(RuleMatcher.pack(1, 4), matcher.matchPrefix("inte ", 0, 5));
+    }
+
+    @Test
+    public void testAgreesWithReferenceOnRandomRules() {
+        Random random = new Random(3);
+        for (int round = 0; round < 300; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            PriorityRuleMatcher matcher = new PriorityRuleMatcher(rules);
+            ReferenceMatcher reference = new ReferenceMatcher(rules);
+            for (int i = 0; i < 5; i++) {
+                String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, 40);
+                assertEquals(rules + " on '" + input + "'",
+                             TokenTrace.lex(rules, reference, input),
+                             TokenTrace.lex(rules, matcher, input));
+            }
+        }
+    }
+
+    private static void assertSameEnd(String definition, String input, int expected) {
+        RuleSet rules = TestRules.of(definition);
+        long match = RuleMatcher.pack(0, expected);
+        assertEquals(definition, match, DfaMatcher.compile(rules).match(input, 0, input.length()));
+        assertEquals(definition, match, new PriorityRuleMatcher(rules).match(input, 0, input.length()));
+    }
+
+    private static List<LexicalToken<String>> lex(RuleSet rules, String input) {
+        return new Lexer(rules, new PriorityRuleMatcher(rules)).lex(input);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds matches the slow and obvious way: for each rule, {@link Matcher#matches()} is asked about
+ * every region from the start position, longest first, and the longest match of any rule wins
+ * with ties going to the higher priority rule. Every other matcher must give the same results on
+ * rules without look-around or back-references.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class ReferenceMatcher implements RuleMatcher {
+
+    private final Pattern[] patterns;
+
+    public ReferenceMatcher(RuleSet rules) {
+        this.patterns = new Pattern[rules.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = rules.get(i).getPattern();
+        }
+    }
+
+    @Override
+    public long match(CharSequence input, int start, int end) {
+        int bestRule = -1, bestEnd = start;
+        for (int i = 0; i < patterns.length; i++) {
+            Matcher m = patterns[i].matcher(input);
+            for (int e = end; e > bestEnd; e--) {
+                if(m.region(start, e).matches()) {
+                    bestRule = i;
+                    bestEnd = e;
+                    break;
+                }
+            }
+        }
+        return bestRule < 0 ? NO_MATCH : RuleMatcher.pack(bestRule, bestEnd);
+    }
+
+    @Override
+    public long matchPrefix(CharSequence input, int start, int end) {
+        throw new UnsupportedOperationException("The reference matcher needs all of its input");
+    }
+}
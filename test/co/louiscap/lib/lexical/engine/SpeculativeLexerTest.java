@@ -0,0 +1,158 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Test;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class SpeculativeLexerTest {
+
+    /**
+     * String literals may hold spaces and '#', so a chunk that starts inside one lexes the rest
+     * of the literal as other tokens, or fails on a '#' that is really quoted
+     */
+    private static final RuleSet STRINGS = TestRules.of(
+            "5 /\"[^\"]*\"/ STRING",
+            "5 /[a-z]+/ IDENT",
+            "1 /\\s+/");
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testRandomRulesMatchTheSequentialLexer() {
+        Random random = new Random(11);
+        for (int i = 0; i < 100; i++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, random.nextInt(200));
+            int minChunkSize = 1 + random.nextInt(8);
+            assertEquals("Rules " + rules + " in chunks of " + minChunkSize + " on '" + input + "'",
+                         lexSequential(rules, input), lexSpeculative(rules, input, minChunkSize));
+        }
+    }
+
+    @Test
+    public void testChunksStartingInsideStringsResynchronise() {
+        Random random = new Random(12);
+        for (int i = 0; i < 50; i++) {
+            String input = randomStrings(random, 60, false);
+            for (int minChunkSize = 1; minChunkSize <= 16; minChunkSize++) {
+                assertEquals("Chunks of " + minChunkSize + " on '" + input + "'",
+                             lexSequential(STRINGS, input),
+                             lexSpeculative(STRINGS, input, minChunkSize));
+            }
+        }
+        SpeculativeLexer lexer = new SpeculativeLexer(STRINGS, () -> DfaMatcher.compile(STRINGS),
+                                                      pool, 4);
+        lexer.lex("ab \"cd ef gh ij kl\" mn \"op qr st\" uv");
+        assertTrue("Expected a chunk to start inside a string",
+                   lexer.getStatistics().get("parallel.resyncs").longValue() > 0);
+    }
+
+    @Test
+    public void testQuotedErrorsInsideAChunkAreIgnored() {
+        String input = "ab \"cd # ef # gh # ij\" kl \"# # #\" mn";
+        for (int minChunkSize = 1; minChunkSize <= 16; minChunkSize++) {
+            assertEquals("Chunks of " + minChunkSize, lexSequential(STRINGS, input),
+                         lexSpeculative(STRINGS, input, minChunkSize));
+        }
+    }
+
+    @Test
+    public void testErrorsAfterAResyncAreReportedAtTheirOffset() {
+        Random random = new Random(13);
+        for (int i = 0; i < 50; i++) {
+            String input = randomStrings(random, 60, true);
+            for (int minChunkSize = 1; minChunkSize <= 16; minChunkSize++) {
+                assertEquals("Chunks of " + minChunkSize + " on '" + input + "'",
+                             lexSequential(STRINGS, input),
+                             lexSpeculative(STRINGS, input, minChunkSize));
+            }
+        }
+        String input = "ab \"cd ef gh ij kl mn\" op # qr";
+        assertEquals("!26", lexSpeculative(STRINGS, input, 3));
+        assertEquals(lexSequential(STRINGS, input), lexSpeculative(STRINGS, input, 3));
+    }
+
+    /**
+     * Creates an input of identifiers and string literals holding spaces and '#'
+     * @param unquotedErrors True to also put '#' outside of string literals
+     */
+    private static String randomStrings(Random random, int length, boolean unquotedErrors) {
+        StringBuilder input = new StringBuilder();
+        while (input.length() < length) {
+            switch(random.nextInt(unquotedErrors ? 4 : 3)) {
+                case 0:
+                    input.append('"').append(TestRules.randomInput(random, "ab #", random.nextInt(12)))
+                         .append('"');
+                    break;
+                case 1:
+                    input.append(TestRules.randomInput(random, "abc", 1 + random.nextInt(4)));
+                    break;
+                case 2:
+                    input.append(' ');
+                    break;
+                default:
+                    input.append('#');
+                    break;
+            }
+        }
+        return input.toString();
+    }
+
+    private static String lexSequential(RuleSet rules, String input) {
+        try {
+            return describe(new Lexer(rules, DfaMatcher.compile(rules)).lex(input));
+        } catch (LexicalException ex) {
+            return "!" + ex.getOffset();
+        }
+    }
+
+    private String lexSpeculative(RuleSet rules, String input, int minChunkSize) {
+        try {
+            return describe(new SpeculativeLexer(rules, () -> DfaMatcher.compile(rules), pool,
+                                                 minChunkSize).lex(input));
+        } catch (LexicalException ex) {
+            return "!" + ex.getOffset();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Test;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class StateMappingLexerTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testRandomRulesMatchTheSequentialLexer() {
+        Random random = new Random(21);
+        for (int i = 0; i < 150; i++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, random.nextInt(200));
+            assertChunkSizesAgree(rules, input, 1 + random.nextInt(8));
+        }
+    }
+
+    @Test
+    public void testRandomRulesWithErrorsMatchTheSequentialLexer() {
+        Random random = new Random(22);
+        for (int i = 0; i < 150; i++) {
+            ArrayList<LexicalRule> definitions = new ArrayList<>();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                definitions.add(TestRules.rule(random.nextInt(4) + 1 + " /"
+                        + TestRules.randomRegex(random) + "/ R" + j));
+            }
+            definitions.add(TestRules.rule("0 / +/"));
+            RuleSet rules = new RuleSet(definitions);
+            String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, random.nextInt(100));
+            assertChunkSizesAgree(rules, input, 1 + random.nextInt(8));
+        }
+    }
+
+    @Test
+    public void testTokensCrossingWholeChunks() {
+        RuleSet rules = TestRules.of("5 /a+/ A", "5 /\"[^\"]*\"/ STRING", "1 / +/");
+        String input = "a aaaaaaaaaaaaaaaaaaaaaaaaaaaaa a \"bc de fg hi jk lm no pq rs\" aa";
+        for (int minChunkSize = 1; minChunkSize <= input.length(); minChunkSize++) {
+            assertChunkSizesAgree(rules, input, minChunkSize);
+        }
+    }
+
+    @Test
+    public void testChunkBoundariesAtTokenEnds() {
+        RuleSet rules = TestRules.of("5 /[a-z]+/ IDENT", "1 / +/");
+        // 32 chars in chunks of 2, so every boundary is also the end of a token
+        String input = "ab  cd  ef  gh  ij  kl  mn  op  ";
+        assertChunkSizesAgree(rules, input, 2);
+        assertChunkSizesAgree(rules, input, 4);
+        assertChunkSizesAgree(rules, input, 8);
+    }
+
+    @Test
+    public void testErrorsInsideAChunk() {
+        RuleSet rules = TestRules.of("5 /[a-z]+/ IDENT", "1 / +/");
+        String input = "abc def ghi # jkl mno pqr stu";
+        for (int minChunkSize = 1; minChunkSize <= input.length(); minChunkSize++) {
+            assertChunkSizesAgree(rules, input, minChunkSize);
+        }
+        assertEquals("!12", lexStateMapping(rules, input, 4));
+    }
+
+    @Test
+    public void testErrorsInsideACrossingToken() {
+        // The token at 4 can only end with a 'c', which it never reaches
+        RuleSet rules = TestRules.of("5 /ab*c/ T", "1 / +/");
+        String input = "abc abbbbbbbbbbbbbbbbbbbbd abc";
+        for (int minChunkSize = 1; minChunkSize <= input.length(); minChunkSize++) {
+            assertChunkSizesAgree(rules, input, minChunkSize);
+        }
+        assertEquals("!4", lexStateMapping(rules, input, 2));
+    }
+
+    private void assertChunkSizesAgree(RuleSet rules, String input, int minChunkSize) {
+        assertEquals("Chunks of " + minChunkSize + " on '" + input + "'", lexSequential(rules, input),
+                     lexStateMapping(rules, input, minChunkSize));
+    }
+
+    private static String lexSequential(RuleSet rules, String input) {
+        try {
+            return describe(new Lexer(rules, DfaMatcher.compile(rules)).lex(input));
+        } catch (LexicalException ex) {
+            return "!" + ex.getOffset();
+        }
+    }
+
+    private String lexStateMapping(RuleSet rules, String input, int minChunkSize) {
+        try {
+            return describe(new StateMappingLexer(rules, DfaMatcher.compile(rules), pool,
+                                                  minChunkSize).lex(input));
+        } catch (LexicalException ex) {
+            return "!" + ex.getOffset();
+        }
+    }
+}
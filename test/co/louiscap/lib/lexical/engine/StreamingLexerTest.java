@@ -0,0 +1,261 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class StreamingLexerTest {
+
+    private static final RuleSet LANGUAGE = TestRules.of(
+            "10 /if|else|int|integer/ KEYWORD",
+            "5 /[A-Za-zé_][A-Za-zé0-9_]*/ IDENT",
+            "5 /\\d+(\\.\\d+)?/ NUMBER",
+            "5 /\"[^\"]*\"/ STRING",
+            "5 /[=;]/ OP",
+            "2 /\\/\\/[^\\n]*/",
+            "1 /\\s+/");
+
+    private static final String SOURCE = "integer intx = 3.25;\n"
+            + "if \"a string\nover lines\" else 42 // comment\né_é 7\n";
+
+    @Test
+    public void testSmallBuffersGiveTheSameTokens() throws IOException {
+        String expected = describe(new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE)).lex(SOURCE));
+        RuleMatcher[] matchers = { DfaMatcher.compile(LANGUAGE), LazyDfaMatcher.compile(LANGUAGE),
+                                   new PriorityRuleMatcher(LANGUAGE) };
+        for (RuleMatcher matcher : matchers) {
+            for (int size = 24; size <= 48; size++) {
+                StreamingLexer lexer = new StreamingLexer(LANGUAGE, matcher, size);
+                assertEquals(matcher.getClass().getSimpleName() + " with " + size + " chars",
+                             expected, describe(lex(lexer, new TrickleReader(SOURCE, 3))));
+            }
+        }
+    }
+
+    @Test
+    public void testBacktrackingRulesCrossRefills() throws IOException {
+        RuleSet rules = TestRules.of("5 /[a-z]+/ IDENT", "2 /(?=\\/)\\/\\/[^\\n]*/ COMMENT",
+                                     "1 /\\s+/");
+        String input = "a // one\nbb // two\n";
+        PriorityRuleMatcher matcher = new PriorityRuleMatcher(rules);
+        String expected = describe(new Lexer(rules, matcher).lex(input));
+        for (int size = 9; size <= 20; size++) {
+            StreamingLexer lexer = new StreamingLexer(rules, matcher, size);
+            assertEquals(expected, describe(lex(lexer, new TrickleReader(input, 3))));
+        }
+    }
+
+    @Test
+    public void testTokenLongerThanTheBufferFails() throws IOException {
+        StreamingLexer lexer = new StreamingLexer(LANGUAGE, DfaMatcher.compile(LANGUAGE), 8);
+        try {
+            lex(lexer, new StringReader("a verylongidentifier b"));
+            fail("Expected the identifier not to fit in the buffer");
+        } catch (LexicalException ex) {
+            assertEquals(2, ex.getOffset());
+        }
+    }
+
+    @Test
+    public void testNoMatchReportsTheStreamOffset() throws IOException {
+        StreamingLexer lexer = new StreamingLexer(LANGUAGE, DfaMatcher.compile(LANGUAGE), 8);
+        try {
+            lex(lexer, new TrickleReader("if else int 42 # x", 2));
+            fail("Expected no rule to match '#'");
+        } catch (LexicalException ex) {
+            assertEquals(15, ex.getOffset());
+        }
+    }
+
+    @Test
+    public void testChannelsAreDecoded() throws IOException {
+        byte[] bytes = "é_é int".getBytes(StandardCharsets.UTF_8);
+        StreamingLexer lexer = new StreamingLexer(LANGUAGE, DfaMatcher.compile(LANGUAGE), 8);
+        List<LexicalToken<String>> tokens = new ArrayList<>();
+        lexer.lex(Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8,
+                  tokens::add);
+        assertEquals("IDENT:é_é KEYWORD:int", describe(tokens));
+    }
+
+    @Test
+    public void testAgreesWithLexerOnRandomRules() throws IOException {
+        Random random = new Random(8);
+        for (int round = 0; round < 200; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            DfaMatcher dfa = DfaMatcher.compile(rules);
+            String input = TestRules.randomInput(random, TestRules.INPUT_CHARS, 60);
+            String expected = TokenTrace.lex(rules, dfa, input);
+            if(expected.contains("!")) {
+                continue;
+            }
+            List<LexicalToken<String>> tokens;
+            try {
+                tokens = lex(new StreamingLexer(rules, dfa, 64), new TrickleReader(input, 5));
+            } catch (LexicalException ex) {
+                throw new AssertionError(rules + " on '" + input + "'", ex);
+            }
+            assertEquals(rules + " on '" + input + "'",
+                         describe(new Lexer(rules, dfa).lex(input)), describe(tokens));
+        }
+    }
+
+    @Test
+    public void testStreamsOnlyReadWhatTheyNeed() {
+        RuleSet words = TestRules.of("5 /[a-z]+/ WORD", "1 / +/");
+        StreamingLexer lexer = new StreamingLexer(words, DfaMatcher.compile(words), 64);
+        EndlessReader reader = new EndlessReader("word ");
+        assertEquals("WORD:word WORD:word WORD:word",
+                     describe(lexer.stream(reader).limit(3).collect(Collectors.toList())));
+        assertTrue("Read " + reader.read + " chars", reader.read <= 64);
+
+        reader = new EndlessReader("ab ");
+        assertEquals("ab", lexer.stream(reader).findFirst().get().getValue());
+        assertTrue("Read " + reader.read + " chars", reader.read <= 64);
+        // Nothing is read until a token is asked for
+        reader = new EndlessReader("ab ");
+        lexer.stream(reader);
+        assertEquals(0, reader.read);
+    }
+
+    @Test
+    public void testStreamsStopBeforeALaterError() {
+        StreamingLexer lexer = new StreamingLexer(LANGUAGE, DfaMatcher.compile(LANGUAGE), 32);
+        String input = "int x = 1; # later";
+        assertEquals("KEYWORD:int IDENT:x OP:=",
+                     describe(lexer.stream(new StringReader(input)).limit(3)
+                                   .collect(Collectors.toList())));
+        try {
+            lexer.stream(new StringReader(input)).count();
+            fail("Expected '#' to fail");
+        } catch (LexicalException ex) {
+            assertEquals(11, ex.getOffset());
+        }
+    }
+
+    @Test
+    public void testIteratorsEndWithNoSuchElement() {
+        Iterator<LexicalToken<String>> tokens = new StreamingLexer(
+                LANGUAGE, DfaMatcher.compile(LANGUAGE), 32).iterator(new TrickleReader("x = 1 ", 2));
+        assertEquals("IDENT:x OP:= NUMBER:1", describe(Arrays.asList(tokens.next(), tokens.next(),
+                                                                     tokens.next())));
+        assertFalse(tokens.hasNext());
+        try {
+            tokens.next();
+            fail("Expected the iterator to be exhausted");
+        } catch (NoSuchElementException ex) {
+            // The trailing space is skipped, so there is no fourth token
+        }
+    }
+
+    private static List<LexicalToken<String>> lex(StreamingLexer lexer, Reader reader)
+            throws IOException {
+        List<LexicalToken<String>> tokens = new ArrayList<>();
+        lexer.lex(reader, tokens::add);
+        return tokens;
+    }
+
+    /**
+     * Repeats a pattern forever, counting the chars read
+     */
+    private static final class EndlessReader extends Reader {
+
+        private final String pattern;
+        private long read;
+
+        EndlessReader(String pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                cbuf[off + i] = pattern.charAt((int) (read++ % pattern.length()));
+            }
+            return len;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Returns at most a few chars from each read, so that refills happen at every position
+     */
+    private static final class TrickleReader extends Reader {
+
+        private final String text;
+        private final int step;
+        private int position;
+        private int calls;
+
+        TrickleReader(String text, int step) {
+            this.text = text;
+            this.step = step;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if(position == text.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(len, 1 + calls++ % step), text.length() - position);
+            text.getChars(position, position + count, cbuf, off);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
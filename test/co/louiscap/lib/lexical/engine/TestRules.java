@@ -0,0 +1,155 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Builds rule sets for tests, either from definitions written the way a lexical file writes them
+ * ({@code priority /regex/ names}) or at random, for comparing matchers with each other
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class TestRules {
+
+    /**
+     * The characters random inputs are made of, which every random rule set can lex
+     */
+    public static final String INPUT_CHARS = "abcx_9 \n";
+
+    private static final String[] ATOMS = { "a", "b", "c", "x", "[ab]", "[^a\\n]", "\\w", "ab",
+                                            "\\d", "_" };
+
+    private TestRules() {
+    }
+
+    /**
+     * Creates a rule set from lexical file definitions
+     * @param definitions Rules such as {@code 10 /if|else/ KEYWORD}; a rule with no names is
+     * skipped
+     * @return A new rule set
+     */
+    public static RuleSet of(String... definitions) {
+        ArrayList<LexicalRule> rules = new ArrayList<>();
+        for (String definition : definitions) {
+            rules.add(rule(definition));
+        }
+        return new RuleSet(rules);
+    }
+
+    /**
+     * Creates a single rule from a lexical file definition
+     * @param definition A rule such as {@code 10 /if|else/ KEYWORD}
+     * @return A new rule
+     */
+    public static LexicalRule rule(String definition) {
+        int open = definition.indexOf('/'), close = definition.lastIndexOf('/');
+        String names = definition.substring(close + 1).trim();
+        return new LexicalRule(Integer.parseInt(definition.substring(0, open).trim()),
+                               definition.substring(open + 1, close),
+                               names.isEmpty() ? new String[0] : names.split("\\s+"));
+    }
+
+    /**
+     * Creates a random rule set that can lex any string of {@link #INPUT_CHARS}, as its last rule
+     * matches any single character
+     * @param random The source of randomness
+     * @param count The number of random rules, besides the catch-all one
+     * @return A new rule set
+     */
+    public static RuleSet random(Random random, int count) {
+        ArrayList<LexicalRule> rules = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String names = random.nextInt(5) == 0 ? "" : "R" + i;
+            rules.add(rule(random.nextInt(4) + 1 + " /" + randomRegex(random) + "/ " + names));
+        }
+        rules.add(rule("0 /.|\\n/ OTHER"));
+        return new RuleSet(rules);
+    }
+
+    /**
+     * Creates a random regular expression from the features every matcher supports
+     * @param random The source of randomness
+     * @return The source of the expression
+     */
+    public static String randomRegex(Random random) {
+        return alternation(random, 0);
+    }
+
+    /**
+     * Creates a random input
+     * @param random The source of randomness
+     * @param chars The characters to choose from
+     * @param length The number of characters
+     * @return A new string
+     */
+    public static String randomInput(Random random, String chars, int length) {
+        StringBuilder input = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            input.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return input.toString();
+    }
+
+    private static String alternation(Random random, int depth) {
+        StringBuilder regex = new StringBuilder(sequence(random, depth));
+        while (random.nextInt(3) == 0) {
+            regex.append('|').append(sequence(random, depth));
+        }
+        return regex.toString();
+    }
+
+    private static String sequence(Random random, int depth) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            String atom = depth < 2 && random.nextInt(5) == 0
+                    ? "(" + alternation(random, depth + 1) + ")" : ATOMS[random.nextInt(ATOMS.length)];
+            switch(random.nextInt(8)) {
+                case 0:
+                    atom += "*";
+                    break;
+                case 1:
+                    atom += "+";
+                    break;
+                case 2:
+                    atom += "?";
+                    break;
+                case 3:
+                    atom += "{1,2}";
+                    break;
+                default:
+                    break;
+            }
+            regex.append(atom);
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class TokenBufferTest {
+
+    /**
+     * The number of tokens in a segment of a buffer
+     */
+    private static final int SEGMENT = 4096;
+
+    private static final RuleSet LANGUAGE = new RuleSet(Arrays.asList(
+            new LexicalRule(10, "lang", "if|else", new String[] {"KEYWORD"}),
+            new LexicalRule(5, "[a-z][a-z0-9]*", new String[] {"IDENT"}),
+            new LexicalRule(5, "\\d+", new String[] {"NUMBER"}),
+            new LexicalRule(1, "\\s+", new String[0])));
+
+    @Test
+    public void testGrowsAcrossSegments() {
+        // More segments than a new buffer has room for, so the segment arrays grow too
+        String input = tokens(5 * SEGMENT + 17);
+        Lexer lexer = new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE));
+        List<LexicalToken<String>> expected = lexer.lex(input);
+        TokenBuffer buffer = lexer.lexToBuffer(input, true);
+        assertEquals(expected.size(), buffer.size());
+        int line = 1, pos = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            assertEquals("Token " + i, expected.get(i).serialise(), buffer.getToken(i).serialise());
+            for (; pos < buffer.getStart(i); pos++) {
+                if(input.charAt(pos) == '\n') {
+                    line++;
+                }
+            }
+            assertEquals("Line of token " + i, line, buffer.getLine(i));
+        }
+        TokenTrace trace = new TokenTrace();
+        buffer.forEach(trace);
+        assertEquals(TokenTrace.lex(LANGUAGE, DfaMatcher.compile(LANGUAGE), input), trace.toString());
+    }
+
+    @Test
+    public void testRandomAccessAtSegmentEdges() {
+        String input = tokens(3 * SEGMENT);
+        Lexer lexer = new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE));
+        List<LexicalToken<String>> expected = lexer.lex(input);
+        TokenBuffer buffer = lexer.lexToBuffer(input, false);
+        assertFalse(buffer.isTrackingLines());
+        int[] edges = { 0, SEGMENT - 1, SEGMENT, 2 * SEGMENT - 1, 2 * SEGMENT, buffer.size() - 1 };
+        for (int i = edges.length - 1; i >= 0; i--) {
+            int index = edges[i];
+            LexicalToken<String> token = expected.get(index);
+            assertEquals("Token " + index, token.getValue(), buffer.getLexeme(index));
+            assertEquals(token.getValue(), input.substring(buffer.getStart(index), buffer.getEnd(index)));
+            assertEquals(token.getValue().length(), buffer.getLength(index));
+            assertEquals(LANGUAGE.getTokenTypes().getType(token.getNamesapce(), token.getName()),
+                         buffer.getType(index));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testReadingPastTheEndFails() {
+        TokenBuffer buffer = new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE))
+                .lexToBuffer(tokens(SEGMENT), false);
+        buffer.getType(SEGMENT);
+    }
+
+    @Test
+    public void testTypesAndTokensAreCreatedFromTheTypeIds() {
+        TokenBuffer buffer = new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE))
+                .lexToBuffer("if x1 42 else", false);
+        TokenTypes types = LANGUAGE.getTokenTypes();
+        int keyword = types.getType("lang", "KEYWORD");
+        assertEquals(keyword, buffer.getType(0));
+        assertEquals(types.getType(LexicalToken.DEFAULT_NAMESPACE, "IDENT"), buffer.getType(1));
+        assertEquals(types.getType(LexicalToken.DEFAULT_NAMESPACE, "NUMBER"), buffer.getType(2));
+        assertEquals(keyword, buffer.getType(3));
+        // Tokens are only created when asked for, so each call makes a new one
+        LexicalToken<String> token = buffer.getToken(3);
+        assertNotSame(token, buffer.getToken(3));
+        assertEquals("KEYWORD", token.getName());
+        assertEquals("lang", token.getNamesapce());
+        assertEquals("else", token.getValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLinesNeedTracking() {
+        new Lexer(LANGUAGE, DfaMatcher.compile(LANGUAGE)).lexToBuffer("if x", false).getLine(0);
+    }
+
+    /**
+     * Creates an input of a number of tokens of every type, with a few tokens to a line
+     */
+    private static String tokens(int count) {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            switch(i % 4) {
+                case 0:
+                    input.append(i % 8 == 0 ? "if" : "else");
+                    break;
+                case 1:
+                    input.append('v').append(i);
+                    break;
+                default:
+                    input.append(i);
+                    break;
+            }
+            input.append(i % 7 == 6 ? '\n' : ' ');
+        }
+        return input.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+/**
+ * Records the tokens passed to it as a string such as {@code "0@0-2 1@3-5 "}, so the output of
+ * two lexers can be compared with a single assertion that shows where they differ. A failure is
+ * recorded as {@code "!"} followed by its offset.
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public final class TokenTrace implements TokenSink {
+
+    private final StringBuilder trace = new StringBuilder();
+
+    @Override
+    public void onToken(int type, int start, int end) {
+        trace.append(type).append('@').append(start).append('-').append(end).append(' ');
+    }
+
+    /**
+     * Records that lexing stopped because no rule matched
+     * @param offset The offset of the input that couldn't be matched
+     */
+    public void fail(long offset) {
+        trace.append('!').append(offset);
+    }
+
+    /**
+     * Lexes an input with a {@link Lexer} and records the result
+     * @param rules The rules to lex with
+     * @param matcher The matcher for the rules
+     * @param input The text to lex
+     * @return The trace of the tokens, ending with the failure if there is one
+     */
+    public static String lex(RuleSet rules, RuleMatcher matcher, CharSequence input) {
+        TokenTrace trace = new TokenTrace();
+        try {
+            new Lexer(rules, matcher).lex(input, trace);
+        } catch (LexicalException ex) {
+            trace.fail(ex.getOffset());
+        }
+        return trace.toString();
+    }
+
+    @Override
+    public String toString() {
+        return trace.toString();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.io.LexicalRule;
+import java.util.Arrays;
+import java.util.HashSet;
+import javax.tools.ToolProvider;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class TokenTypesTest {
+
+    private static final String NS = LexicalToken.DEFAULT_NAMESPACE;
+
+    private static RuleSet spec() {
+        return new RuleSet(Arrays.asList(
+                new LexicalRule(10, "if|else", new String[] {"KEYWORD"}),
+                new LexicalRule(9, "sql", "select|from", new String[] {"KEYWORD"}),
+                new LexicalRule(5, "[a-z]+", new String[] {"IDENT"}),
+                new LexicalRule(5, "\\d+", new String[] {"NUMBER"}),
+                new LexicalRule(4, "while", new String[] {"KEYWORD"}),
+                new LexicalRule(3, "a-b", new String[] {"a-b"}),
+                new LexicalRule(3, "a_b", new String[] {"a_b"}),
+                new LexicalRule(2, "9lives", new String[] {"9lives"}),
+                new LexicalRule(1, "\\s+", new String[0])));
+    }
+
+    @Test
+    public void testIdsAreDenseInPriorityOrder() {
+        RuleSet rules = spec();
+        TokenTypes types = rules.getTokenTypes();
+        assertEquals(7, types.size());
+        HashSet<Integer> seen = new HashSet<>();
+        for (int rule = 0; rule < rules.size(); rule++) {
+            int type = types.getType(rule);
+            if(rules.get(rule).isSkipped()) {
+                assertEquals(TokenTypes.NO_TYPE, type);
+                continue;
+            }
+            assertTrue(type >= 0 && type < types.size());
+            assertEquals(rules.get(rule).getTokenName(), types.getName(type));
+            assertEquals(rules.get(rule).getNamespace(), types.getNamespace(type));
+            assertEquals(type, types.getType(types.getNamespace(type), types.getName(type)));
+            seen.add(type);
+        }
+        assertEquals(types.size(), seen.size());
+        assertEquals(0, types.getType(NS, "KEYWORD"));
+        assertEquals(1, types.getType("sql", "KEYWORD"));
+        assertEquals(2, types.getType(NS, "IDENT"));
+        assertEquals(TokenTypes.NO_TYPE, types.getType(NS, "MISSING"));
+        assertEquals(TokenTypes.NO_TYPE, types.getType("missing", "KEYWORD"));
+    }
+
+    @Test
+    public void testIdsAndConstantsAreStableForASpec() {
+        TokenTypes first = spec().getTokenTypes(), second = spec().getTokenTypes();
+        for (int rule = 0; rule < spec().size(); rule++) {
+            assertEquals(first.getType(rule), second.getType(rule));
+        }
+        assertEquals(first.generateConstants("a.b", "Types"), second.generateConstants("a.b", "Types"));
+    }
+
+    @Test
+    public void testGeneratedConstantsCompile() throws ReflectiveOperationException {
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+        TokenTypes types = spec().getTokenTypes();
+        Class<?> constants = RuntimeCompiler.compile("Types", types.generateConstants("", "Types"));
+        // Two namespaces, so every constant is qualified with its namespace
+        assertEquals(0, constants.getField("DEFAULT_KEYWORD").getInt(null));
+        assertEquals(1, constants.getField("SQL_KEYWORD").getInt(null));
+        assertEquals(2, constants.getField("DEFAULT_IDENT").getInt(null));
+        assertEquals(3, constants.getField("DEFAULT_NUMBER").getInt(null));
+        // Names that clash once made into identifiers are told apart by their ids
+        assertEquals(4, constants.getField("DEFAULT_A_B").getInt(null));
+        assertEquals(5, constants.getField("DEFAULT_A_B_5").getInt(null));
+        assertEquals(6, constants.getField("DEFAULT_9LIVES").getInt(null));
+        assertEquals(types.size(), constants.getField("COUNT").getInt(null));
+        assertEquals(types.size() + 1, constants.getFields().length);
+    }
+
+    @Test
+    public void testSingleNamespaceConstantsAreUnqualified() throws ReflectiveOperationException {
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+        RuleSet rules = TestRules.of("10 /if/ KEYWORD", "5 /[a-z]+/ IDENT", "5 /count/ COUNT",
+                                     "1 / +/");
+        Class<?> constants = RuntimeCompiler.compile("Types",
+                rules.getTokenTypes().generateConstants("", "Types"));
+        assertEquals(0, constants.getField("KEYWORD").getInt(null));
+        assertEquals(1, constants.getField("IDENT").getInt(null));
+        assertEquals(2, constants.getField("COUNT_2").getInt(null));
+        assertEquals(3, constants.getField("COUNT").getInt(null));
+    }
+}
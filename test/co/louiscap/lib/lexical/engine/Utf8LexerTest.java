@@ -0,0 +1,145 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.engine;
+
+import co.louiscap.lib.compat.lexical.LexicalToken;
+import co.louiscap.lib.lexical.automata.Utf8Dfa;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static co.louiscap.lib.lexical.engine.DfaMatcherTest.describe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class Utf8LexerTest {
+
+    private static final String[] CODE_POINTS = { "a", "b", "c", "x", "_", "9", " ", "\n", "é",
+                                                  "中", "😀", "𝐀" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSupplementaryCharactersLexTheSameEverywhere() throws IOException {
+        RuleSet rules = TestRules.of("5 /[a-z]+/ WORD", "1 /./ CHAR");
+        String input = "ab😀cd";
+        String expected = "WORD:ab CHAR:😀 WORD:cd";
+        DfaMatcher dfa = DfaMatcher.compile(rules);
+        assertEquals(expected, describe(new Lexer(rules, dfa).lex(input)));
+        assertEquals(expected, describe(new Lexer(rules, new PriorityRuleMatcher(rules)).lex(input)));
+        List<LexicalToken<String>> streamed = new ArrayList<>();
+        new StreamingLexer(rules, dfa, 8).lex(new StringReader(input), streamed::add);
+        assertEquals(expected, describe(streamed));
+        assertEquals(expected, describe(lexUtf8(Utf8Lexer.compile(rules), input)));
+        assertEquals(expected, describe(lexMapped(rules, dfa, input)));
+    }
+
+    @Test
+    public void testRulesMatchingSurrogatesAreNotTranslated() throws IOException {
+        RuleSet rules = TestRules.of("5 /[a-z]+/ WORD", "1 /[\\uD800-\\uDBFF]/ HIGH",
+                                     "1 /[\\uDC00-\\uDFFF]/ LOW");
+        DfaMatcher dfa = DfaMatcher.compile(rules);
+        assertNull(dfa.getUtf8Dfa());
+        try {
+            Utf8Dfa.of(dfa.getDfa());
+            fail("Expected a DFA that accepts half a surrogate pair to be refused");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        String input = "ab😀cd";
+        assertEquals("WORD:ab HIGH:\uD83D LOW:\uDE00 WORD:cd",
+                     describe(lexMapped(rules, dfa, input)));
+    }
+
+    @Test
+    public void testAgreesWithLexerOnRandomRules() {
+        Random random = new Random(10);
+        for (int round = 0; round < 300; round++) {
+            RuleSet rules = TestRules.random(random, 1 + random.nextInt(4));
+            DfaMatcher dfa = DfaMatcher.compile(rules);
+            Utf8Lexer utf8 = new Utf8Lexer(rules, dfa.getUtf8Dfa());
+            StringBuilder input = new StringBuilder();
+            for (int i = 0; i < 30; i++) {
+                input.append(CODE_POINTS[random.nextInt(CODE_POINTS.length)]);
+            }
+            assertEquals(rules + " on '" + input + "'", lexChars(rules, dfa, input.toString()),
+                         lexBytes(utf8, input.toString()));
+        }
+    }
+
+    private static String lexChars(RuleSet rules, DfaMatcher dfa, String input) {
+        try {
+            return describe(new Lexer(rules, dfa).lex(input));
+        } catch (LexicalException ex) {
+            return "!";
+        }
+    }
+
+    private static String lexBytes(Utf8Lexer lexer, String input) {
+        try {
+            return describe(lexUtf8(lexer, input));
+        } catch (LexicalException ex) {
+            return "!";
+        }
+    }
+
+    private static List<LexicalToken<String>> lexUtf8(Utf8Lexer lexer, String input) {
+        List<LexicalToken<String>> tokens = new ArrayList<>();
+        lexer.lex(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)),
+                  token -> tokens.add(token.toLexicalToken()));
+        return tokens;
+    }
+
+    private List<LexicalToken<String>> lexMapped(RuleSet rules, DfaMatcher dfa, String input)
+            throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, input.getBytes(StandardCharsets.UTF_8));
+        List<LexicalToken<String>> tokens = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new MappedLexer(rules, dfa, 16).lex(channel, StandardCharsets.UTF_8, tokens::add);
+        }
+        return tokens;
+    }
+}
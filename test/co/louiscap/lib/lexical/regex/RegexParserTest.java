@@ -0,0 +1,135 @@
+/*
+ Copyright (c) 2015, Louis Capitanchik
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution.
+
+ * Neither the name of Affogato nor the names of its associated properties or
+ contributors may be used to endorse or promote products derived from
+ this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package co.louiscap.lib.lexical.regex;
+
+import co.louiscap.lib.lexical.automata.Nfa;
+import co.louiscap.lib.lexical.automata.PikeVm;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Louis Capitanchik &lt;contact@louiscap.co&gt;
+ */
+public class RegexParserTest {
+
+    @Test
+    public void testBacktrackingFeaturesAreRejected() {
+        for (String regex : new String[] { "a(?=b)", "a(?!b)", "(?<=a)b", "(a)\\1", "a*?",
+                                           "a++", "(?>ab)", "\\bword", "a$", "(?i)a" }) {
+            try {
+                RegexParser.parse(regex);
+                fail("/" + regex + "/ should need a backtracking matcher");
+            } catch (UnsupportedRegexException ex) {
+                assertEquals(regex, ex.getSource());
+            }
+        }
+    }
+
+    @Test
+    public void testLeadingAnchorIsIgnored() {
+        assertEquals(RegexParser.parse("ab+").toString(), RegexParser.parse("^ab+").toString());
+    }
+
+    @Test
+    public void testClassOperations() {
+        CharSet letters = CharSet.range('a', 'z');
+        CharSet vowels = CharSet.fromRanges('a', 'a', 'e', 'e', 'i', 'i', 'o', 'o', 'u', 'u');
+        CharSet consonants = letters.minus(vowels);
+        assertEquals(21, consonants.size());
+        assertTrue(consonants.contains('b'));
+        assertFalse(consonants.contains('e'));
+        assertEquals(vowels, letters.intersect(vowels));
+        assertEquals(letters, consonants.union(vowels));
+        assertEquals(CharSet.MAX_CHAR + 1 - 26, letters.complement().size());
+        assertEquals(CharSet.range('a', 'f'), CharSet.fromRanges('d', 'f', 'a', 'c', 'b', 'e'));
+    }
+
+    @Test
+    public void testClassesMatchWholeCodePoints() {
+        String emoji = "\uD83D\uDE00", bold = "\uD835\uDC00";
+        assertEquals(2, matchLength(".", emoji));
+        assertEquals(2, matchLength("[^a]", emoji));
+        assertEquals(2, matchLength("\\W", emoji));
+        assertEquals(2, matchLength("\\p{L}", bold));
+        assertEquals(3, matchLength("\\p{Lu}+", bold + "A"));
+        assertEquals(-1, matchLength("\\P{L}", bold));
+        assertEquals(4, matchLength("\\w.\\w", "a" + emoji + "b"));
+    }
+
+    @Test
+    public void testSupplementaryCharactersInClasses() {
+        String smile = "\uD83D\uDE02";
+        assertEquals(2, matchLength("[\uD83D\uDE00-\uD83D\uDE0F]", smile));
+        assertEquals(2, matchLength("[\\x{1F600}-\\x{1F60F}]", smile));
+        assertEquals(2, matchLength("[\\uD83D\\uDE02]", smile));
+        assertEquals(-1, matchLength("[\\x{1F600}-\\x{1F601}]", smile));
+        // A range spanning several high surrogates
+        assertEquals(2, matchLength("[\\x{10000}-\\x{10FFFF}]", "\uDBFF\uDFFF"));
+        assertEquals(2, matchLength("[\\x{1F000}-\\x{20000}]", "\uD83F\uDFFF"));
+        assertEquals(-1, matchLength("[\\x{1F000}-\\x{20000}]", "\uD840\uDC01"));
+    }
+
+    @Test
+    public void testUnpairedSurrogatesAreOnlyMatchedExplicitly() {
+        assertEquals(-1, matchLength(".", "\uD83D"));
+        assertEquals(-1, matchLength("[^a]", "\uDE00"));
+        assertEquals(1, matchLength("[\\uD800-\\uDBFF]", "\uD83D"));
+        assertEquals(1, matchLength("\\p{Cs}", "\uDE00"));
+        try {
+            RegexParser.parse("[\uD83D]");
+            fail("An unpaired surrogate in a class should be rejected");
+        } catch (UnsupportedRegexException ex) {
+            assertEquals(1, ex.getIndex());
+        }
+    }
+
+    @Test
+    public void testCodePointComplement() {
+        CharSet letters = CharSet.range('a', 'z');
+        CharSet rest = letters.complementCodePoints();
+        assertEquals(CharSet.MAX_CODE_POINT + 1 - 26 - CharSet.SURROGATES.size(), rest.size());
+        assertTrue(rest.hasSupplementary());
+        assertFalse(rest.contains(0xD800));
+        assertEquals(CharSet.range(0x10000, 0x10FFFF),
+                     rest.intersect(CharSet.range(0x10000, CharSet.MAX_CODE_POINT)));
+    }
+
+    /**
+     * Gets the length of the longest match of a rule at the start of some input
+     */
+    private static int matchLength(String regex, String input) {
+        Nfa nfa = Nfa.build(Collections.singletonList(RegexParser.parse(regex)));
+        return new PikeVm().match(nfa, nfa.getRuleStart(0), input, 0, input.length());
+    }
+}